@@ -0,0 +1,366 @@
+package com.instaclustr.sstabletools;
+
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.utils.EstimatedHistogram;
+import org.apache.cassandra.utils.FBUtilities;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Mergeable result of analysing a table on one node, written in a compact versioned binary format.
+ * <p>
+ * Holds counters, histograms with fixed buckets so they can be merged by adding bucket counts, the leading partitions
+ * by size, rows, tombstones and sstable count with their key bytes, and the statistics of each sstable.
+ */
+public class AnalysisResult {
+    public static final int MAGIC = 0x53535452;
+    public static final int VERSION = 1;
+
+    /**
+     * Number of histogram buckets, enough for partition sizes in the terabytes as in sstable metadata.
+     */
+    public static final int HISTOGRAM_BUCKETS = 155;
+
+    public static final String PARTITIONS = "partitions";
+    public static final String SIZE = "size";
+    public static final String ROWS = "rows";
+    public static final String DELETED = "deleted";
+    public static final String CELLS = "cells";
+    public static final String TOMBSTONES = "tombstones";
+    public static final String SSTABLES = "sstables";
+
+    /**
+     * Partition leading one of the rankings.
+     */
+    public static class Leader {
+        /**
+         * Partition key formatted for display.
+         */
+        public final String key;
+
+        /**
+         * Statistics of the partition, including its key bytes.
+         */
+        public final PartitionStatistics stats;
+
+        public Leader(String key, PartitionStatistics stats) {
+            this.key = key;
+            this.stats = stats;
+        }
+    }
+
+    /**
+     * Command the result was collected by.
+     */
+    public String command;
+
+    /**
+     * Host the result was collected on.
+     */
+    public String host;
+
+    public String keyspace;
+
+    public String table;
+
+    /**
+     * Partitioner class name.
+     */
+    public String partitioner;
+
+    /**
+     * Time of the analysis in milliseconds since the epoch.
+     */
+    public long created = Util.NOW;
+
+    /**
+     * Fraction of partitions read, less than 1 when sampled or stopped by a time budget.
+     */
+    public double fraction = 1;
+
+    public final Map<String, Long> counters = new LinkedHashMap<>();
+
+    public final Map<String, EstimatedHistogram> histograms = new LinkedHashMap<>();
+
+    /**
+     * Leading partitions by the statistic they are ranked by.
+     */
+    public final Map<String, List<Leader>> leaders = new LinkedHashMap<>();
+
+    public final List<SSTableStatistics> sstables = new ArrayList<>();
+
+    private AnalysisResult() {
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param command     Command collecting the result.
+     * @param keyspace    Keyspace name.
+     * @param table       Table name.
+     * @param partitioner Partitioner of the table.
+     */
+    public AnalysisResult(String command, String keyspace, String table, IPartitioner partitioner) {
+        this.command = command;
+        this.keyspace = keyspace;
+        this.table = table;
+        this.partitioner = partitioner.getClass().getName();
+        try {
+            this.host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            this.host = "unknown";
+        }
+    }
+
+    /**
+     * Add to a counter.
+     *
+     * @param name  Counter name.
+     * @param value Value to add.
+     */
+    public void count(String name, long value) {
+        counters.merge(name, value, Long::sum);
+    }
+
+    /**
+     * Add a value to a histogram.
+     *
+     * @param name  Histogram name.
+     * @param value Value to add.
+     */
+    public void update(String name, long value) {
+        histograms.computeIfAbsent(name, n -> new EstimatedHistogram(HISTOGRAM_BUCKETS)).add(value);
+    }
+
+    /**
+     * Set the leading partitions of a ranking.
+     *
+     * @param name       Statistic the partitions are ranked by.
+     * @param partitions Leading partitions.
+     * @param formatter  Formatter of partition keys.
+     */
+    public void setLeaders(String name, Collection<PartitionStatistics> partitions, Function<DecoratedKey, String> formatter) {
+        List<Leader> list = new ArrayList<>(partitions.size());
+        for (PartitionStatistics pStats : partitions) {
+            list.add(new Leader(formatter.apply(pStats.key), pStats));
+        }
+        leaders.put(name, list);
+    }
+
+    /**
+     * Add the result of reading another part of the same table, such as another token range.
+     *
+     * @param other Result of another part of the table.
+     * @param limit Number of leading partitions to keep in each ranking.
+     */
+    public void add(AnalysisResult other, int limit) {
+        for (Map.Entry<String, Long> entry : other.counters.entrySet()) {
+            count(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, EstimatedHistogram> entry : other.histograms.entrySet()) {
+            histograms.merge(entry.getKey(), entry.getValue(), AnalysisResult::merge);
+        }
+        for (Map.Entry<String, List<Leader>> entry : other.leaders.entrySet()) {
+            String name = entry.getKey();
+            List<Leader> list = new ArrayList<>(leaders.getOrDefault(name, new ArrayList<>()));
+            list.addAll(entry.getValue());
+            list.sort(Comparator.comparingLong((Leader leader) -> getValue(name, leader.stats)).reversed());
+            leaders.put(name, new ArrayList<>(list.subList(0, Math.min(limit, list.size()))));
+        }
+        // Each part reads the sstables of its token range, so statistics of the same sstable are summed.
+        Map<String, SSTableStatistics> byFilename = new HashMap<>();
+        for (SSTableStatistics stats : sstables) {
+            byFilename.put(stats.filename, stats);
+        }
+        for (SSTableStatistics stats : other.sstables) {
+            SSTableStatistics existing = byFilename.get(stats.filename);
+            if (existing != null) {
+                existing.add(stats);
+            } else {
+                byFilename.put(stats.filename, stats);
+                sstables.add(stats);
+            }
+        }
+    }
+
+    /**
+     * Get the value of the statistic a ranking is by.
+     *
+     * @param name   Statistic.
+     * @param pStats Partition statistics.
+     * @return Value of the statistic.
+     */
+    public static long getValue(String name, PartitionStatistics pStats) {
+        switch (name) {
+            case SIZE:
+                return pStats.size;
+            case ROWS:
+                return pStats.rowCount;
+            case DELETED:
+                return pStats.rowDeleteCount;
+            case CELLS:
+                return pStats.cellCount;
+            case TOMBSTONES:
+                return pStats.tombstoneCount;
+            case SSTABLES:
+                return pStats.tableCount;
+            default:
+                throw new IllegalArgumentException("Unknown statistic " + name);
+        }
+    }
+
+    /**
+     * Merge two histograms with the same buckets.
+     *
+     * @param a First histogram.
+     * @param b Second histogram.
+     * @return Histogram with the bucket counts of both.
+     */
+    public static EstimatedHistogram merge(EstimatedHistogram a, EstimatedHistogram b) {
+        if (!Arrays.equals(a.getBucketOffsets(), b.getBucketOffsets())) {
+            throw new IllegalArgumentException("Unable to merge histograms with different buckets");
+        }
+        long[] buckets = a.getBuckets(false);
+        long[] other = b.getBuckets(false);
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] += other[i];
+        }
+        return new EstimatedHistogram(a.getBucketOffsets(), buckets);
+    }
+
+    /**
+     * Write the result.
+     *
+     * @param file File to write.
+     * @throws IOException if unable to write.
+     */
+    public void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(command);
+            out.writeUTF(host);
+            out.writeUTF(keyspace);
+            out.writeUTF(table);
+            out.writeUTF(partitioner);
+            out.writeLong(created);
+            out.writeDouble(fraction);
+            out.writeInt(counters.size());
+            for (Map.Entry<String, Long> entry : counters.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+            out.writeInt(histograms.size());
+            for (Map.Entry<String, EstimatedHistogram> entry : histograms.entrySet()) {
+                out.writeUTF(entry.getKey());
+                long[] offsets = entry.getValue().getBucketOffsets();
+                long[] buckets = entry.getValue().getBuckets(false);
+                out.writeInt(offsets.length);
+                for (int i = 0; i < offsets.length; i++) {
+                    out.writeLong(offsets[i]);
+                    out.writeLong(buckets[i]);
+                }
+                // Overflow bucket.
+                out.writeLong(buckets[buckets.length - 1]);
+            }
+            out.writeInt(leaders.size());
+            for (Map.Entry<String, List<Leader>> entry : leaders.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (Leader leader : entry.getValue()) {
+                    // Formatted keys can be longer than writeUTF allows.
+                    byte[] key = leader.key.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(key.length);
+                    out.write(key);
+                    leader.stats.write(out);
+                }
+            }
+            out.writeInt(sstables.size());
+            for (SSTableStatistics stats : sstables) {
+                stats.write(out);
+            }
+        }
+    }
+
+    /**
+     * Read a result written by {@link #write(File)}.
+     *
+     * @param file File to read.
+     * @return Result.
+     * @throws IOException if the file is unreadable or not a result.
+     */
+    public static AnalysisResult read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not an analysis result");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(file + " has unsupported version " + version);
+            }
+            AnalysisResult result = new AnalysisResult();
+            result.command = in.readUTF();
+            result.host = in.readUTF();
+            result.keyspace = in.readUTF();
+            result.table = in.readUTF();
+            result.partitioner = in.readUTF();
+            result.created = in.readLong();
+            result.fraction = in.readDouble();
+            int counterCount = in.readInt();
+            for (int i = 0; i < counterCount; i++) {
+                result.counters.put(in.readUTF(), in.readLong());
+            }
+            int histogramCount = in.readInt();
+            for (int i = 0; i < histogramCount; i++) {
+                String name = in.readUTF();
+                int size = in.readInt();
+                long[] offsets = new long[size];
+                long[] buckets = new long[size + 1];
+                for (int j = 0; j < size; j++) {
+                    offsets[j] = in.readLong();
+                    buckets[j] = in.readLong();
+                }
+                buckets[size] = in.readLong();
+                result.histograms.put(name, new EstimatedHistogram(offsets, buckets));
+            }
+            IPartitioner partitioner = FBUtilities.newPartitioner(result.partitioner);
+            int leaderCount = in.readInt();
+            for (int i = 0; i < leaderCount; i++) {
+                String name = in.readUTF();
+                int size = in.readInt();
+                List<Leader> list = new ArrayList<>(size);
+                for (int j = 0; j < size; j++) {
+                    byte[] key = new byte[in.readInt()];
+                    in.readFully(key);
+                    list.add(new Leader(new String(key, StandardCharsets.UTF_8), PartitionStatistics.read(in, partitioner)));
+                }
+                result.leaders.put(name, list);
+            }
+            int sstableCount = in.readInt();
+            for (int i = 0; i < sstableCount; i++) {
+                result.sstables.add(SSTableStatistics.read(in));
+            }
+            return result;
+        }
+    }
+}
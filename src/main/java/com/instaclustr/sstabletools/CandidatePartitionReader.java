@@ -0,0 +1,265 @@
+package com.instaclustr.sstabletools;
+
+import com.google.common.collect.MinMaxPriorityQueue;
+import org.apache.cassandra.db.DecoratedKey;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Read partitions from the partition indexes, only decoding candidate partitions from Data.db.
+ * <p>
+ * A first pass over the partition indexes finds the exact size and SSTable count of every partition, and selects
+ * as candidates the partitions above a size or SSTable count threshold along with the largest partitions and those
+ * in the most SSTables. A second pass over the partition indexes returns every partition, with the candidates
+ * decoded from Data.db by seeking to them through the index.
+ * <p>
+ * The keys of the candidates are held in memory, so at most a maximum number of partitions above the thresholds are
+ * selected. Further partitions above the thresholds are only ranked with the rest for the largest partitions and
+ * those in the most SSTables.
+ */
+public class CandidatePartitionReader extends PartitionReader {
+    /**
+     * Factory of readers of the SSTable partition indexes.
+     */
+    private final Supplier<Collection<SSTableReader>> indexReaderFactory;
+
+    /**
+     * Factory of readers decoding the partitions of keys from the SSTable Data.db files.
+     */
+    private final Function<List<DecoratedKey>, Collection<SSTableReader>> dataReaderFactory;
+
+    /**
+     * Minimum size of a candidate partition, or 0 for no size threshold.
+     */
+    private final long minSize;
+
+    /**
+     * Minimum SSTable count of a candidate partition, or 0 for no SSTable count threshold.
+     */
+    private final int minSSTables;
+
+    /**
+     * Number of the largest partitions and of the partitions in the most SSTables to decode.
+     */
+    private final int topN;
+
+    /**
+     * Maximum number of partitions above the thresholds to select as candidates.
+     */
+    private final int maxCandidates;
+
+    /**
+     * Reader of the second pass over the partition indexes, or null before the first pass.
+     */
+    private PartitionReader indexReader;
+
+    /**
+     * Reader of the decoded candidate partitions.
+     */
+    private PartitionReader dataReader;
+
+    /**
+     * Next decoded candidate partition, or null if none left.
+     */
+    private PartitionStatistics candidate;
+
+    /**
+     * Number of candidate partitions.
+     */
+    private int candidateCount;
+
+    /**
+     * Number of partitions above the thresholds not selected as the maximum number of candidates was reached.
+     */
+    private long skippedCount;
+
+    /**
+     * Reader of the first pass over the partition indexes, or null if not in the first pass.
+     */
+    private PartitionReader firstPass;
+
+    /**
+     * Constructor.
+     *
+     * @param indexReaderFactory Factory of readers of the SSTable partition indexes.
+     * @param dataReaderFactory  Factory of readers decoding the partitions of keys sorted in token order.
+     * @param minSize            Minimum size of a candidate partition, or 0 for no size threshold.
+     * @param minSSTables        Minimum SSTable count of a candidate partition, or 0 for no SSTable count threshold.
+     * @param topN               Number of the largest partitions and of the partitions in the most SSTables to decode.
+     * @param maxCandidates      Maximum number of partitions above the thresholds to select as candidates.
+     */
+    public CandidatePartitionReader(Supplier<Collection<SSTableReader>> indexReaderFactory,
+                                    Function<List<DecoratedKey>, Collection<SSTableReader>> dataReaderFactory,
+                                    long minSize,
+                                    int minSSTables,
+                                    int topN,
+                                    int maxCandidates) {
+        super(Collections.emptyList(), 1);
+        this.indexReaderFactory = indexReaderFactory;
+        this.dataReaderFactory = dataReaderFactory;
+        this.minSize = minSize;
+        this.minSSTables = minSSTables;
+        this.topN = topN;
+        this.maxCandidates = maxCandidates;
+    }
+
+    @Override
+    public PartitionStatistics read() {
+        if (indexReader == null) {
+            selectCandidates();
+        }
+        PartitionStatistics pStats = indexReader.read();
+        if (pStats == null) {
+            return null;
+        }
+        while (candidate != null && candidate.key.compareTo(pStats.key) < 0) {
+            candidate = dataReader.read();
+        }
+        if (candidate == null || !candidate.key.equals(pStats.key)) {
+            return pStats;
+        }
+        // Keep the size and SSTable count of the index so candidates are measured like every other partition.
+        PartitionStatistics decoded = candidate;
+        decoded.size = pStats.size;
+        decoded.tableCount = pStats.tableCount;
+        candidate = dataReader.read();
+        return decoded;
+    }
+
+    /**
+     * Select candidates in a first pass over the partition indexes and start the second pass.
+     */
+    private void selectCandidates() {
+        NavigableSet<DecoratedKey> keys = new TreeSet<>();
+        MinMaxPriorityQueue<PartitionStatistics> largest = null;
+        MinMaxPriorityQueue<PartitionStatistics> mostSSTables = null;
+        if (topN > 0) {
+            largest = MinMaxPriorityQueue.orderedBy(PartitionStatistics.SIZE_COMPARATOR).maximumSize(topN).create();
+            mostSSTables = MinMaxPriorityQueue.orderedBy(PartitionStatistics.SSTABLE_COUNT_COMPARATOR).maximumSize(topN).create();
+        }
+        Collection<SSTableReader> firstPassReaders = indexReaderFactory.get();
+        firstPass = new PartitionReader(firstPassReaders, length(firstPassReaders));
+        PartitionStatistics pStats;
+        while ((pStats = firstPass.read()) != null) {
+            boolean selected = (minSize > 0 && pStats.size >= minSize) || (minSSTables > 0 && pStats.tableCount >= minSSTables);
+            if (selected && keys.size() >= maxCandidates) {
+                selected = false;
+                skippedCount++;
+            }
+            if (selected) {
+                keys.add(pStats.key);
+            } else if (largest != null) {
+                largest.add(pStats);
+                mostSSTables.add(pStats);
+            }
+            if (progressBar != null) {
+                progressBar.updateProgress(getProgress());
+            }
+        }
+        firstPass = null;
+        if (largest != null) {
+            for (PartitionStatistics p : largest) {
+                keys.add(p.key);
+            }
+            for (PartitionStatistics p : mostSSTables) {
+                keys.add(p.key);
+            }
+        }
+        candidateCount = keys.size();
+
+        dataReader = new PartitionReader(dataReaderFactory.apply(new ArrayList<>(keys)), 1);
+        candidate = dataReader.read();
+
+        Collection<SSTableReader> readers = indexReaderFactory.get();
+        indexReader = new PartitionReader(readers, length(readers));
+    }
+
+    /**
+     * Get the length in bytes to be read by readers of the partition indexes.
+     *
+     * @param readers Readers of the partition indexes.
+     * @return Length in bytes, at least 1.
+     */
+    private static long length(Collection<SSTableReader> readers) {
+        long length = 0;
+        for (SSTableReader reader : readers) {
+            length += reader.getSSTableStatistics().size;
+        }
+        return Math.max(1, length);
+    }
+
+    /**
+     * Get the number of candidate partitions decoded.
+     *
+     * @return Number of candidate partitions.
+     */
+    public int getCandidateCount() {
+        return candidateCount;
+    }
+
+    /**
+     * Get the number of partitions above the thresholds that were not decoded as the maximum number of candidates
+     * was reached.
+     *
+     * @return Number of partitions not decoded.
+     */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * Read progress, the first pass over the partition indexes taking the first half.
+     *
+     * @return Read progress as percentage.
+     */
+    @Override
+    public double getProgress() {
+        if (indexReader != null) {
+            return 0.5 + indexReader.getProgress() / 2;
+        }
+        return firstPass != null ? firstPass.getProgress() / 2 : 0;
+    }
+
+    /**
+     * Get SSTable statistics of the partition indexes with the cell statistics of the decoded candidates.
+     *
+     * @return Statistics for each SSTable.
+     */
+    @Override
+    public List<SSTableStatistics> getSSTableStatistics() {
+        if (indexReader == null) {
+            return Collections.emptyList();
+        }
+        Map<String, SSTableStatistics> decoded = new HashMap<>();
+        for (SSTableStatistics stats : dataReader.getSSTableStatistics()) {
+            decoded.put(stats.filename, stats);
+        }
+        List<SSTableStatistics> result = indexReader.getSSTableStatistics();
+        for (SSTableStatistics stats : result) {
+            SSTableStatistics d = decoded.get(stats.filename);
+            if (d == null) {
+                continue;
+            }
+            stats.rowCount = d.rowCount;
+            stats.rowDeleteCount = d.rowDeleteCount;
+            stats.cellCount = d.cellCount;
+            stats.liveCellCount = d.liveCellCount;
+            stats.expiringCellCount = d.expiringCellCount;
+            stats.rangeTombstoneCount = d.rangeTombstoneCount;
+            stats.counterCellCount = d.counterCellCount;
+            stats.tombstoneCount = d.tombstoneCount;
+            stats.droppableTombstoneCount = d.droppableTombstoneCount;
+            stats.partitionDeleteCount = d.partitionDeleteCount;
+        }
+        return result;
+    }
+}
@@ -2,6 +2,7 @@ package com.instaclustr.sstabletools;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Proxy to Cassandra backend.
@@ -30,6 +31,16 @@ public interface CassandraProxy {
      */
     List<SSTableMetadata> getSSTableMetadata(String ksName, String cfName);
 
+    /**
+     * Get metadata about sstables.
+     *
+     * @param ksName      Keyspace name.
+     * @param cfName      Column family name.
+     * @param cardinality Load the partition key cardinality estimator of each sstable from Statistics.db.
+     * @return SSTable metadata.
+     */
+    List<SSTableMetadata> getSSTableMetadata(String ksName, String cfName, boolean cardinality);
+
     /**
      * Get proxy to cassandra column family backend.
      *
@@ -41,6 +52,18 @@ public interface CassandraProxy {
      */
     ColumnFamilyProxy getColumnFamily(String ksName, String cfName, String snapshotName, Collection<String> filter);
 
+    /**
+     * Get proxy to column family backend.
+     *
+     * @param ksName Keyspace name.
+     * @param cfName Column family name.
+     * @param snapshotName Snapshot name to use, or null to one generated.
+     * @param filter List of SSTables to analyse, or null to include all.
+     * @param noSnapshot Read the live SSTables instead of creating a snapshot when no snapshot name is given.
+     * @return Proxy to cassandra column family backend.
+     */
+    ColumnFamilyProxy getColumnFamily(String ksName, String cfName, String snapshotName, Collection<String> filter, boolean noSnapshot);
+
     /**
      * Get the compaction class for column family.
      *
@@ -49,4 +72,22 @@ public interface CassandraProxy {
      * @return The compaction class.
      */
     Class<?> getCompactionClass(String ksName, String cfName);
+
+    /**
+     * Get the compaction options for column family.
+     *
+     * @param ksName Keyspace name.
+     * @param cfName Column family name.
+     * @return The compaction options.
+     */
+    Map<String, String> getCompactionOptions(String ksName, String cfName);
+
+    /**
+     * Get gc_grace_seconds of column family.
+     *
+     * @param ksName Keyspace name.
+     * @param cfName Column family name.
+     * @return gc_grace_seconds.
+     */
+    int getGcGraceSeconds(String ksName, String cfName);
 }
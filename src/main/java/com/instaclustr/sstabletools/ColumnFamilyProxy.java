@@ -1,8 +1,12 @@
 package com.instaclustr.sstabletools;
 
 import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 
 import java.util.Collection;
+import java.util.List;
 
 /**
  * Proxy to column family related functions of Cassandra backend.
@@ -16,6 +20,14 @@ public interface ColumnFamilyProxy extends AutoCloseable {
      */
     Collection<SSTableReader> getIndexReaders();
 
+    /**
+     * Get readers for SSTable partition indexes restricted to token ranges.
+     *
+     * @param ranges Token ranges to read.
+     * @return Collection of readers for SSTable partition indexes.
+     */
+    Collection<SSTableReader> getIndexReaders(Collection<Range<Token>> ranges);
+
     /**
      * Get readers for SSTable Data.db files for this column family.
      *
@@ -23,6 +35,51 @@ public interface ColumnFamilyProxy extends AutoCloseable {
      */
     Collection<SSTableReader> getDataReaders();
 
+    /**
+     * Get readers for a selection of partitions in SSTable Data.db files for this column family.
+     *
+     * @param sampler Sampler to select partitions, or null to read all partitions.
+     * @param ranges  Token ranges to read, or null to read all token ranges.
+     * @return Collection of readers for SSTable Data.db files.
+     */
+    Collection<SSTableReader> getDataReaders(PartitionSampler sampler, Collection<Range<Token>> ranges);
+
+    /**
+     * Get readers for a selection of partitions in a slice of the SSTable Data.db files for this column family.
+     * <p>
+     * Readers are only opened for the SSTables in the slice, so a large number of SSTables can be read a slice at a time.
+     *
+     * @param sampler Sampler to select partitions, or null to read all partitions.
+     * @param ranges  Token ranges to read, or null to read all token ranges.
+     * @param offset  Index of the first SSTable in the slice.
+     * @param count   Maximum number of SSTables in the slice.
+     * @return Collection of readers for SSTable Data.db files.
+     */
+    Collection<SSTableReader> getDataReaders(PartitionSampler sampler, Collection<Range<Token>> ranges, int offset, int count);
+
+    /**
+     * Decode full rows and cells when reading SSTable Data.db files, instead of only the headers of rows and cells
+     * which is enough to collect the statistics. Applies to reading all partitions and to selections of partitions.
+     *
+     * @param fullDecode True to decode full rows and cells.
+     */
+    void setFullDecode(boolean fullDecode);
+
+    /**
+     * Get the number of SSTables of this column family being read.
+     *
+     * @return Number of SSTables.
+     */
+    int getSSTableCount();
+
+    /**
+     * Get readers for the partitions of keys in SSTable Data.db files for this column family.
+     *
+     * @param keys Partition keys sorted in token order.
+     * @return Collection of readers for SSTable Data.db files.
+     */
+    Collection<SSTableReader> getDataReaders(List<DecoratedKey> keys);
+
     /**
      * Get purge statistics reader.
      *
@@ -30,6 +87,48 @@ public interface ColumnFamilyProxy extends AutoCloseable {
      */
     PurgeStatisticsReader getPurgeStatisticsReader();
 
+    /**
+     * Get purge statistics reader for a selection of partitions.
+     *
+     * @param sampler Sampler to select partitions, or null to read all partitions.
+     * @param ranges  Token ranges to read, or null to read all token ranges.
+     * @return Reader for purge statistics.
+     */
+    PurgeStatisticsReader getPurgeStatisticsReader(PartitionSampler sampler, Collection<Range<Token>> ranges);
+
+    /**
+     * Get purge statistics reader for a selection of partitions that forecasts data becoming reclaimable.
+     *
+     * @param sampler  Sampler to select partitions, or null to read all partitions.
+     * @param ranges   Token ranges to read, or null to read all token ranges.
+     * @param gcGrace  gc_grace_seconds to decide when data is purgeable.
+     * @param forecast Forecast to record data that will become reclaimable, or null to not forecast.
+     * @return Reader for purge statistics.
+     */
+    PurgeStatisticsReader getPurgeStatisticsReader(PartitionSampler sampler, Collection<Range<Token>> ranges, int gcGrace, PurgeForecast forecast);
+
+    /**
+     * Get gc_grace_seconds of the column family.
+     *
+     * @return gc_grace_seconds.
+     */
+    int getGcGraceSeconds();
+
+    /**
+     * Get the partitioner of the column family.
+     *
+     * @return Partitioner.
+     */
+    IPartitioner getPartitioner();
+
+    /**
+     * Parse partition key from human readable format.
+     *
+     * @param key Human readable partition key.
+     * @return Decorated partition key.
+     */
+    DecoratedKey parseKey(String key);
+
     /**
      * Format partition key into human readable format.
      *
@@ -0,0 +1,218 @@
+package com.instaclustr.sstabletools;
+
+import org.apache.cassandra.io.sstable.SSTableId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Plans user defined compactions from purge statistics.
+ * <p>
+ * Reclaimable bytes of each partition are aggregated by the set of sstables holding the partition, as all of them
+ * have to be compacted together for it to be reclaimed. Candidate sstable sets start from each of these sets and
+ * greedily take in other sets while that improves the bytes reclaimed per byte rewritten within the budget.
+ */
+public class CompactionPlanner {
+    /**
+     * Maximum number of sstable sets candidates are started from.
+     */
+    private static final int MAX_SEEDS = 100;
+
+    /**
+     * Maximum number of sstable sets considered for growing a candidate.
+     */
+    private static final int MAX_SETS = 1000;
+
+    public final static Comparator<Candidate> RATIO_COMPARATOR = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate o1, Candidate o2) {
+            int cmp = -Double.compare(o1.getRatio(), o2.getRatio());
+            return cmp == 0 ? -Long.compare(o1.reclaim, o2.reclaim) : cmp;
+        }
+    };
+
+    /**
+     * A set of sstables to compact together.
+     */
+    public static class Candidate {
+        /**
+         * SSTables to compact.
+         */
+        public Set<SSTableId> ssTableIds;
+
+        /**
+         * Bytes reclaimed by compacting the sstables.
+         */
+        public long reclaim;
+
+        /**
+         * Bytes rewritten by compacting the sstables.
+         */
+        public long rewrite;
+
+        /**
+         * Bytes reclaimed per byte rewritten.
+         *
+         * @return Ratio of reclaim to rewrite.
+         */
+        public double getRatio() {
+            return rewrite > 0 ? reclaim / (double) rewrite : 0;
+        }
+    }
+
+    /**
+     * Candidate of no sstables that others are grown from.
+     */
+    private static final Candidate EMPTY = new Candidate();
+
+    static {
+        EMPTY.ssTableIds = Collections.emptySet();
+    }
+
+    /**
+     * Reclaimable bytes by the set of sstables that have to be compacted together.
+     */
+    private final Map<Set<SSTableId>, Long> reclaimBySet = new HashMap<>();
+
+    /**
+     * Reclaimable bytes of partitions each sstable holds.
+     */
+    private final Map<SSTableId, Long> reclaimBySSTable = new HashMap<>();
+
+    /**
+     * Add purge statistics of a partition.
+     *
+     * @param stats Purge statistics.
+     */
+    public void add(PurgeStatistics stats) {
+        if (stats.reclaimable <= 0) {
+            return;
+        }
+        reclaimBySet.merge(new HashSet<>(stats.ssTableIds), stats.reclaimable, Long::sum);
+        for (SSTableId id : stats.ssTableIds) {
+            reclaimBySSTable.merge(id, stats.reclaimable, Long::sum);
+        }
+    }
+
+    /**
+     * Get reclaimable bytes of partitions each sstable holds.
+     *
+     * @return Reclaimable bytes by sstable.
+     */
+    public Map<SSTableId, Long> getReclaimBySSTable() {
+        return reclaimBySSTable;
+    }
+
+    /**
+     * Get reclaimable bytes of partitions only in a single sstable.
+     *
+     * @param id SSTable.
+     * @return Reclaimable bytes.
+     */
+    public long getReclaimAlone(SSTableId id) {
+        return reclaimBySet.getOrDefault(Collections.singleton(id), 0L);
+    }
+
+    /**
+     * Plan the best sets of sstables to compact.
+     *
+     * @param sizes  Size of each sstable, sets with sstables of unknown size are skipped.
+     * @param budget Maximum bytes rewritten by a candidate, or 0 for no limit.
+     * @param count  Number of candidates to return.
+     * @return Candidates ranked by bytes reclaimed per byte rewritten.
+     */
+    public List<Candidate> plan(Map<SSTableId, Long> sizes, long budget, int count) {
+        // Index the sets by sstable so a candidate only looks at the sets of its own sstables.
+        Map<SSTableId, List<Map.Entry<Set<SSTableId>, Long>>> setsBySSTable = new HashMap<>();
+        for (Map.Entry<Set<SSTableId>, Long> entry : reclaimBySet.entrySet()) {
+            for (SSTableId id : entry.getKey()) {
+                setsBySSTable.computeIfAbsent(id, k -> new ArrayList<>()).add(entry);
+            }
+        }
+
+        List<Candidate> sets = new ArrayList<>();
+        for (Map.Entry<Set<SSTableId>, Long> entry : reclaimBySet.entrySet()) {
+            Candidate set = grow(EMPTY, entry.getKey(), sizes, setsBySSTable);
+            if (set != null && (budget <= 0 || set.rewrite <= budget)) {
+                sets.add(set);
+            }
+        }
+        sets.sort(RATIO_COMPARATOR);
+        List<Candidate> considered = sets.subList(0, Math.min(MAX_SETS, sets.size()));
+
+        Map<Set<SSTableId>, Candidate> candidates = new LinkedHashMap<>();
+        for (Candidate seed : sets.subList(0, Math.min(MAX_SEEDS, sets.size()))) {
+            Candidate best = seed;
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                Candidate next = best;
+                for (Candidate set : considered) {
+                    if (best.ssTableIds.containsAll(set.ssTableIds)) {
+                        continue;
+                    }
+                    Candidate grown = grow(best, set.ssTableIds, sizes, setsBySSTable);
+                    if (grown != null && (budget <= 0 || grown.rewrite <= budget) && RATIO_COMPARATOR.compare(grown, next) < 0) {
+                        next = grown;
+                    }
+                }
+                if (next != best) {
+                    best = next;
+                    improved = true;
+                }
+            }
+            candidates.putIfAbsent(best.ssTableIds, best);
+        }
+
+        List<Candidate> ranked = new ArrayList<>(candidates.values());
+        ranked.sort(RATIO_COMPARATOR);
+        return ranked.subList(0, Math.min(count, ranked.size()));
+    }
+
+    /**
+     * Build a candidate from another candidate and a set of sstables to add to it.
+     * <p>
+     * Only the sets holding an added sstable can become reclaimable, so the totals of the base candidate are kept
+     * and just those sets are checked.
+     *
+     * @param base          Candidate to grow.
+     * @param ssTableIds    SSTables to add.
+     * @param sizes         Size of each sstable.
+     * @param setsBySSTable Sets of sstables and their reclaimable bytes by the sstables in them.
+     * @return Candidate, or null if the size of an sstable is unknown.
+     */
+    private static Candidate grow(Candidate base, Set<SSTableId> ssTableIds, Map<SSTableId, Long> sizes, Map<SSTableId, List<Map.Entry<Set<SSTableId>, Long>>> setsBySSTable) {
+        Candidate candidate = new Candidate();
+        candidate.ssTableIds = new HashSet<>(base.ssTableIds);
+        candidate.rewrite = base.rewrite;
+        candidate.reclaim = base.reclaim;
+        List<SSTableId> added = new ArrayList<>(ssTableIds.size());
+        for (SSTableId id : ssTableIds) {
+            if (candidate.ssTableIds.add(id)) {
+                Long size = sizes.get(id);
+                if (size == null) {
+                    return null;
+                }
+                candidate.rewrite += size;
+                added.add(id);
+            }
+        }
+        Set<Set<SSTableId>> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (SSTableId id : added) {
+            for (Map.Entry<Set<SSTableId>, Long> entry : setsBySSTable.getOrDefault(id, Collections.emptyList())) {
+                if (counted.add(entry.getKey()) && candidate.ssTableIds.containsAll(entry.getKey())) {
+                    candidate.reclaim += entry.getValue();
+                }
+            }
+        }
+        return candidate;
+    }
+}
@@ -0,0 +1,362 @@
+package com.instaclustr.sstabletools;
+
+import org.apache.cassandra.dht.Token;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Simulates compaction strategies over a set of sstables.
+ * <p>
+ * Each strategy buckets the current sstables the way it would, merging buckets until none qualify, which gives the
+ * bytes it would rewrite to settle. Its steady state is modelled by the number of levels or tiers data passes
+ * through, which gives the write amplification and the number of sstables that overlap a token on read.
+ */
+public class CompactionSimulator {
+    /**
+     * Smallest fraction of the token ring an sstable is taken to cover.
+     */
+    private static final double MIN_COVERAGE = 1e-6;
+
+    /**
+     * SSTables to simulate over.
+     */
+    private final List<SSTableMetadata> sstables;
+
+    /**
+     * Size of a flushed sstable, the size data enters compaction at.
+     */
+    private final long flushSize;
+
+    /**
+     * Total disk size of sstables.
+     */
+    private long totalSize = 0;
+
+    /**
+     * Average number of sstables overlapping a token covered by the sstables.
+     */
+    private double averageOverlap = 0;
+
+    /**
+     * Maximum number of sstables overlapping a token.
+     */
+    private int maxOverlap = 0;
+
+    /**
+     * Outcome of simulating a strategy.
+     */
+    public static class Result {
+        /**
+         * Strategy name.
+         */
+        public String strategy;
+
+        /**
+         * Levels or tiers data passes through in steady state.
+         */
+        public int levels;
+
+        /**
+         * Bytes rewritten to settle the current sstables.
+         */
+        public long rewrite;
+
+        /**
+         * Bytes written per byte flushed in steady state.
+         */
+        public double writeAmplification;
+
+        /**
+         * SSTables overlapping a token in steady state.
+         */
+        public double readAmplification;
+
+        Result(String strategy) {
+            this.strategy = strategy;
+        }
+    }
+
+    /**
+     * Construct simulator.
+     *
+     * @param sstables  SSTables to simulate over.
+     * @param flushSize Size in bytes of a flushed sstable, or 0 to take the smallest sstable.
+     */
+    public CompactionSimulator(List<SSTableMetadata> sstables, long flushSize) {
+        this.sstables = sstables;
+        long smallest = Long.MAX_VALUE;
+        for (SSTableMetadata sstable : sstables) {
+            totalSize += sstable.diskLength;
+            smallest = Math.min(smallest, sstable.diskLength);
+        }
+        if (flushSize <= 0) {
+            flushSize = smallest == Long.MAX_VALUE ? 1 : smallest;
+        }
+        this.flushSize = Math.max(1, flushSize);
+        computeOverlap();
+    }
+
+    /**
+     * Start or end of an sstable's key range.
+     */
+    private static class Bound {
+        final Token token;
+        final int delta;
+
+        Bound(Token token, int delta) {
+            this.token = token;
+            this.delta = delta;
+        }
+    }
+
+    /**
+     * Sweep the token ring to find how many sstables overlap each token.
+     */
+    private void computeOverlap() {
+        List<Bound> bounds = new ArrayList<>(sstables.size() * 2);
+        for (SSTableMetadata sstable : sstables) {
+            if (sstable.firstToken == null) {
+                continue;
+            }
+            bounds.add(new Bound(sstable.firstToken, 1));
+            bounds.add(new Bound(sstable.lastToken, -1));
+        }
+        // Starts sort before ends at the same token as both bounds are inclusive.
+        bounds.sort(Comparator.<Bound, Token>comparing(b -> b.token).thenComparing(b -> -b.delta));
+        int depth = 0;
+        double weighted = 0;
+        double covered = 0;
+        for (int i = 0; i < bounds.size(); i++) {
+            depth += bounds.get(i).delta;
+            maxOverlap = Math.max(maxOverlap, depth);
+            if (depth > 0 && i + 1 < bounds.size()) {
+                Token left = bounds.get(i).token;
+                Token right = bounds.get(i + 1).token;
+                double width = left.equals(right) ? 0 : left.size(right);
+                weighted += depth * width;
+                covered += width;
+            }
+        }
+        averageOverlap = covered > 0 ? weighted / covered : maxOverlap;
+    }
+
+    /**
+     * Fraction of the token ring covered by an sstable.
+     */
+    private static double coverage(SSTableMetadata sstable) {
+        if (sstable.firstToken == null || sstable.firstToken.equals(sstable.lastToken)) {
+            return MIN_COVERAGE;
+        }
+        return Math.max(MIN_COVERAGE, sstable.firstToken.size(sstable.lastToken));
+    }
+
+    /**
+     * Number of tiers of a fanout between the flush size and a size.
+     */
+    private int levels(double size, double fanout) {
+        if (size <= flushSize) {
+            return 1;
+        }
+        return Math.max(1, (int) Math.ceil(Math.log(size / flushSize) / Math.log(fanout)));
+    }
+
+    /**
+     * Tier of a density for a fanout.
+     */
+    private int tier(double density, double fanout) {
+        if (density <= flushSize) {
+            return 0;
+        }
+        return (int) Math.floor(Math.log(density / flushSize) / Math.log(fanout));
+    }
+
+    /**
+     * Merge tiers holding at least threshold sstables until none do.
+     *
+     * @param tables    Size and token ring coverage of each sstable.
+     * @param fanout    Growth in density between tiers.
+     * @param threshold Number of sstables in a tier that triggers a compaction.
+     * @return Bytes rewritten.
+     */
+    private long settleTiers(List<double[]> tables, double fanout, int threshold) {
+        long rewrite = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            Map<Integer, List<double[]>> tiers = new TreeMap<>();
+            for (double[] table : tables) {
+                tiers.computeIfAbsent(tier(table[0] / table[1], fanout), k -> new ArrayList<>()).add(table);
+            }
+            for (List<double[]> tier : tiers.values()) {
+                if (tier.size() >= threshold) {
+                    double size = 0;
+                    double coverage = 0;
+                    for (double[] table : tier) {
+                        size += table[0];
+                        coverage = Math.max(coverage, table[1]);
+                        tables.remove(table);
+                    }
+                    rewrite += (long) size;
+                    tables.add(new double[]{size, coverage});
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        return rewrite;
+    }
+
+    /**
+     * Simulate SizeTieredCompactionStrategy.
+     *
+     * @param minThreshold Number of similar sized sstables that are compacted together.
+     * @return Simulation result.
+     */
+    public Result simulateSTCS(int minThreshold) {
+        Result result = new Result("STCS");
+        List<double[]> tables = new ArrayList<>(sstables.size());
+        for (SSTableMetadata sstable : sstables) {
+            tables.add(new double[]{sstable.diskLength, 1.0});
+        }
+        result.rewrite = settleTiers(tables, minThreshold, minThreshold);
+        result.levels = levels(totalSize, minThreshold);
+        result.writeAmplification = 1 + result.levels;
+        result.readAmplification = 1 + result.levels * (minThreshold - 1) / 2.0;
+        return result;
+    }
+
+    /**
+     * Simulate LeveledCompactionStrategy.
+     *
+     * @param sstableSize Target sstable size in bytes.
+     * @param fanout      Growth in size between levels.
+     * @param leveled     Are the sstables currently leveled.
+     * @return Simulation result.
+     */
+    public Result simulateLCS(long sstableSize, int fanout, boolean leveled) {
+        Result result = new Result("LCS");
+        result.levels = totalSize <= sstableSize * fanout ? 1 : Math.max(1, (int) Math.ceil(Math.log(totalSize / (double) sstableSize) / Math.log(fanout)));
+        // Data in L0, or overlapping other data in its level, has to be compacted through the levels.
+        long misplaced = 0;
+        for (SSTableMetadata sstable : sstables) {
+            boolean placed = leveled && sstable.level > 0;
+            if (placed) {
+                for (SSTableMetadata other : sstables) {
+                    if (other != sstable && other.level == sstable.level && sstable.overlaps(other)) {
+                        placed = false;
+                        break;
+                    }
+                }
+            }
+            if (!placed) {
+                misplaced += sstable.diskLength;
+            }
+        }
+        result.rewrite = misplaced * result.levels;
+        result.writeAmplification = 1 + result.levels * (fanout + 1) / 2.0;
+        result.readAmplification = 1 + result.levels;
+        return result;
+    }
+
+    /**
+     * Simulate TimeWindowCompactionStrategy.
+     *
+     * @param window       Time window in milliseconds.
+     * @param minThreshold Number of similar sized sstables that are compacted together in the current window.
+     * @return Simulation result.
+     */
+    public Result simulateTWCS(long window, int minThreshold) {
+        Result result = new Result("TWCS");
+        TreeMap<Long, List<SSTableMetadata>> windows = new TreeMap<>();
+        for (SSTableMetadata sstable : sstables) {
+            windows.computeIfAbsent(Math.floorDiv(sstable.maxTimestamp / 1000, window), k -> new ArrayList<>()).add(sstable);
+        }
+        // Every window but the newest is compacted to a single sstable.
+        for (Map.Entry<Long, List<SSTableMetadata>> entry : windows.entrySet()) {
+            if (entry.getKey().equals(windows.lastKey()) || entry.getValue().size() < 2) {
+                continue;
+            }
+            for (SSTableMetadata sstable : entry.getValue()) {
+                result.rewrite += sstable.diskLength;
+            }
+        }
+        int windowCount = Math.max(1, windows.size());
+        result.levels = levels(totalSize / (double) windowCount, minThreshold);
+        result.writeAmplification = 1 + result.levels;
+        result.readAmplification = windowCount + result.levels * (minThreshold - 1) / 2.0;
+        return result;
+    }
+
+    /**
+     * Simulate UnifiedCompactionStrategy.
+     *
+     * @param scalingParameter Scaling parameter such as T4, L10 or N.
+     * @return Simulation result.
+     */
+    public Result simulateUCS(String scalingParameter) {
+        Result result = new Result("UCS " + scalingParameter);
+        int w = parseScalingParameter(scalingParameter);
+        int fanout = 2 + Math.abs(w);
+        int threshold = w > 0 ? fanout : 2;
+        // UCS shards output, so sstables are bucketed by density, their size over the share of the ring they cover.
+        List<double[]> tables = new ArrayList<>(sstables.size());
+        for (SSTableMetadata sstable : sstables) {
+            tables.add(new double[]{sstable.diskLength, coverage(sstable)});
+        }
+        result.rewrite = settleTiers(tables, fanout, threshold);
+        result.levels = levels(totalSize, fanout);
+        if (w < 0) {
+            result.writeAmplification = 1 + result.levels * (fanout + 1) / 2.0;
+            result.readAmplification = 1 + result.levels;
+        } else {
+            result.writeAmplification = 1 + result.levels;
+            result.readAmplification = 1 + result.levels * (threshold - 1) / 2.0;
+        }
+        return result;
+    }
+
+    /**
+     * Parse a UCS scaling parameter.
+     *
+     * @param scalingParameter Tn for tiered, Ln for leveled, N, or the parameter as an integer.
+     * @return Scaling parameter W.
+     * @throws IllegalArgumentException if the scaling parameter is not valid.
+     */
+    public static int parseScalingParameter(String scalingParameter) {
+        String s = scalingParameter.trim().toUpperCase();
+        try {
+            if (s.equals("N")) {
+                return 0;
+            }
+            if (s.startsWith("T")) {
+                return Integer.parseInt(s.substring(1)) - 2;
+            }
+            if (s.startsWith("L")) {
+                return 2 - Integer.parseInt(s.substring(1));
+            }
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid scaling parameter: " + scalingParameter);
+        }
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    public long getFlushSize() {
+        return flushSize;
+    }
+
+    public double getAverageOverlap() {
+        return averageOverlap;
+    }
+
+    public int getMaxOverlap() {
+        return maxOverlap;
+    }
+}
@@ -0,0 +1,281 @@
+package com.instaclustr.sstabletools;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Adaptive governor that throttles scanning based on host load.
+ * <p>
+ * Host pressure is sampled from /proc/loadavg, the CPU and I/O pressure stall information (PSI) in /proc/pressure
+ * and the cgroup CPU quota. When the host is busy the read rate and worker concurrency are cut back multiplicatively,
+ * when the host is idle they are grown back until the configured limits are reached.
+ */
+public class LoadGovernor {
+    /**
+     * Interval in milliseconds between samples of host load.
+     */
+    private static final long SAMPLE_INTERVAL_MS = 1000;
+
+    /**
+     * Pressure above which the scan backs off.
+     */
+    private static final double HIGH_PRESSURE = 1.0;
+
+    /**
+     * Pressure below which the scan speeds up.
+     */
+    private static final double LOW_PRESSURE = 0.5;
+
+    /**
+     * CPU PSI "some" avg10 percentage that is considered full pressure.
+     */
+    private static final double CPU_PSI_LIMIT = 40.0;
+
+    /**
+     * I/O PSI "some" avg10 percentage that is considered full pressure.
+     */
+    private static final double IO_PSI_LIMIT = 20.0;
+
+    /**
+     * Lowest read rate in bytes per second the governor will throttle down to.
+     */
+    private static final double MIN_RATE = 1024 * 1024;
+
+    private static final Path LOADAVG = Paths.get("/proc/loadavg");
+    private static final Path CPU_PRESSURE = Paths.get("/proc/pressure/cpu");
+    private static final Path IO_PRESSURE = Paths.get("/proc/pressure/io");
+    private static final Path CGROUP_V2_CPU_MAX = Paths.get("/sys/fs/cgroup/cpu.max");
+    private static final Path CGROUP_V1_QUOTA = Paths.get("/sys/fs/cgroup/cpu/cpu.cfs_quota_us");
+    private static final Path CGROUP_V1_PERIOD = Paths.get("/sys/fs/cgroup/cpu/cpu.cfs_period_us");
+
+    /**
+     * Maximum read rate in bytes per second, or 0 for unlimited.
+     */
+    private final double maxRate;
+
+    /**
+     * Maximum worker concurrency.
+     */
+    private final int maxConcurrency;
+
+    /**
+     * Whether to adapt to host load or only apply the maximum rate.
+     */
+    private final boolean adaptive;
+
+    /**
+     * Number of CPUs available to this process.
+     */
+    private final double cpus;
+
+    /**
+     * Rate limiter on bytes read.
+     */
+    private final RateLimiter rateLimiter;
+
+    /**
+     * Current read rate in bytes per second, or 0 for unlimited.
+     */
+    private volatile double rate;
+
+    /**
+     * Current worker concurrency.
+     */
+    private volatile int concurrency;
+
+    /**
+     * Most recently sampled host pressure.
+     */
+    private volatile double pressure;
+
+    /**
+     * Time in milliseconds of the last sample.
+     */
+    private long lastSample;
+
+    /**
+     * Bytes acquired since the last sample.
+     */
+    private long bytesSinceSample;
+
+    /**
+     * Construct governor.
+     *
+     * @param maxRate        Maximum read rate in bytes per second, or 0 for unlimited.
+     * @param maxConcurrency Maximum worker concurrency.
+     * @param adaptive       Adapt to host load, otherwise only apply the maximum rate.
+     */
+    public LoadGovernor(double maxRate, int maxConcurrency, boolean adaptive) {
+        this.maxRate = maxRate;
+        this.adaptive = adaptive;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.cpus = availableCpus();
+        this.rate = maxRate;
+        this.concurrency = this.maxConcurrency;
+        this.rateLimiter = RateLimiter.create(maxRate > 0 ? maxRate : Double.MAX_VALUE);
+        this.lastSample = System.currentTimeMillis();
+    }
+
+    /**
+     * Acquire permits to read bytes, blocking if the read rate has been exceeded.
+     *
+     * @param bytes Number of bytes read.
+     */
+    public void acquire(long bytes) {
+        if (adaptive) {
+            sample(bytes);
+        }
+        if (rate > 0 && bytes > 0) {
+            rateLimiter.acquire((int) Math.min(bytes, Integer.MAX_VALUE));
+        }
+    }
+
+    /**
+     * Get the number of workers permitted under current host load.
+     *
+     * @return Worker concurrency.
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Get the current read rate.
+     *
+     * @return Read rate in bytes per second, or 0 if unlimited.
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * Get the most recently sampled host pressure where 1.0 is fully loaded.
+     *
+     * @return Host pressure.
+     */
+    public double getPressure() {
+        return pressure;
+    }
+
+    private synchronized void sample(long bytes) {
+        bytesSinceSample += bytes;
+        long now = System.currentTimeMillis();
+        long elapsed = now - lastSample;
+        if (elapsed < SAMPLE_INTERVAL_MS) {
+            return;
+        }
+        double throughput = bytesSinceSample * 1000.0 / elapsed;
+        lastSample = now;
+        bytesSinceSample = 0;
+
+        pressure = readPressure();
+        if (pressure > HIGH_PRESSURE) {
+            double current = rate > 0 ? Math.min(rate, throughput) : throughput;
+            setRate(Math.max(MIN_RATE, current / 2));
+            concurrency = Math.max(1, concurrency / 2);
+        } else if (pressure < LOW_PRESSURE) {
+            if (rate > 0) {
+                double next = rate * 1.5;
+                if (maxRate > 0) {
+                    setRate(Math.min(next, maxRate));
+                } else {
+                    // Lift the limit altogether once the scan no longer reaches it.
+                    setRate(throughput < rate / 2 ? 0 : next);
+                }
+            }
+            concurrency = Math.min(maxConcurrency, concurrency + 1);
+        }
+    }
+
+    private void setRate(double rate) {
+        this.rate = rate;
+        if (rate > 0) {
+            rateLimiter.setRate(rate);
+        }
+    }
+
+    /**
+     * Sample host pressure as the worst of load average per CPU, CPU PSI and I/O PSI.
+     *
+     * @return Host pressure where 1.0 is fully loaded.
+     */
+    private double readPressure() {
+        double result = 0;
+        String loadavg = readFirstLine(LOADAVG);
+        if (loadavg != null) {
+            try {
+                result = Double.parseDouble(loadavg.split("\\s+")[0]) / cpus;
+            } catch (NumberFormatException e) {
+                // Ignore malformed load average.
+            }
+        }
+        result = Math.max(result, readPsi(CPU_PRESSURE) / CPU_PSI_LIMIT);
+        result = Math.max(result, readPsi(IO_PRESSURE) / IO_PSI_LIMIT);
+        return result;
+    }
+
+    /**
+     * Read the "some" avg10 stall percentage from a PSI file.
+     *
+     * @param path Path to PSI file.
+     * @return Stall percentage or 0 if unavailable.
+     */
+    private static double readPsi(Path path) {
+        String line = readFirstLine(path);
+        if (line == null || !line.startsWith("some")) {
+            return 0;
+        }
+        for (String field : line.split("\\s+")) {
+            if (field.startsWith("avg10=")) {
+                try {
+                    return Double.parseDouble(field.substring(6));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Number of CPUs available taking cgroup CPU quota into account.
+     *
+     * @return Available CPUs.
+     */
+    private static double availableCpus() {
+        double cpus = Runtime.getRuntime().availableProcessors();
+        try {
+            String cpuMax = readFirstLine(CGROUP_V2_CPU_MAX);
+            if (cpuMax != null) {
+                String[] fields = cpuMax.split("\\s+");
+                if (!"max".equals(fields[0]) && fields.length > 1) {
+                    cpus = Math.min(cpus, Double.parseDouble(fields[0]) / Double.parseDouble(fields[1]));
+                }
+            } else {
+                String quota = readFirstLine(CGROUP_V1_QUOTA);
+                String period = readFirstLine(CGROUP_V1_PERIOD);
+                if (quota != null && period != null && Long.parseLong(quota) > 0) {
+                    cpus = Math.min(cpus, Double.parseDouble(quota) / Double.parseDouble(period));
+                }
+            }
+        } catch (NumberFormatException e) {
+            // Fall back to available processors.
+        }
+        return Math.max(cpus, 1);
+    }
+
+    private static String readFirstLine(Path path) {
+        try {
+            List<String> lines = Files.readAllLines(path, StandardCharsets.US_ASCII);
+            return lines.isEmpty() ? null : lines.get(0).trim();
+        } catch (IOException | SecurityException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.instaclustr.sstabletools;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sparse matrix of partitions shared between pairs of SSTables.
+ * <p>
+ * Only pairs of SSTables that share at least one partition have an entry, alongside per SSTable totals of the
+ * partitions that are found in no other SSTable.
+ */
+public class OverlapMatrix {
+    public final static Comparator<Pair> BYTES_COMPARATOR = new Comparator<Pair>() {
+        @Override
+        public int compare(Pair o1, Pair o2) {
+            int cmp = -Long.compare(o1.bytes, o2.bytes);
+            return cmp == 0 ? -Long.compare(o1.partitions, o2.partitions) : cmp;
+        }
+    };
+
+    /**
+     * Partitions shared by a pair of SSTables.
+     */
+    public static class Pair {
+        /**
+         * File name of first SSTable.
+         */
+        public String first;
+
+        /**
+         * File name of second SSTable.
+         */
+        public String second;
+
+        /**
+         * Number of partitions in both SSTables.
+         */
+        public long partitions;
+
+        /**
+         * Bytes in both SSTables of the shared partitions.
+         */
+        public long bytes;
+    }
+
+    /**
+     * Index of each SSTable by file name.
+     */
+    private final Map<String, Integer> index = new HashMap<>();
+
+    /**
+     * File name of each SSTable by index.
+     */
+    private final List<String> filenames = new ArrayList<>();
+
+    /**
+     * Partitions, unique partitions, bytes and unique bytes of each SSTable by index.
+     */
+    private final List<long[]> totals = new ArrayList<>();
+
+    /**
+     * Shared partitions and bytes keyed by the indexes of a pair of SSTables.
+     */
+    private final Map<Long, long[]> pairs = new HashMap<>();
+
+    /**
+     * Index of an SSTable, added if not seen before.
+     */
+    private int indexOf(String filename) {
+        Integer i = index.get(filename);
+        if (i == null) {
+            i = filenames.size();
+            index.put(filename, i);
+            filenames.add(filename);
+            totals.add(new long[4]);
+        }
+        return i;
+    }
+
+    /**
+     * Record the SSTables a partition was found in.
+     *
+     * @param names File names of the SSTables.
+     * @param sizes Size of the partition in each SSTable.
+     * @param count Number of SSTables.
+     */
+    public void record(String[] names, long[] sizes, int count) {
+        int[] indexes = new int[count];
+        for (int i = 0; i < count; i++) {
+            indexes[i] = indexOf(names[i]);
+            long[] total = totals.get(indexes[i]);
+            total[0]++;
+            total[2] += sizes[i];
+            if (count == 1) {
+                total[1]++;
+                total[3] += sizes[i];
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            for (int j = i + 1; j < count; j++) {
+                int a = Math.min(indexes[i], indexes[j]);
+                int b = Math.max(indexes[i], indexes[j]);
+                long[] pair = pairs.computeIfAbsent(((long) a << 32) | b, k -> new long[2]);
+                pair[0]++;
+                pair[1] += sizes[i] + sizes[j];
+            }
+        }
+    }
+
+    /**
+     * Get file names of the SSTables recorded.
+     *
+     * @return SSTable file names.
+     */
+    public List<String> getSSTables() {
+        return filenames;
+    }
+
+    /**
+     * Get partitions, unique partitions, bytes and unique bytes of an SSTable.
+     *
+     * @param filename SSTable file name.
+     * @return Totals of the SSTable.
+     */
+    public long[] getTotals(String filename) {
+        return totals.get(index.get(filename));
+    }
+
+    /**
+     * Get pairs of SSTables sharing partitions.
+     *
+     * @return Pairs ranked by shared bytes.
+     */
+    public List<Pair> getPairs() {
+        List<Pair> result = new ArrayList<>(pairs.size());
+        for (Map.Entry<Long, long[]> entry : pairs.entrySet()) {
+            Pair pair = new Pair();
+            pair.first = filenames.get((int) (entry.getKey() >>> 32));
+            pair.second = filenames.get((int) (entry.getKey() & 0xFFFFFFFFL));
+            pair.partitions = entry.getValue()[0];
+            pair.bytes = entry.getValue()[1];
+            result.add(pair);
+        }
+        result.sort(BYTES_COMPARATOR);
+        return result;
+    }
+}
@@ -1,6 +1,7 @@
 package com.instaclustr.sstabletools;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.PriorityQueue;
@@ -29,6 +30,26 @@ public class PartitionReader {
      */
     private PriorityQueue<SSTableReader> readerQueue;
 
+    /**
+     * Matrix recording the SSTables each partition is found in, or null if not recorded.
+     */
+    protected OverlapMatrix overlapMatrix;
+
+    /**
+     * Progress bar to update while reading ahead of the first partition returned, or null.
+     */
+    protected ProgressBar progressBar;
+
+    /**
+     * File names of the SSTables the current partition is found in.
+     */
+    private String[] contributors = new String[0];
+
+    /**
+     * Size of the current partition in each SSTable it is found in.
+     */
+    private long[] contributorSizes = new long[0];
+
     /**
      * Constructor.
      *
@@ -36,11 +57,11 @@ public class PartitionReader {
      * @param length  Total length in bytes to be read.
      */
     public PartitionReader(Collection<SSTableReader> readers, long length) {
+        this.readerQueue = new PriorityQueue<>(Math.max(1, readers.size()));
+        this.sstableStats = new ArrayList<>(readers.size());
         for (SSTableReader reader : readers) {
-            reader.next();
+            readerNext(reader);
         }
-        this.readerQueue = new PriorityQueue<>(readers);
-        this.sstableStats = new ArrayList<>(readers.size());
         this.length = length;
     }
 
@@ -59,17 +80,62 @@ public class PartitionReader {
 
         SSTableReader reader = this.readerQueue.remove();
         PartitionStatistics pStats = reader.getPartitionStatistics();
+        int count = 0;
+        count = addContributor(reader, count);
         readerNext(reader);
         // Combine entries with matching key
         while ((reader = this.readerQueue.peek()) != null && reader.getPartitionStatistics().key.equals(pStats.key)) {
             this.readerQueue.remove();
+            count = addContributor(reader, count);
             pStats = pStats.collate(reader.getPartitionStatistics());
             readerNext(reader);
         }
+        if (overlapMatrix != null) {
+            overlapMatrix.record(contributors, contributorSizes, count);
+        }
         this.bytesRead += pStats.size;
         return pStats;
     }
 
+    /**
+     * Note the SSTable of a reader as holding the current partition if recording overlap.
+     *
+     * @param reader SSTable reader positioned on the current partition.
+     * @param count  Number of SSTables noted so far.
+     * @return Number of SSTables noted.
+     */
+    private int addContributor(SSTableReader reader, int count) {
+        if (overlapMatrix == null) {
+            return count;
+        }
+        if (count == contributors.length) {
+            contributors = Arrays.copyOf(contributors, count * 2 + 1);
+            contributorSizes = Arrays.copyOf(contributorSizes, count * 2 + 1);
+        }
+        contributors[count] = reader.getSSTableStatistics().filename;
+        contributorSizes[count] = reader.getPartitionStatistics().size;
+        return count + 1;
+    }
+
+    /**
+     * Record the SSTables each partition is found in.
+     *
+     * @param overlapMatrix Matrix to record into.
+     */
+    public void setOverlapMatrix(OverlapMatrix overlapMatrix) {
+        this.overlapMatrix = overlapMatrix;
+    }
+
+    /**
+     * Update a progress bar while work is done before the first partition is returned, such as a pass over the
+     * SSTables that has to finish first.
+     *
+     * @param progressBar Progress bar.
+     */
+    public void setProgressBar(ProgressBar progressBar) {
+        this.progressBar = progressBar;
+    }
+
     /**
      * Goto next partition in reader. If finished processing the sstable collect its statistics.
      *
@@ -0,0 +1,65 @@
+package com.instaclustr.sstabletools;
+
+import org.apache.cassandra.utils.MurmurHash;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Selects a pseudo-random subset of partitions.
+ * <p>
+ * Selection is based on a seeded hash of the partition key so that a partition is either sampled in every SSTable
+ * it belongs to or in none of them.
+ */
+public class PartitionSampler {
+    /**
+     * Fraction of partitions to sample.
+     */
+    private final double fraction;
+
+    /**
+     * Hash seed.
+     */
+    private final long seed;
+
+    /**
+     * Hash output.
+     */
+    private final long[] hash = new long[2];
+
+    /**
+     * Construct partition sampler.
+     *
+     * @param fraction Fraction of partitions to sample in (0, 1].
+     */
+    public PartitionSampler(double fraction) {
+        if (!(fraction > 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("Sample fraction must be in (0, 1], got " + fraction);
+        }
+        this.fraction = fraction;
+        this.seed = new Random().nextLong();
+    }
+
+    /**
+     * Get the fraction of partitions sampled.
+     *
+     * @return Sampled fraction.
+     */
+    public double getFraction() {
+        return fraction;
+    }
+
+    /**
+     * Test if a partition is part of the sample.
+     *
+     * @param key Partition key.
+     * @return True if partition is sampled.
+     */
+    public synchronized boolean test(ByteBuffer key) {
+        if (fraction >= 1) {
+            return true;
+        }
+        MurmurHash.hash3_x64_128(key, key.position(), key.remaining(), seed, hash);
+        return (hash[0] >>> 11) * 0x1.0p-53 < fraction;
+    }
+}
@@ -1,7 +1,13 @@
 package com.instaclustr.sstabletools;
 
 import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.utils.ByteBufferUtil;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
@@ -89,6 +95,11 @@ public class PartitionStatistics {
      */
     public long droppableTombstoneCount = 0;
 
+    /**
+     * Maximum timestamp of the partition's cells, rows and deletions, or Long.MIN_VALUE if not read.
+     */
+    public long maxTimestamp = Long.MIN_VALUE;
+
     public final static int NO_TTL = -1;
 
     public Map<Integer,Long> ttl = new HashMap<>();
@@ -100,6 +111,15 @@ public class PartitionStatistics {
         this.ttl.put(key, val + 1);
     }
 
+    /**
+     * Record a timestamp of the partition.
+     *
+     * @param timestamp Timestamp of a cell, row or deletion.
+     */
+    public void timestamp(long timestamp) {
+        this.maxTimestamp = Math.max(this.maxTimestamp, timestamp);
+    }
+
     /**
      * Construct partition statistics.
      *
@@ -124,6 +144,7 @@ public class PartitionStatistics {
         result.cellCount = this.cellCount + p.cellCount;
         result.tombstoneCount = this.tombstoneCount + p.tombstoneCount;
         result.droppableTombstoneCount = this.droppableTombstoneCount + p.droppableTombstoneCount;
+        result.maxTimestamp = Math.max(this.maxTimestamp, p.maxTimestamp);
         result.ttl  = new HashMap<>(p.ttl);
         mergeTtl(result.ttl);
         return result;
@@ -136,4 +157,56 @@ public class PartitionStatistics {
             map.put(key, val);
         }
     }
+
+    /**
+     * Write partition statistics.
+     *
+     * @param out Output to write to.
+     * @throws IOException if unable to write.
+     */
+    public void write(DataOutput out) throws IOException {
+        ByteBuffer keyBytes = key.getKey();
+        out.writeInt(keyBytes.remaining());
+        out.write(ByteBufferUtil.getArray(keyBytes));
+        out.writeInt(tableCount);
+        out.writeLong(size);
+        out.writeLong(rowCount);
+        out.writeLong(rowDeleteCount);
+        out.writeLong(cellCount);
+        out.writeLong(tombstoneCount);
+        out.writeLong(droppableTombstoneCount);
+        out.writeLong(maxTimestamp);
+        out.writeInt(ttl.size());
+        for (Map.Entry<Integer, Long> entry : ttl.entrySet()) {
+            out.writeInt(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+    }
+
+    /**
+     * Read partition statistics written by {@link #write(DataOutput)}.
+     *
+     * @param in          Input to read from.
+     * @param partitioner Partitioner to decorate the partition key with.
+     * @return Partition statistics.
+     * @throws IOException if unable to read.
+     */
+    public static PartitionStatistics read(DataInput in, IPartitioner partitioner) throws IOException {
+        byte[] keyBytes = new byte[in.readInt()];
+        in.readFully(keyBytes);
+        PartitionStatistics stats = new PartitionStatistics(partitioner.decorateKey(ByteBuffer.wrap(keyBytes)));
+        stats.tableCount = in.readInt();
+        stats.size = in.readLong();
+        stats.rowCount = in.readLong();
+        stats.rowDeleteCount = in.readLong();
+        stats.cellCount = in.readLong();
+        stats.tombstoneCount = in.readLong();
+        stats.droppableTombstoneCount = in.readLong();
+        stats.maxTimestamp = in.readLong();
+        int ttlCount = in.readInt();
+        for (int i = 0; i < ttlCount; i++) {
+            stats.ttl.put(in.readInt(), in.readLong());
+        }
+        return stats;
+    }
 }
@@ -0,0 +1,309 @@
+package com.instaclustr.sstabletools;
+
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.utils.FBUtilities;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memory mapped columnar file of merged partition statistics in token order.
+ * <p>
+ * The header holds the partition count, the time of the analysis, the fraction of partitions sampled, the partitioner, keyspace and table and the name,
+ * width, offset and length of each column. Fixed width columns hold a long per partition. Variable width columns hold
+ * the end offset of each value followed by the values. Each column is mapped on its own so a scan only pages in the columns it reads.
+ * Columns larger than a mapping can hold are mapped in chunks.
+ */
+public class PartitionStatisticsFile {
+    public static final int MAGIC = 0x50535446;
+    public static final int VERSION = 3;
+
+    public static final String SIZE = "size";
+    public static final String ROWS = "rows";
+    public static final String DELETED = "deleted";
+    public static final String CELLS = "cells";
+    public static final String TOMBSTONES = "tombstones";
+    public static final String DROPPABLE = "droppable";
+    public static final String SSTABLES = "sstables";
+    public static final String MAX_TIMESTAMP = "max_timestamp";
+    public static final String KEY = "key";
+    public static final String TOKEN = "token";
+    public static final String RAW_KEY = "raw_key";
+
+    /**
+     * Size of each mapped chunk of a column, a multiple of the size of a long so no long spans two chunks.
+     */
+    private static final int CHUNK_SIZE = 1 << 30;
+
+    /**
+     * File name.
+     */
+    private final String filename;
+
+    /**
+     * Number of partitions.
+     */
+    private final int count;
+
+    /**
+     * Time of the analysis in milliseconds since the epoch.
+     */
+    private final long created;
+
+    /**
+     * Fraction of partitions sampled, 1 if the file holds every partition.
+     */
+    private final double fraction;
+
+    /**
+     * Partitioner class name.
+     */
+    private final String partitionerName;
+
+    /**
+     * Keyspace name.
+     */
+    private final String keyspace;
+
+    /**
+     * Table name.
+     */
+    private final String table;
+
+    /**
+     * Column names in file order.
+     */
+    private final List<String> columnNames = new ArrayList<>();
+
+    /**
+     * Is each column variable width.
+     */
+    private final List<Boolean> variable = new ArrayList<>();
+
+    /**
+     * Mapped chunks of each column.
+     */
+    private final List<MappedByteBuffer[]> buffers = new ArrayList<>();
+
+    /**
+     * Column index by name.
+     */
+    private final Map<String, Integer> columnIndex = new LinkedHashMap<>();
+
+    /**
+     * Partitioner, created on first use.
+     */
+    private IPartitioner partitioner;
+
+    private PartitionStatisticsFile(File file) throws IOException {
+        this.filename = file.getPath();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            if (in.readInt() != MAGIC) {
+                throw new IOException(filename + " is not a partition statistics file");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(filename + " has unsupported version " + version);
+            }
+            this.count = in.readInt();
+            this.created = in.readLong();
+            this.fraction = in.readDouble();
+            this.partitionerName = in.readUTF();
+            this.keyspace = in.readUTF();
+            this.table = in.readUTF();
+            int columnCount = in.readInt();
+            for (int i = 0; i < columnCount; i++) {
+                String name = in.readUTF();
+                boolean isVariable = in.readBoolean();
+                long offset = in.readLong();
+                long length = in.readLong();
+                MappedByteBuffer[] chunks = new MappedByteBuffer[(int) Math.max(1, (length + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+                for (int c = 0; c < chunks.length; c++) {
+                    long start = (long) c * CHUNK_SIZE;
+                    chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, offset + start, Math.min(CHUNK_SIZE, length - start));
+                }
+                columnIndex.put(name, columnNames.size());
+                columnNames.add(name);
+                variable.add(isVariable);
+                buffers.add(chunks);
+            }
+        }
+    }
+
+    /**
+     * Open a partition statistics file.
+     *
+     * @param file File to open.
+     * @return Partition statistics file.
+     * @throws IOException if the file is unreadable or not a partition statistics file.
+     */
+    public static PartitionStatisticsFile open(File file) throws IOException {
+        return new PartitionStatisticsFile(file);
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public double getFraction() {
+        return fraction;
+    }
+
+    /**
+     * Does the file hold every partition read, rather than a sample.
+     *
+     * @return True if not sampled.
+     */
+    public boolean isComplete() {
+        return fraction >= 1;
+    }
+
+    public String getKeyspace() {
+        return keyspace;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String getPartitionerName() {
+        return partitionerName;
+    }
+
+    /**
+     * Get the partitioner the keys were written with.
+     *
+     * @return Partitioner.
+     */
+    public IPartitioner getPartitioner() {
+        if (partitioner == null) {
+            partitioner = FBUtilities.newPartitioner(partitionerName);
+        }
+        return partitioner;
+    }
+
+    public List<String> getColumnNames() {
+        return Collections.unmodifiableList(columnNames);
+    }
+
+    /**
+     * Get the index of a column.
+     *
+     * @param name Column name.
+     * @return Column index, or -1 if there is no such column.
+     */
+    public int getColumn(String name) {
+        Integer index = columnIndex.get(name);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Is a column variable width.
+     *
+     * @param column Column index.
+     * @return True if values are bytes, false if longs.
+     */
+    public boolean isVariable(int column) {
+        return variable.get(column);
+    }
+
+    /**
+     * Get a value of a fixed width column.
+     *
+     * @param column Column index.
+     * @param row    Partition index.
+     * @return Value.
+     */
+    public long getLong(int column, int row) {
+        return getLong(buffers.get(column), (long) row * Long.BYTES);
+    }
+
+    /**
+     * Get a long at a position of a column.
+     *
+     * @param chunks   Mapped chunks of the column.
+     * @param position Position in the column.
+     * @return Value.
+     */
+    private static long getLong(MappedByteBuffer[] chunks, long position) {
+        return chunks[(int) (position / CHUNK_SIZE)].getLong((int) (position % CHUNK_SIZE));
+    }
+
+    /**
+     * Get a value of a variable width column.
+     *
+     * @param column Column index.
+     * @param row    Partition index.
+     * @return Value as a buffer that must not be modified.
+     */
+    public ByteBuffer getBytes(int column, int row) {
+        MappedByteBuffer[] chunks = buffers.get(column);
+        long dataStart = (long) count * Long.BYTES;
+        long start = dataStart + (row == 0 ? 0 : getLong(chunks, (long) (row - 1) * Long.BYTES));
+        long end = dataStart + getLong(chunks, (long) row * Long.BYTES);
+        int chunk = (int) (start / CHUNK_SIZE);
+        int position = (int) (start % CHUNK_SIZE);
+        if (end - (long) chunk * CHUNK_SIZE <= CHUNK_SIZE) {
+            ByteBuffer value = chunks[chunk].duplicate();
+            value.position(position);
+            value.limit(position + (int) (end - start));
+            return value.slice();
+        }
+        // The value spans two chunks, so copy it.
+        ByteBuffer value = ByteBuffer.allocate((int) (end - start));
+        while (value.hasRemaining()) {
+            ByteBuffer part = chunks[chunk].duplicate();
+            part.position(position);
+            part.limit(Math.min(part.capacity(), position + value.remaining()));
+            value.put(part);
+            chunk++;
+            position = 0;
+        }
+        // Not made read only, as Cassandra's byte comparisons treat a read only heap buffer as a direct one.
+        value.flip();
+        return value;
+    }
+
+    /**
+     * Get a value of a variable width column as a string.
+     *
+     * @param column Column index.
+     * @param row    Partition index.
+     * @return Value.
+     */
+    public String getString(int column, int row) {
+        return StandardCharsets.UTF_8.decode(getBytes(column, row)).toString();
+    }
+
+    /**
+     * Get the decorated partition key of a partition.
+     *
+     * @param row Partition index.
+     * @return Partition key.
+     */
+    public DecoratedKey getKey(int row) {
+        return getPartitioner().decorateKey(getBytes(getColumn(RAW_KEY), row));
+    }
+}
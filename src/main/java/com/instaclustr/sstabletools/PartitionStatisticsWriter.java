@@ -0,0 +1,269 @@
+package com.instaclustr.sstabletools;
+
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Write merged partition statistics to a columnar file, see {@link PartitionStatisticsFile}.
+ * <p>
+ * Partitions must be added in token order, so they can be merged with another file without sorting. Each column is written to its own temporary file and the columns are
+ * concatenated after the header on close.
+ */
+public class PartitionStatisticsWriter implements AutoCloseable {
+    /**
+     * Size of buffer of each column file.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * File to write.
+     */
+    private final File file;
+
+    /**
+     * Partitioner of the table.
+     */
+    private final IPartitioner partitioner;
+
+    /**
+     * Keyspace name.
+     */
+    private final String keyspace;
+
+    /**
+     * Table name.
+     */
+    private final String table;
+
+    /**
+     * Fraction of partitions sampled.
+     */
+    private final double fraction;
+
+    /**
+     * Columns being written.
+     */
+    private final List<ColumnWriter> columns = new ArrayList<>();
+
+    private final ColumnWriter size;
+    private final ColumnWriter rows;
+    private final ColumnWriter deleted;
+    private final ColumnWriter cells;
+    private final ColumnWriter tombstones;
+    private final ColumnWriter droppable;
+    private final ColumnWriter sstables;
+    private final ColumnWriter maxTimestamp;
+    private final ColumnWriter key;
+    private final ColumnWriter token;
+    private final ColumnWriter rawKey;
+
+    /**
+     * Number of partitions written.
+     */
+    private int count;
+
+    /**
+     * Key of the last partition written.
+     */
+    private DecoratedKey lastKey;
+
+    /**
+     * Constructor.
+     *
+     * @param file        File to write.
+     * @param partitioner Partitioner of the table.
+     * @param keyspace    Keyspace name.
+     * @param table       Table name.
+     * @param fraction    Fraction of partitions sampled, 1 if every partition is written.
+     * @throws IOException if unable to create the column files.
+     */
+    public PartitionStatisticsWriter(File file, IPartitioner partitioner, String keyspace, String table, double fraction) throws IOException {
+        this.file = file;
+        this.partitioner = partitioner;
+        this.keyspace = keyspace;
+        this.table = table;
+        this.fraction = fraction;
+        File directory = file.getAbsoluteFile().getParentFile();
+        this.size = column(PartitionStatisticsFile.SIZE, false, directory);
+        this.rows = column(PartitionStatisticsFile.ROWS, false, directory);
+        this.deleted = column(PartitionStatisticsFile.DELETED, false, directory);
+        this.cells = column(PartitionStatisticsFile.CELLS, false, directory);
+        this.tombstones = column(PartitionStatisticsFile.TOMBSTONES, false, directory);
+        this.droppable = column(PartitionStatisticsFile.DROPPABLE, false, directory);
+        this.sstables = column(PartitionStatisticsFile.SSTABLES, false, directory);
+        this.maxTimestamp = column(PartitionStatisticsFile.MAX_TIMESTAMP, false, directory);
+        this.key = column(PartitionStatisticsFile.KEY, true, directory);
+        this.token = column(PartitionStatisticsFile.TOKEN, true, directory);
+        this.rawKey = column(PartitionStatisticsFile.RAW_KEY, true, directory);
+    }
+
+    private ColumnWriter column(String name, boolean variable, File directory) throws IOException {
+        ColumnWriter column = new ColumnWriter(name, variable, directory);
+        columns.add(column);
+        return column;
+    }
+
+    /**
+     * Add statistics of a partition.
+     *
+     * @param pStats       Merged partition statistics.
+     * @param formattedKey Partition key formatted for display.
+     * @throws IOException if unable to write or the partition is not after the last partition written.
+     */
+    public void add(PartitionStatistics pStats, String formattedKey) throws IOException {
+        if (count == Integer.MAX_VALUE) {
+            throw new IOException("Too many partitions to export to " + file);
+        }
+        if (lastKey != null && pStats.key.compareTo(lastKey) <= 0) {
+            throw new IOException("Partition " + pStats.key + " is not after " + lastKey + ", partitions must be exported in token order");
+        }
+        size.writeLong(pStats.size);
+        rows.writeLong(pStats.rowCount);
+        deleted.writeLong(pStats.rowDeleteCount);
+        cells.writeLong(pStats.cellCount);
+        tombstones.writeLong(pStats.tombstoneCount);
+        droppable.writeLong(pStats.droppableTombstoneCount);
+        sstables.writeLong(pStats.tableCount);
+        maxTimestamp.writeLong(pStats.maxTimestamp);
+        key.writeBytes(formattedKey.getBytes(StandardCharsets.UTF_8));
+        token.writeBytes(pStats.key.getToken().toString().getBytes(StandardCharsets.UTF_8));
+        rawKey.writeBytes(ByteBufferUtil.getArray(pStats.key.getKey()));
+        lastKey = pStats.key;
+        count++;
+    }
+
+    /**
+     * Assemble the header and the columns into the file.
+     *
+     * @throws IOException if unable to write the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            for (ColumnWriter column : columns) {
+                column.finish();
+            }
+            // The header has a fixed size once the column names are known, so write it once to measure it.
+            long headerSize = header(0).length;
+            byte[] header = header(headerSize);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE)) {
+                out.write(header);
+                for (ColumnWriter column : columns) {
+                    if (column.variable) {
+                        Files.copy(column.offsetFile.toPath(), out);
+                    }
+                    Files.copy(column.dataFile.toPath(), out);
+                }
+            }
+        } finally {
+            for (ColumnWriter column : columns) {
+                column.delete();
+            }
+        }
+    }
+
+    /**
+     * Serialize the header.
+     *
+     * @param headerSize Size of the header, the offset of the first column.
+     * @return Header.
+     * @throws IOException if unable to serialize.
+     */
+    private byte[] header(long headerSize) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(PartitionStatisticsFile.MAGIC);
+        out.writeInt(PartitionStatisticsFile.VERSION);
+        out.writeInt(count);
+        out.writeLong(Util.NOW);
+        out.writeDouble(fraction);
+        out.writeUTF(partitioner.getClass().getName());
+        out.writeUTF(keyspace);
+        out.writeUTF(table);
+        out.writeInt(columns.size());
+        long offset = headerSize;
+        for (ColumnWriter column : columns) {
+            out.writeUTF(column.name);
+            out.writeBoolean(column.variable);
+            out.writeLong(offset);
+            out.writeLong(column.length());
+            offset += column.length();
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Column written to temporary files. Fixed width columns hold a long per partition, variable width columns hold
+     * the end offset of each value followed by the values.
+     */
+    private static class ColumnWriter {
+        private final String name;
+        private final boolean variable;
+        private final File dataFile;
+        private final DataOutputStream data;
+        private final File offsetFile;
+        private final DataOutputStream offsets;
+        private long dataLength;
+        private long offsetLength;
+
+        ColumnWriter(String name, boolean variable, File directory) throws IOException {
+            this.name = name;
+            this.variable = variable;
+            this.dataFile = File.createTempFile("sstable-tools-" + name + "-", ".col", directory);
+            this.dataFile.deleteOnExit();
+            this.data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile), BUFFER_SIZE));
+            if (variable) {
+                this.offsetFile = File.createTempFile("sstable-tools-" + name + "-", ".off", directory);
+                this.offsetFile.deleteOnExit();
+                this.offsets = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(offsetFile), BUFFER_SIZE));
+            } else {
+                this.offsetFile = null;
+                this.offsets = null;
+            }
+        }
+
+        void writeLong(long value) throws IOException {
+            data.writeLong(value);
+            dataLength += Long.BYTES;
+        }
+
+        void writeBytes(byte[] value) throws IOException {
+            data.write(value);
+            dataLength += value.length;
+            offsets.writeLong(dataLength);
+            offsetLength += Long.BYTES;
+        }
+
+        long length() {
+            return offsetLength + dataLength;
+        }
+
+        void finish() throws IOException {
+            data.close();
+            if (offsets != null) {
+                offsets.close();
+            }
+        }
+
+        void delete() {
+            dataFile.delete();
+            if (offsetFile != null) {
+                offsetFile.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.instaclustr.sstabletools;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Bytes that will become reclaimable over time.
+ * <p>
+ * Data that survives purging is recorded against the gcBefore time after which it could be purged, bucketed by the
+ * hour, so reclaimable bytes at any later gcBefore can be read without rescanning.
+ */
+public class PurgeForecast {
+    /**
+     * Width of a bucket in seconds.
+     */
+    private static final long BUCKET_SECONDS = 3600;
+
+    /**
+     * Bytes purgeable per bucket of gcBefore times.
+     */
+    private final TreeMap<Long, Long> buckets = new TreeMap<>();
+
+    /**
+     * Latest gcBefore the forecast is read at, data purgeable only after it is not recorded.
+     */
+    private final long horizon;
+
+    /**
+     * Construct forecast.
+     *
+     * @param horizon Latest gcBefore in seconds the forecast will be read at.
+     */
+    public PurgeForecast(long horizon) {
+        this.horizon = horizon;
+    }
+
+    /**
+     * Get the latest gcBefore the forecast will be read at.
+     *
+     * @return gcBefore in seconds.
+     */
+    public long getHorizon() {
+        return horizon;
+    }
+
+    /**
+     * Record bytes that can be purged once gcBefore is after a time.
+     *
+     * @param purgeTime Time in seconds after which the bytes can be purged.
+     * @param bytes     Number of bytes.
+     */
+    public void record(long purgeTime, long bytes) {
+        if (purgeTime >= horizon) {
+            return;
+        }
+        buckets.merge(Math.floorDiv(purgeTime, BUCKET_SECONDS), bytes, Long::sum);
+    }
+
+    /**
+     * Get bytes recorded that are purgeable at a gcBefore.
+     *
+     * @param gcBefore gcBefore in seconds.
+     * @return Number of bytes, to the nearest hour of gcBefore.
+     */
+    public long getReclaimable(long gcBefore) {
+        long reclaimable = 0;
+        for (Map.Entry<Long, Long> entry : buckets.headMap(Math.floorDiv(gcBefore, BUCKET_SECONDS)).entrySet()) {
+            reclaimable += entry.getValue();
+        }
+        return reclaimable;
+    }
+}
@@ -1,12 +1,20 @@
 package com.instaclustr.sstabletools;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.google.common.collect.MinMaxPriorityQueue;
 import com.instaclustr.sstabletools.cassandra.CassandraBackend;
 import com.instaclustr.sstabletools.cli.CLI;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.SSTableId;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
@@ -29,12 +37,48 @@ public class PurgeStatisticsCollector implements Runnable {
     @Option(names = {"-t"}, description = "Snapshot name", arity = "1")
     public String snapshotName;
 
+    @Option(names = {"--no-snapshot"}, description = "Read the live sstables instead of creating a snapshot", arity = "0")
+    public boolean noSnapshot;
+
     @Option(names = {"-f"}, description = "Filter to sstables (comma separated)", defaultValue = "")
     public String filters;
 
     @Option(names = {"-b"}, description = "Batch mode", arity = "0")
     public boolean batch;
 
+    @Option(names = {"-a", "--adaptive"}, description = "Back off automatically when the host is under CPU or I/O pressure", arity = "0")
+    public boolean adaptive;
+
+    @Option(names = {"--max-rate"}, description = "Maximum read rate in MiB/s, defaults to unlimited", arity = "1", defaultValue = "0")
+    public double maxRate;
+
+    @Option(names = {"--sample"}, description = "Fraction of partitions to sample, defaults to 1 (all partitions)", arity = "1", defaultValue = "1")
+    public double sample;
+
+    @Option(names = {"--time-budget"}, description = "Stop after a wall-clock time (eg. 10m) and estimate totals from the token ranges read", arity = "1")
+    public String timeBudget;
+
+    @Option(names = {"--start-token"}, description = "Only read partitions with a token greater than this", arity = "1")
+    public String startToken;
+
+    @Option(names = {"--end-token"}, description = "Only read partitions with a token less than or equal to this", arity = "1")
+    public String endToken;
+
+    @Option(names = {"--ranges"}, description = "Only read partitions in token ranges (comma separated start:end pairs)", arity = "1")
+    public String tokenRanges;
+
+    @Option(names = {"--gc-grace"}, description = "gc_grace_seconds to use instead of the table's (eg. 1d)", arity = "1")
+    public String gcGrace;
+
+    @Option(names = {"--forecast"}, description = "Forecast reclaimable data after durations (comma separated), defaults to 1d,7d,30d,90d,365d", arity = "0..1", fallbackValue = "1d,7d,30d,90d,365d")
+    public String forecastDurations;
+
+    @Option(names = {"--plan"}, description = "Rank sets of sstables to compact by bytes reclaimed per byte rewritten", arity = "0")
+    public boolean plan;
+
+    @Option(names = {"--budget"}, description = "Maximum bytes a planned compaction rewrites (eg. 100g), defaults to unlimited", arity = "1")
+    public String planBudget;
+
     @Parameters(arity = "2", description = "<keyspace> <table>")
     public List<String> params;
 
@@ -53,15 +97,54 @@ public class PurgeStatisticsCollector implements Runnable {
             interactive = false;
         }
 
+        LoadGovernor governor = null;
+        if (adaptive || maxRate > 0) {
+            governor = new LoadGovernor(maxRate * 1024 * 1024, Runtime.getRuntime().availableProcessors(), adaptive);
+        }
+
+        if (!(sample > 0 && sample <= 1)) {
+            System.err.println("--sample must be greater than 0 and at most 1, got " + sample);
+            System.exit(1);
+        }
+        PartitionSampler sampler = null;
+        if (sample < 1) {
+            sampler = new PartitionSampler(sample);
+        }
+
         final String ksName = params.get(0);
         final String cfName = params.get(1);
 
-        try (ColumnFamilyProxy cfProxy = CassandraBackend.getInstance().getColumnFamily(ksName, cfName, snapshotName, filter)) {
-            PurgeStatisticsReader reader = cfProxy.getPurgeStatisticsReader();
+        try (ColumnFamilyProxy cfProxy = CassandraBackend.getInstance().getColumnFamily(ksName, cfName, snapshotName, filter, noSnapshot)) {
+            double fraction = sampler != null ? sampler.getFraction() : 1;
+            List<Range<Token>> ranges = Util.parseRanges(cfProxy.getPartitioner(), startToken, endToken, tokenRanges);
+            final int gcGraceSeconds = gcGrace != null ? (int) (Util.parseDuration(gcGrace) / 1000) : cfProxy.getGcGraceSeconds();
+            final long gcBefore = Util.NOW_SECONDS - gcGraceSeconds;
+            List<Long> forecastOffsets = new ArrayList<>();
+            PurgeForecast forecast = null;
+            if (forecastDurations != null) {
+                for (String duration : forecastDurations.split(",")) {
+                    forecastOffsets.add(Util.parseDuration(duration.trim()) / 1000);
+                }
+                forecast = new PurgeForecast(gcBefore + Collections.max(forecastOffsets));
+            }
+            TimeBudget budget = null;
+            PurgeStatisticsReader reader;
+            if (timeBudget != null) {
+                budget = new TimeBudget(Util.parseDuration(timeBudget), cfProxy.getPartitioner(), ranges);
+                final PartitionSampler rangeSampler = sampler;
+                final PurgeForecast rangeForecast = forecast;
+                reader = new TimeBudgetPurgeStatisticsReader(budget, range -> cfProxy.getPurgeStatisticsReader(rangeSampler, Collections.singleton(range), gcGraceSeconds, rangeForecast));
+            } else {
+                reader = cfProxy.getPurgeStatisticsReader(sampler, ranges, gcGraceSeconds, forecast);
+            }
+            boolean estimated = sampler != null || budget != null;
 
             long totalSize = 0;
             long totalReclaim = 0;
+            SampleEstimate sizeEstimate = new SampleEstimate(fraction);
+            SampleEstimate reclaimEstimate = new SampleEstimate(fraction);
 
+            CompactionPlanner planner = plan ? new CompactionPlanner() : null;
             MinMaxPriorityQueue<PurgeStatistics> largestPartitions = MinMaxPriorityQueue
                 .orderedBy(PurgeStatistics.PURGE_COMPARATOR)
                 .maximumSize(numPartitions)
@@ -73,17 +156,61 @@ public class PurgeStatisticsCollector implements Runnable {
                 largestPartitions.add(stats);
                 totalSize += stats.size;
                 totalReclaim += stats.reclaimable;
+                sizeEstimate.update(stats.size);
+                reclaimEstimate.update(stats.reclaimable);
+                if (planner != null) {
+                    planner.add(stats);
+                }
+                if (governor != null) {
+                    governor.acquire(stats.size);
+                }
                 progressBar.updateProgress(reader.getProgress());
             }
 
             cfProxy.close();
 
-            System.out.println("Summary:");
+            if (budget != null) {
+                fraction *= budget.getCoverage();
+                sizeEstimate.setFraction(fraction);
+                reclaimEstimate.setFraction(fraction);
+            }
+
+            System.out.println(estimated ? "Summary (estimated, ± margin at 95% confidence):" : "Summary:");
             TableBuilder tb = new TableBuilder();
             tb.setHeader("", "Size");
-            tb.addRow("Disk", Util.humanReadableByteCount(totalSize));
-            tb.addRow("Reclaim", Util.humanReadableByteCount(totalReclaim));
+            if (estimated && fraction > 0) {
+                tb.addRow("Disk", Util.humanReadableByteCount(sizeEstimate.getEstimate()) + " ± " + Util.humanReadableByteCount(sizeEstimate.getMargin()));
+                tb.addRow("Reclaim", Util.humanReadableByteCount(reclaimEstimate.getEstimate()) + " ± " + Util.humanReadableByteCount(reclaimEstimate.getMargin()));
+            } else {
+                tb.addRow("Disk", Util.humanReadableByteCount(totalSize));
+                tb.addRow("Reclaim", Util.humanReadableByteCount(totalReclaim));
+            }
             System.out.println(tb);
+            if (budget != null) {
+                System.out.println(String.format("Time budget: %.1f%% of token ranges read (%d of %d ranges completed)", budget.getCoverage() * 100, budget.getCompletedRanges(), budget.getRangeCount()));
+            }
+            if (estimated) {
+                System.out.println(String.format("Sample: %s%% of partitions, intervals at 95%% confidence", fraction * 100));
+                System.out.println();
+            }
+
+            if (forecast != null) {
+                System.out.println(String.format("Forecast (gc_grace_seconds %d):", gcGraceSeconds));
+                tb = new TableBuilder();
+                tb.setHeader("After", "Date", "Reclaim");
+                double reclaimNow = estimated && fraction > 0 ? reclaimEstimate.getEstimate() : totalReclaim;
+                double scale = estimated && fraction > 0 ? 1 / fraction : 1;
+                tb.addRow("now", Util.UTC_DATE_FORMAT.format(new Date(Util.NOW)), Util.humanReadableByteCount((long) reclaimNow));
+                for (long offset : forecastOffsets) {
+                    long reclaim = (long) (reclaimNow + forecast.getReclaimable(gcBefore + offset) * scale);
+                    tb.addRow(
+                        Util.humanReadableDateDiff(0, offset * 1000),
+                        Util.UTC_DATE_FORMAT.format(new Date(Util.NOW + offset * 1000)),
+                        Util.humanReadableByteCount(reclaim)
+                    );
+                }
+                System.out.println(tb);
+            }
 
             System.out.println("Largest reclaimable partitions:");
             tb = new TableBuilder();
@@ -98,6 +225,51 @@ public class PurgeStatisticsCollector implements Runnable {
                 );
             }
             System.out.println(tb);
+
+            if (planner != null) {
+                Map<SSTableId, Long> sizes = new HashMap<>();
+                Map<SSTableId, String> filenames = new HashMap<>();
+                for (SSTableMetadata metadata : CassandraBackend.getInstance().getSSTableMetadata(ksName, cfName)) {
+                    sizes.put(metadata.ssTableId, metadata.uncompressedLength);
+                    filenames.put(metadata.ssTableId, metadata.filename);
+                }
+                double scale = estimated && fraction > 0 ? 1 / fraction : 1;
+
+                System.out.println("Reclaimable by sstable:");
+                tb = new TableBuilder();
+                tb.setHeader("SSTable", "Size", "Reclaim", "Alone");
+                List<Map.Entry<SSTableId, Long>> bySSTable = new ArrayList<>(planner.getReclaimBySSTable().entrySet());
+                bySSTable.sort(Map.Entry.<SSTableId, Long>comparingByValue().reversed());
+                for (Map.Entry<SSTableId, Long> entry : bySSTable) {
+                    tb.addRow(
+                        filenames.getOrDefault(entry.getKey(), entry.getKey().toString()),
+                        sizes.containsKey(entry.getKey()) ? Util.humanReadableByteCount(sizes.get(entry.getKey())) : "",
+                        Util.humanReadableByteCount((long) (entry.getValue() * scale)),
+                        Util.humanReadableByteCount((long) (planner.getReclaimAlone(entry.getKey()) * scale))
+                    );
+                }
+                System.out.println(tb);
+
+                System.out.println("Compaction candidates:");
+                tb = new TableBuilder();
+                tb.setHeader("Rank", "Rewrite", "Reclaim", "Ratio", "SSTables");
+                int rank = 1;
+                for (CompactionPlanner.Candidate candidate : planner.plan(sizes, planBudget != null ? Util.parseSize(planBudget) : 0, numPartitions)) {
+                    List<String> names = new ArrayList<>(candidate.ssTableIds.size());
+                    for (SSTableId id : candidate.ssTableIds) {
+                        names.add(filenames.get(id));
+                    }
+                    Collections.sort(names);
+                    tb.addRow(
+                        Integer.toString(rank++),
+                        Util.humanReadableByteCount(candidate.rewrite),
+                        Util.humanReadableByteCount((long) (candidate.reclaim * scale)),
+                        String.format("%.1f%%", candidate.getRatio() * scale * 100),
+                        String.join(",", names)
+                    );
+                }
+                System.out.println(tb);
+            }
         }
     }
 }
@@ -12,4 +12,9 @@ public interface PurgeStatisticsReader extends Iterator<PurgeStatistics> {
      * @return Read progress as percentage.
      */
     double getProgress();
+
+    /**
+     * Stop reading and release the SSTable files held open.
+     */
+    void close();
 }
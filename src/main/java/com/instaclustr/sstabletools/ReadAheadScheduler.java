@@ -0,0 +1,222 @@
+package com.instaclustr.sstabletools;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read ahead of the merge on reader threads assigned per data directory.
+ * <p>
+ * Each data directory gets its own pool of threads, so SSTables on different disks are read in parallel while
+ * the number of concurrent reads against any one disk stays bounded. Readers decode partitions into a buffer
+ * ahead of the merge consuming them.
+ */
+public class ReadAheadScheduler implements AutoCloseable {
+    /**
+     * Name of the pool for SSTables with no known data directory.
+     */
+    private static final String UNKNOWN_DIRECTORY = "";
+
+    /**
+     * Number of reader threads per data directory.
+     */
+    private final int threadsPerDirectory;
+
+    /**
+     * Number of partitions to buffer ahead of each reader.
+     */
+    private final int readAhead;
+
+    /**
+     * Reader thread pool of each data directory.
+     */
+    private final Map<String, ExecutorService> executors = new LinkedHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param threadsPerDirectory Number of reader threads per data directory.
+     * @param readAhead           Number of partitions to buffer ahead of each reader.
+     */
+    public ReadAheadScheduler(int threadsPerDirectory, int readAhead) {
+        this.threadsPerDirectory = Math.max(1, threadsPerDirectory);
+        this.readAhead = Math.max(1, readAhead);
+    }
+
+    /**
+     * Wrap SSTable readers to read ahead on the threads of their data directory.
+     *
+     * @param readers SSTable readers.
+     * @return Readers reading ahead.
+     */
+    public Collection<SSTableReader> schedule(Collection<SSTableReader> readers) {
+        List<SSTableReader> scheduled = new ArrayList<>(readers.size());
+        for (SSTableReader reader : readers) {
+            String directory = reader.getSSTableStatistics().dataDirectory;
+            ReadAheadReader readAheadReader = new ReadAheadReader(reader, getExecutor(directory != null ? directory : UNKNOWN_DIRECTORY), readAhead);
+            // Start reading every SSTable now rather than one at a time as the merge first asks for them.
+            readAheadReader.schedule();
+            scheduled.add(readAheadReader);
+        }
+        return scheduled;
+    }
+
+    /**
+     * Get the reader thread pool of a data directory, creating it if needed.
+     */
+    private synchronized ExecutorService getExecutor(String directory) {
+        ExecutorService executor = executors.get(directory);
+        if (executor != null) {
+            return executor;
+        }
+        // Threads are created later without the lock, so name them after the index of the directory taken now.
+        final int index = executors.size() + 1;
+        executor = Executors.newFixedThreadPool(threadsPerDirectory, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "read-ahead-" + index + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executors.put(directory, executor);
+        return executor;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (ExecutorService executor : executors.values()) {
+            executor.shutdownNow();
+        }
+        executors.clear();
+    }
+
+    /**
+     * SSTable reader filling a buffer of partitions on a reader thread.
+     */
+    private static class ReadAheadReader extends AbstractSSTableReader {
+        /**
+         * Marks the end of the SSTable in the buffer.
+         */
+        private static final PartitionStatistics END = new PartitionStatistics(null);
+
+        /**
+         * Underlying SSTable reader, only advanced on a reader thread.
+         */
+        private final SSTableReader reader;
+
+        /**
+         * Reader thread pool of the data directory of the SSTable.
+         */
+        private final ExecutorService executor;
+
+        /**
+         * Partitions read ahead.
+         */
+        private final BlockingQueue<PartitionStatistics> buffer;
+
+        /**
+         * Is a fill of the buffer scheduled or running.
+         */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        /**
+         * Has the underlying reader finished.
+         */
+        private volatile boolean finished;
+
+        /**
+         * Error raised by the underlying reader, or null.
+         */
+        private volatile Throwable error;
+
+        ReadAheadReader(SSTableReader reader, ExecutorService executor, int readAhead) {
+            this.reader = reader;
+            this.executor = executor;
+            this.buffer = new ArrayBlockingQueue<>(readAhead + 1);
+            this.tableStats = reader.getSSTableStatistics();
+        }
+
+        /**
+         * Schedule a fill of the buffer unless one is pending.
+         */
+        private void schedule() {
+            if (!finished && scheduled.compareAndSet(false, true)) {
+                executor.execute(this::fill);
+            }
+        }
+
+        /**
+         * Read partitions until the buffer is full or the SSTable is finished.
+         */
+        private void fill() {
+            try {
+                // Only this thread adds to the buffer, so there is always room for what is added.
+                synchronized (reader) {
+                    while (!finished && buffer.remainingCapacity() > 0) {
+                        if (reader.next()) {
+                            buffer.add(reader.getPartitionStatistics());
+                        } else {
+                            finished = true;
+                            buffer.add(END);
+                        }
+                    }
+                }
+            } catch (Throwable t) {
+                error = t;
+                finished = true;
+                try {
+                    buffer.put(END);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } finally {
+                scheduled.set(false);
+            }
+            // The buffer may have been drained while this fill was still marked as scheduled.
+            if (buffer.remainingCapacity() > 0) {
+                schedule();
+            }
+        }
+
+        @Override
+        public boolean next() {
+            schedule();
+            PartitionStatistics pStats;
+            try {
+                pStats = buffer.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted reading " + tableStats.filename, e);
+            }
+            if (pStats == END) {
+                if (error != null) {
+                    throw new RuntimeException("Error reading " + tableStats.filename, error);
+                }
+                return false;
+            }
+            this.partitionStats = pStats;
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // Stop further fills and wait for a running fill before closing the reader under it.
+            finished = true;
+            synchronized (reader) {
+                reader.close();
+            }
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.instaclustr.sstabletools;
 
+import com.clearspring.analytics.stream.cardinality.ICardinality;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.io.sstable.SSTableId;
 
 import java.util.Comparator;
@@ -82,4 +84,35 @@ public class SSTableMetadata {
     public long repairedAt;
 
     public int level;
+
+    /**
+     * Data directory the sstable is on.
+     */
+    public String dataDirectory;
+
+    /**
+     * Token of the first partition.
+     */
+    public Token firstToken;
+
+    /**
+     * Token of the last partition.
+     */
+    public Token lastToken;
+
+    /**
+     * Partition key cardinality estimator from the compaction metadata, null unless requested.
+     */
+    public ICardinality cardinality;
+
+    /**
+     * Do the key ranges of two sstables overlap.
+     *
+     * @param other Other sstable.
+     * @return True if the token ranges of the sstables intersect.
+     */
+    public boolean overlaps(SSTableMetadata other) {
+        return firstToken != null && other.firstToken != null
+            && firstToken.compareTo(other.lastToken) <= 0 && other.firstToken.compareTo(lastToken) <= 0;
+    }
 }
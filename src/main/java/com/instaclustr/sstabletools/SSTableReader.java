@@ -24,4 +24,9 @@ public interface SSTableReader extends Comparable<SSTableReader> {
      * @return SSTable statistics.
      */
     SSTableStatistics getSSTableStatistics();
+
+    /**
+     * Stop reading and release the SSTable files held open. SSTable statistics then cover the partitions read.
+     */
+    void close();
 }
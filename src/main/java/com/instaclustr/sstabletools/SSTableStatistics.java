@@ -1,9 +1,13 @@
 package com.instaclustr.sstabletools;
 
 import org.apache.cassandra.io.sstable.SSTableId;
+import org.apache.cassandra.io.sstable.SSTableIdFactory;
 import org.apache.cassandra.io.sstable.SequenceBasedSSTableId;
 import org.apache.cassandra.io.sstable.UUIDBasedSSTableId;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Comparator;
 
 /**
@@ -45,6 +49,11 @@ public class SSTableStatistics {
      */
     public String filename;
 
+    /**
+     * Data directory the SSTable is on, or null if unknown.
+     */
+    public String dataDirectory;
+
     /**
      * Minimum timestamp of SSTable.
      */
@@ -144,6 +153,52 @@ public class SSTableStatistics {
         this.level = level;
     }
 
+    /**
+     * Extrapolate statistics collected from a sample of partitions to all partitions of the SSTable.
+     *
+     * @param sampledPartitions Number of partitions that were sampled.
+     * @param totalPartitions   Total number of partitions in SSTable.
+     */
+    public void extrapolate(long sampledPartitions, long totalPartitions) {
+        if (sampledPartitions == 0 || sampledPartitions == totalPartitions) {
+            this.partitionCount = totalPartitions;
+            return;
+        }
+        double factor = totalPartitions / (double) sampledPartitions;
+        this.partitionCount = totalPartitions;
+        this.rowCount = Math.round(this.rowCount * factor);
+        this.rowDeleteCount = Math.round(this.rowDeleteCount * factor);
+        this.cellCount = Math.round(this.cellCount * factor);
+        this.liveCellCount = Math.round(this.liveCellCount * factor);
+        this.expiringCellCount = Math.round(this.expiringCellCount * factor);
+        this.rangeTombstoneCount = Math.round(this.rangeTombstoneCount * factor);
+        this.counterCellCount = Math.round(this.counterCellCount * factor);
+        this.tombstoneCount = Math.round(this.tombstoneCount * factor);
+        this.droppableTombstoneCount = Math.round(this.droppableTombstoneCount * factor);
+        this.partitionDeleteCount = Math.round(this.partitionDeleteCount * factor);
+    }
+
+    /**
+     * Add statistics collected from another part of the same SSTable.
+     *
+     * @param other Statistics of another part of the SSTable.
+     */
+    public void add(SSTableStatistics other) {
+        this.size += other.size;
+        this.maxPartitionSize = Math.max(this.maxPartitionSize, other.maxPartitionSize);
+        this.rowCount += other.rowCount;
+        this.rowDeleteCount += other.rowDeleteCount;
+        this.cellCount += other.cellCount;
+        this.liveCellCount += other.liveCellCount;
+        this.expiringCellCount += other.expiringCellCount;
+        this.rangeTombstoneCount += other.rangeTombstoneCount;
+        this.counterCellCount += other.counterCellCount;
+        this.tombstoneCount += other.tombstoneCount;
+        this.droppableTombstoneCount += other.droppableTombstoneCount;
+        this.partitionDeleteCount += other.partitionDeleteCount;
+        this.partitionCount += other.partitionCount;
+    }
+
     /**
      * Get liveness percentage.
      *
@@ -152,4 +207,60 @@ public class SSTableStatistics {
     public int getLiveness() {
         return (int) ((liveCellCount / (double) cellCount) * 100);
     }
+
+    /**
+     * Write SSTable statistics.
+     *
+     * @param out Output to write to.
+     * @throws IOException if unable to write.
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeUTF(ssTableId.toString());
+        out.writeUTF(filename);
+        out.writeUTF(dataDirectory != null ? dataDirectory : "");
+        out.writeLong(size);
+        out.writeLong(minTimestamp);
+        out.writeLong(maxTimestamp);
+        out.writeInt(level);
+        out.writeLong(maxPartitionSize);
+        out.writeLong(rowCount);
+        out.writeLong(rowDeleteCount);
+        out.writeLong(cellCount);
+        out.writeLong(liveCellCount);
+        out.writeLong(expiringCellCount);
+        out.writeLong(rangeTombstoneCount);
+        out.writeLong(counterCellCount);
+        out.writeLong(tombstoneCount);
+        out.writeLong(droppableTombstoneCount);
+        out.writeLong(partitionDeleteCount);
+        out.writeLong(partitionCount);
+    }
+
+    /**
+     * Read SSTable statistics written by {@link #write(DataOutput)}.
+     *
+     * @param in Input to read from.
+     * @return SSTable statistics.
+     * @throws IOException if unable to read.
+     */
+    public static SSTableStatistics read(DataInput in) throws IOException {
+        SSTableId id = SSTableIdFactory.instance.fromString(in.readUTF());
+        String filename = in.readUTF();
+        String dataDirectory = in.readUTF();
+        SSTableStatistics stats = new SSTableStatistics(id, filename, in.readLong(), in.readLong(), in.readLong(), in.readInt());
+        stats.dataDirectory = dataDirectory.isEmpty() ? null : dataDirectory;
+        stats.maxPartitionSize = in.readLong();
+        stats.rowCount = in.readLong();
+        stats.rowDeleteCount = in.readLong();
+        stats.cellCount = in.readLong();
+        stats.liveCellCount = in.readLong();
+        stats.expiringCellCount = in.readLong();
+        stats.rangeTombstoneCount = in.readLong();
+        stats.counterCellCount = in.readLong();
+        stats.tombstoneCount = in.readLong();
+        stats.droppableTombstoneCount = in.readLong();
+        stats.partitionDeleteCount = in.readLong();
+        stats.partitionCount = in.readLong();
+        return stats;
+    }
 }
@@ -0,0 +1,73 @@
+package com.instaclustr.sstabletools;
+
+/**
+ * Estimate of a population total from a Bernoulli sample using the Horvitz-Thompson estimator.
+ */
+public class SampleEstimate {
+    /**
+     * Z score for a 95% confidence interval.
+     */
+    public static final double Z_95 = 1.96;
+
+    /**
+     * Probability that an element was sampled.
+     */
+    private double fraction;
+
+    /**
+     * Sum of sampled values.
+     */
+    private double sum = 0;
+
+    /**
+     * Sum of squares of sampled values.
+     */
+    private double sumOfSquares = 0;
+
+    /**
+     * Construct estimate.
+     *
+     * @param fraction Probability that an element was sampled.
+     */
+    public SampleEstimate(double fraction) {
+        this.fraction = fraction;
+    }
+
+    /**
+     * Set the probability that an element was sampled. Used when the probability is only known once sampling has
+     * finished, eg. when a time budget expires.
+     *
+     * @param fraction Probability that an element was sampled.
+     */
+    public void setFraction(double fraction) {
+        this.fraction = fraction;
+    }
+
+    /**
+     * Record a sampled value.
+     *
+     * @param value Sampled value.
+     */
+    public void update(double value) {
+        sum += value;
+        sumOfSquares += value * value;
+    }
+
+    /**
+     * Get the estimated population total.
+     *
+     * @return Estimated total.
+     */
+    public long getEstimate() {
+        return Math.round(sum / fraction);
+    }
+
+    /**
+     * Get the margin of error of the estimated total at 95% confidence.
+     *
+     * @return Margin of error.
+     */
+    public long getMargin() {
+        return Math.round(Z_95 * Math.sqrt((1 - fraction) * sumOfSquares) / fraction);
+    }
+}
@@ -107,6 +107,30 @@ public class Snapshot {
         return lower + (pos - Math.floor(pos)) * (upper - lower);
     }
 
+    /**
+     * Returns a distribution-free confidence interval for the value at the given percentile based on the order
+     * statistics of the sampled values.
+     *
+     * @param percentile a given percentile, in {@code [0..1]}
+     * @param z          z score of the confidence level, eg. 1.96 for 95%
+     * @return the lower and upper bound of the interval
+     */
+    public long[] getPercentileInterval(double percentile, double z) {
+        if (percentile < 0.0 || percentile > 1.0 || Double.isNaN(percentile)) {
+            throw new IllegalArgumentException(percentile + " is not in [0..1]");
+        }
+
+        if (values.length == 0) {
+            return new long[]{0, 0};
+        }
+
+        final int n = values.length;
+        final double spread = z * Math.sqrt(n * percentile * (1 - percentile));
+        final int lower = (int) Math.max(0, Math.floor(n * percentile - spread) - 1);
+        final int upper = (int) Math.min(n - 1, Math.ceil(n * percentile + spread));
+        return new long[]{values[lower], values[upper]};
+    }
+
     /**
      * Returns the standard deviation of the values.
      *
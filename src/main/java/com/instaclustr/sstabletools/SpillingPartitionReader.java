@@ -0,0 +1,281 @@
+package com.instaclustr.sstabletools;
+
+import org.apache.cassandra.dht.IPartitioner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Read partitions from a collection of SSTables too large to have open at once.
+ * <p>
+ * Groups of SSTables are merged one at a time into token sorted runs of partition statistics spilled to disk.
+ * The runs are then merged, in further passes if there are more runs than can be open at once, so the number of
+ * open files and buffers stays bounded however many SSTables there are.
+ */
+public class SpillingPartitionReader extends PartitionReader {
+    /**
+     * Size of buffer of each run file.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Share of the progress taken by spilling the SSTables, which reads far more than merging the runs.
+     */
+    private static final double SPILL_SHARE = 0.9;
+
+    /**
+     * Number of groups of SSTables.
+     */
+    private final int groupCount;
+
+    /**
+     * Factory of SSTable readers for a group.
+     */
+    private final IntFunction<Collection<SSTableReader>> groupFactory;
+
+    /**
+     * Partitioner to decorate partition keys read back from runs.
+     */
+    private final IPartitioner partitioner;
+
+    /**
+     * Maximum number of runs to merge at once.
+     */
+    private final int maxOpen;
+
+    /**
+     * Directory to spill runs to, or null for the default temporary directory.
+     */
+    private final File directory;
+
+    /**
+     * Statistics for each SSTable.
+     */
+    private final List<SSTableStatistics> sstableStats = new ArrayList<>();
+
+    /**
+     * Reader merging the final runs, or null if not spilled yet.
+     */
+    private PartitionReader runReader;
+
+    /**
+     * Bytes of partitions spilled from the SSTables.
+     */
+    private long length;
+
+    /**
+     * Number of groups of SSTables spilled.
+     */
+    private int spilledGroups;
+
+    /**
+     * Reader of the group of SSTables being spilled, or null if not spilling.
+     */
+    private PartitionReader groupReader;
+
+    /**
+     * Bytes of partitions read from the final runs.
+     */
+    private long bytesRead;
+
+    /**
+     * Constructor.
+     *
+     * @param groupCount   Number of groups of SSTables.
+     * @param groupFactory Factory of SSTable readers for a group.
+     * @param partitioner  Partitioner of the SSTables.
+     * @param maxOpen      Maximum number of runs to merge at once.
+     * @param directory    Directory to spill runs to, or null for the default temporary directory.
+     */
+    public SpillingPartitionReader(int groupCount, IntFunction<Collection<SSTableReader>> groupFactory, IPartitioner partitioner, int maxOpen, File directory) {
+        super(Collections.emptyList(), 1);
+        this.groupCount = groupCount;
+        this.groupFactory = groupFactory;
+        this.partitioner = partitioner;
+        this.maxOpen = Math.max(2, maxOpen);
+        this.directory = directory;
+    }
+
+    @Override
+    public PartitionStatistics read() {
+        if (runReader == null) {
+            try {
+                runReader = new PartitionReader(spill(), 1);
+            } catch (IOException e) {
+                throw new RuntimeException("Error spilling partition statistics", e);
+            }
+        }
+        PartitionStatistics pStats = runReader.read();
+        if (pStats != null) {
+            bytesRead += pStats.size;
+        }
+        return pStats;
+    }
+
+    /**
+     * Spill each group of SSTables to a run, then merge runs until few enough remain to be open at once.
+     *
+     * @return Readers of the final runs.
+     * @throws IOException if unable to write or read a run.
+     */
+    private List<SSTableReader> spill() throws IOException {
+        List<File> runs = new ArrayList<>(groupCount);
+        for (int group = 0; group < groupCount; group++) {
+            Collection<SSTableReader> readers = groupFactory.apply(group);
+            long groupLength = 0;
+            for (SSTableReader reader : readers) {
+                groupLength += reader.getSSTableStatistics().size;
+            }
+            groupReader = new PartitionReader(readers, Math.max(1, groupLength));
+            File run = createRun();
+            length += writeRun(groupReader, run);
+            sstableStats.addAll(groupReader.getSSTableStatistics());
+            runs.add(run);
+            spilledGroups++;
+        }
+        groupReader = null;
+        while (runs.size() > maxOpen) {
+            List<File> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += maxOpen) {
+                PartitionReader groupReader = new PartitionReader(openRuns(runs.subList(i, Math.min(i + maxOpen, runs.size()))), 1);
+                File run = createRun();
+                writeRun(groupReader, run);
+                merged.add(run);
+            }
+            runs = merged;
+        }
+        return openRuns(runs);
+    }
+
+    /**
+     * Create an empty run file.
+     *
+     * @return Run file.
+     * @throws IOException if unable to create the file.
+     */
+    private File createRun() throws IOException {
+        File run = File.createTempFile("sstable-tools-run-", ".db", directory);
+        run.deleteOnExit();
+        return run;
+    }
+
+    /**
+     * Write merged partitions to a run.
+     *
+     * @param reader Reader of merged partitions.
+     * @param run    Run file.
+     * @return Bytes of the partitions written.
+     * @throws IOException if unable to write the run.
+     */
+    private long writeRun(PartitionReader reader, File run) throws IOException {
+        long bytes = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE))) {
+            PartitionStatistics pStats;
+            while ((pStats = reader.read()) != null) {
+                out.writeBoolean(true);
+                pStats.write(out);
+                bytes += pStats.size;
+                if (progressBar != null) {
+                    progressBar.updateProgress(getProgress());
+                }
+            }
+            out.writeBoolean(false);
+        }
+        return bytes;
+    }
+
+    /**
+     * Open readers of runs.
+     *
+     * @param runs Run files.
+     * @return Readers of the runs.
+     * @throws IOException if unable to open a run.
+     */
+    private List<SSTableReader> openRuns(List<File> runs) throws IOException {
+        List<SSTableReader> readers = new ArrayList<>(runs.size());
+        for (File run : runs) {
+            readers.add(new RunReader(run, partitioner));
+        }
+        return readers;
+    }
+
+    @Override
+    public double getProgress() {
+        if (runReader == null) {
+            double group = groupReader != null ? Math.min(1.0, groupReader.getProgress()) : 0;
+            return SPILL_SHARE * (spilledGroups + group) / groupCount;
+        }
+        return SPILL_SHARE + (1 - SPILL_SHARE) * (length > 0 ? bytesRead / (double) length : 0);
+    }
+
+    /**
+     * Get SSTable statistics.
+     *
+     * @return Statistics for each SSTable.
+     */
+    @Override
+    public List<SSTableStatistics> getSSTableStatistics() {
+        return sstableStats;
+    }
+
+    /**
+     * Reader of partition statistics spilled to a run, deleting the run once read.
+     */
+    private static class RunReader extends AbstractSSTableReader {
+        /**
+         * Run file.
+         */
+        private final File run;
+
+        /**
+         * Partitioner to decorate partition keys.
+         */
+        private final IPartitioner partitioner;
+
+        /**
+         * Input of the run.
+         */
+        private DataInputStream in;
+
+        RunReader(File run, IPartitioner partitioner) throws IOException {
+            this.run = run;
+            this.partitioner = partitioner;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), BUFFER_SIZE));
+        }
+
+        @Override
+        public boolean next() {
+            try {
+                if (in.readBoolean()) {
+                    this.partitionStats = PartitionStatistics.read(in, partitioner);
+                    return true;
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Error reading spilled run " + run, e);
+            }
+            close();
+            return false;
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            run.delete();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.instaclustr.sstabletools;
+
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Wall-clock time budget for a scan over token ranges.
+ * <p>
+ * The token ranges to read are split into small ranges that are handed out in random order, so that whatever has been
+ * read when the budget expires is a random sample of the token ranges. The fraction covered is tracked so totals can
+ * be scaled up.
+ */
+public class TimeBudget {
+    /**
+     * Default number of ranges the token ranges are split into.
+     */
+    public static final int DEFAULT_RANGES = 256;
+
+    /**
+     * Number of ranges handed out.
+     */
+    private final int rangeCount;
+
+    /**
+     * Fraction of the token ring covered by all ranges.
+     */
+    private final double total;
+
+    /**
+     * Budget in milliseconds.
+     */
+    private final long budget;
+
+    /**
+     * Time in milliseconds when the scan started.
+     */
+    private final long startTime;
+
+    /**
+     * Remaining ranges in random order.
+     */
+    private final Iterator<Range<Token>> rangeIterator;
+
+    /**
+     * Fraction of the token ring that has been read.
+     */
+    private double coverage = 0;
+
+    /**
+     * Number of ranges that have been read completely.
+     */
+    private int completedRanges = 0;
+
+    /**
+     * Construct time budget.
+     *
+     * @param budget      Budget in milliseconds.
+     * @param partitioner Partitioner of the table.
+     * @param ranges      Token ranges to read, or null to read the whole ring.
+     */
+    public TimeBudget(long budget, IPartitioner partitioner, Collection<Range<Token>> ranges) {
+        this.budget = budget;
+        if (ranges == null) {
+            Token minimum = partitioner.getMinimumToken();
+            ranges = Collections.singletonList(new Range<>(minimum, minimum));
+        }
+        double total = 0;
+        for (Range<Token> range : ranges) {
+            total += range.left.size(range.right);
+        }
+        this.total = total;
+        List<Range<Token>> split = Util.splitRanges(partitioner, ranges, DEFAULT_RANGES);
+        this.rangeCount = split.size();
+        Collections.shuffle(split);
+        this.rangeIterator = split.iterator();
+        this.startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Has the budget expired.
+     *
+     * @return True if the budget has expired.
+     */
+    public boolean isExpired() {
+        return System.currentTimeMillis() - startTime >= budget;
+    }
+
+    /**
+     * Get the next range to read.
+     *
+     * @return Next range to read, or null if all ranges have been read or the budget has expired.
+     */
+    public Range<Token> nextRange() {
+        if (isExpired() || !rangeIterator.hasNext()) {
+            return null;
+        }
+        return rangeIterator.next();
+    }
+
+    /**
+     * Record that a range has been read completely.
+     *
+     * @param range Token range.
+     */
+    public void completed(Range<Token> range) {
+        coverage += range.left.size(range.right);
+        completedRanges++;
+    }
+
+    /**
+     * Record that a range has been read up to and including a token.
+     *
+     * @param range Token range.
+     * @param last  Last token read, or null if nothing was read.
+     */
+    public void partial(Range<Token> range, Token last) {
+        if (last != null) {
+            coverage += range.left.size(last);
+        }
+    }
+
+    /**
+     * Get the fraction of the token ranges that has been read.
+     *
+     * @return Fraction in [0..1].
+     */
+    public double getCoverage() {
+        return Math.min(1.0, coverage / total);
+    }
+
+    /**
+     * Get number of ranges handed out.
+     *
+     * @return Number of ranges.
+     */
+    public int getRangeCount() {
+        return rangeCount;
+    }
+
+    /**
+     * Get number of ranges that have been read completely.
+     *
+     * @return Number of ranges.
+     */
+    public int getCompletedRanges() {
+        return completedRanges;
+    }
+
+    /**
+     * Progress towards either reading the whole ring or the budget expiring.
+     *
+     * @return Progress as percentage.
+     */
+    public double getProgress() {
+        return Math.min(1.0, Math.max(getCoverage(), (System.currentTimeMillis() - startTime) / (double) budget));
+    }
+}
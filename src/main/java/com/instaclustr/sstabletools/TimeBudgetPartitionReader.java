@@ -0,0 +1,134 @@
+package com.instaclustr.sstabletools;
+
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Read partitions from collection of SSTables one token range at a time until a time budget expires.
+ */
+public class TimeBudgetPartitionReader extends PartitionReader {
+    /**
+     * Time budget handing out token ranges.
+     */
+    private final TimeBudget budget;
+
+    /**
+     * Factory of SSTable readers for a token range.
+     */
+    private final Function<Range<Token>, Collection<SSTableReader>> readerFactory;
+
+    /**
+     * Statistics for each SSTable merged across ranges, by filename.
+     */
+    private final Map<String, SSTableStatistics> sstableStats = new LinkedHashMap<>();
+
+    /**
+     * Token range being read.
+     */
+    private Range<Token> range;
+
+    /**
+     * SSTable readers of the token range being read.
+     */
+    private Collection<SSTableReader> readers;
+
+    /**
+     * Reader merging partitions of the token range being read.
+     */
+    private PartitionReader rangeReader;
+
+    /**
+     * Token of the last partition read from the current range.
+     */
+    private Token lastToken;
+
+    /**
+     * Constructor.
+     *
+     * @param budget        Time budget handing out token ranges.
+     * @param readerFactory Factory of SSTable readers for a token range.
+     */
+    public TimeBudgetPartitionReader(TimeBudget budget, Function<Range<Token>, Collection<SSTableReader>> readerFactory) {
+        super(Collections.emptyList(), 1);
+        this.budget = budget;
+        this.readerFactory = readerFactory;
+    }
+
+    @Override
+    public PartitionStatistics read() {
+        while (true) {
+            if (rangeReader == null) {
+                range = budget.nextRange();
+                if (range == null) {
+                    return null;
+                }
+                readers = readerFactory.apply(range);
+                rangeReader = new PartitionReader(readers, 1);
+                rangeReader.setOverlapMatrix(overlapMatrix);
+                lastToken = null;
+            }
+            if (budget.isExpired()) {
+                budget.partial(range, lastToken);
+                finishRange();
+                return null;
+            }
+            PartitionStatistics pStats = rangeReader.read();
+            if (pStats != null) {
+                lastToken = pStats.key.getToken();
+                return pStats;
+            }
+            budget.completed(range);
+            finishRange();
+        }
+    }
+
+    /**
+     * Close the readers of the current range and merge the statistics of each SSTable read in it.
+     * <p>
+     * Readers of a range cut short by the budget are closed before their end, which finishes their statistics for
+     * the partitions read so far.
+     */
+    private void finishRange() {
+        for (SSTableReader reader : readers) {
+            reader.close();
+            SSTableStatistics stats = reader.getSSTableStatistics();
+            SSTableStatistics merged = sstableStats.get(stats.filename);
+            if (merged == null) {
+                sstableStats.put(stats.filename, stats);
+            } else {
+                merged.add(stats);
+            }
+        }
+        rangeReader = null;
+        readers = null;
+    }
+
+    @Override
+    public double getProgress() {
+        return budget.getProgress();
+    }
+
+    /**
+     * Get SSTable statistics of the SSTables that had partitions in the ranges read.
+     *
+     * @return Statistics for each SSTable.
+     */
+    @Override
+    public List<SSTableStatistics> getSSTableStatistics() {
+        List<SSTableStatistics> stats = new ArrayList<>(sstableStats.size());
+        for (SSTableStatistics s : sstableStats.values()) {
+            if (s.partitionCount > 0) {
+                stats.add(s);
+            }
+        }
+        return stats;
+    }
+}
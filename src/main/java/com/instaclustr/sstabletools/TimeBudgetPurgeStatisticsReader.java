@@ -0,0 +1,104 @@
+package com.instaclustr.sstabletools;
+
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * Read purge statistics one token range at a time until a time budget expires.
+ */
+public class TimeBudgetPurgeStatisticsReader implements PurgeStatisticsReader {
+    /**
+     * Time budget handing out token ranges.
+     */
+    private final TimeBudget budget;
+
+    /**
+     * Factory of purge statistics readers for a token range.
+     */
+    private final Function<Range<Token>, PurgeStatisticsReader> readerFactory;
+
+    /**
+     * Token range being read.
+     */
+    private Range<Token> range;
+
+    /**
+     * Reader of the token range being read.
+     */
+    private PurgeStatisticsReader rangeReader;
+
+    /**
+     * Token of the last partition read from the current range.
+     */
+    private Token lastToken;
+
+    /**
+     * Flag to determine that the budget has expired or all ranges have been read.
+     */
+    private boolean completed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param budget        Time budget handing out token ranges.
+     * @param readerFactory Factory of purge statistics readers for a token range.
+     */
+    public TimeBudgetPurgeStatisticsReader(TimeBudget budget, Function<Range<Token>, PurgeStatisticsReader> readerFactory) {
+        this.budget = budget;
+        this.readerFactory = readerFactory;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!completed) {
+            if (rangeReader == null) {
+                range = budget.nextRange();
+                if (range == null) {
+                    completed = true;
+                    break;
+                }
+                rangeReader = readerFactory.apply(range);
+                lastToken = null;
+            }
+            if (budget.isExpired()) {
+                budget.partial(range, lastToken);
+                close();
+                break;
+            }
+            if (rangeReader.hasNext()) {
+                return true;
+            }
+            budget.completed(range);
+            rangeReader.close();
+            rangeReader = null;
+        }
+        return false;
+    }
+
+    @Override
+    public PurgeStatistics next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        PurgeStatistics stats = rangeReader.next();
+        lastToken = stats.key.getToken();
+        return stats;
+    }
+
+    @Override
+    public double getProgress() {
+        return budget.getProgress();
+    }
+
+    @Override
+    public void close() {
+        if (rangeReader != null) {
+            rangeReader.close();
+            rangeReader = null;
+        }
+        completed = true;
+    }
+}
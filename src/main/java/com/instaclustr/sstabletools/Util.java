@@ -1,10 +1,17 @@
 package com.instaclustr.sstabletools;
 
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.io.sstable.SSTableId;
 import org.apache.cassandra.io.sstable.SequenceBasedSSTableId;
 import org.apache.cassandra.io.sstable.UUIDBasedSSTableId;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 import java.util.TimeZone;
 
@@ -63,6 +70,141 @@ public final class Util {
         return "analyse-" + Util.generateString(rand, "ABCDEFGHIJKLMNOPQRSTUVWXYZ", 20);
     }
 
+    /**
+     * Parse a duration such as 90s, 10m, 2h or 1d. A number without a unit is in seconds.
+     *
+     * @param duration Duration to parse.
+     * @return Duration in milliseconds.
+     */
+    public static long parseDuration(String duration) {
+        String value = duration.trim().toLowerCase();
+        long unit = 1000;
+        if (value.endsWith("ms")) {
+            unit = 1;
+            value = value.substring(0, value.length() - 2);
+        } else if (value.endsWith("s")) {
+            value = value.substring(0, value.length() - 1);
+        } else if (value.endsWith("m")) {
+            unit = 60 * 1000;
+            value = value.substring(0, value.length() - 1);
+        } else if (value.endsWith("h")) {
+            unit = 60 * 60 * 1000;
+            value = value.substring(0, value.length() - 1);
+        } else if (value.endsWith("d")) {
+            unit = 24 * 60 * 60 * 1000;
+            value = value.substring(0, value.length() - 1);
+        }
+        try {
+            return Math.round(Double.parseDouble(value) * unit);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid duration: " + duration);
+        }
+    }
+
+    /**
+     * Parse a size such as 512k, 100m, 10g or 1t. A number without a unit is in bytes.
+     *
+     * @param size Size to parse.
+     * @return Size in bytes.
+     */
+    public static long parseSize(String size) {
+        String value = size.trim().toLowerCase();
+        if (value.endsWith("ib")) {
+            value = value.substring(0, value.length() - 2);
+        } else if (value.endsWith("b")) {
+            value = value.substring(0, value.length() - 1);
+        }
+        long unit = 1;
+        if (value.endsWith("k")) {
+            unit = 1024L;
+        } else if (value.endsWith("m")) {
+            unit = 1024L * 1024;
+        } else if (value.endsWith("g")) {
+            unit = 1024L * 1024 * 1024;
+        } else if (value.endsWith("t")) {
+            unit = 1024L * 1024 * 1024 * 1024;
+        }
+        if (unit > 1) {
+            value = value.substring(0, value.length() - 1);
+        }
+        try {
+            return Math.round(Double.parseDouble(value) * unit);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid size: " + size);
+        }
+    }
+
+    /**
+     * Parse token ranges given as a start and end token and/or a comma separated list of start:end pairs. Ranges are
+     * start exclusive and end inclusive. A missing start or end token means the start or end of the ring.
+     *
+     * @param partitioner Partitioner of the table.
+     * @param startToken  Start token, or null.
+     * @param endToken    End token, or null.
+     * @param ranges      Comma separated list of start:end pairs, or null.
+     * @return Token ranges, or null if the whole ring is to be read.
+     */
+    public static List<Range<Token>> parseRanges(IPartitioner partitioner, String startToken, String endToken, String ranges) {
+        List<Range<Token>> result = new ArrayList<>();
+        if (startToken != null || endToken != null) {
+            result.add(new Range<>(parseToken(partitioner, startToken), parseToken(partitioner, endToken)));
+        }
+        if (ranges != null && !ranges.isEmpty()) {
+            for (String range : ranges.split(",")) {
+                String[] tokens = range.trim().split(":");
+                if (tokens.length != 2) {
+                    throw new IllegalArgumentException("Invalid token range: " + range);
+                }
+                result.add(new Range<>(parseToken(partitioner, tokens[0]), parseToken(partitioner, tokens[1])));
+            }
+        }
+        return result.isEmpty() ? null : result;
+    }
+
+    /**
+     * Split token ranges into about the given number of ranges, in proportion to the share of the ring of each range.
+     *
+     * @param partitioner Partitioner of the table.
+     * @param ranges      Token ranges to split, or null to split the whole ring.
+     * @param count       Number of ranges to split into.
+     * @return Token ranges in ring order.
+     */
+    public static List<Range<Token>> splitRanges(IPartitioner partitioner, Collection<Range<Token>> ranges, int count) {
+        if (ranges == null) {
+            Token minimum = partitioner.getMinimumToken();
+            ranges = Collections.singletonList(new Range<>(minimum, minimum));
+        }
+        double total = 0;
+        for (Range<Token> range : ranges) {
+            total += range.left.size(range.right);
+        }
+        List<Range<Token>> split = new ArrayList<>(count);
+        for (Range<Token> range : ranges) {
+            int parts = (int) Math.max(1, Math.round(count * range.left.size(range.right) / total));
+            Token left = range.left;
+            for (int i = 1; i < parts; i++) {
+                Token right = partitioner.split(range.left, range.right, i / (double) parts);
+                split.add(new Range<>(left, right));
+                left = right;
+            }
+            split.add(new Range<>(left, range.right));
+        }
+        return split;
+    }
+
+    private static Token parseToken(IPartitioner partitioner, String token) {
+        if (token == null || token.trim().isEmpty()) {
+            return partitioner.getMinimumToken();
+        }
+        try {
+            Token.TokenFactory factory = partitioner.getTokenFactory();
+            factory.validate(token.trim());
+            return factory.fromString(token.trim());
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid token: " + token, e);
+        }
+    }
+
     public static String humanReadableDateDiff(long start, long end) {
         long diff = end - start;
         StringBuilder sb = new StringBuilder();
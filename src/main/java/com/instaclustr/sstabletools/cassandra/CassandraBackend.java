@@ -4,13 +4,17 @@ import com.instaclustr.sstabletools.CassandraProxy;
 import com.instaclustr.sstabletools.ColumnFamilyProxy;
 import com.instaclustr.sstabletools.SSTableMetadata;
 import org.apache.cassandra.io.sstable.format.SSTableFormat;
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.schema.TableMetadata;
 import org.apache.cassandra.schema.Schema;
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.Keyspace;
 import org.apache.cassandra.db.compaction.TimeWindowCompactionStrategy;
 import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.io.sstable.format.StatsComponent;
+import org.apache.cassandra.io.sstable.metadata.MetadataType;
 import org.apache.cassandra.schema.KeyspaceMetadata;
 import org.apache.cassandra.tools.Util;
 import org.apache.cassandra.utils.EstimatedHistogram;
@@ -20,6 +24,8 @@ import static com.instaclustr.sstabletools.Util.NOW_SECONDS;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -27,15 +33,55 @@ import java.util.stream.Collectors;
  * Proxy to Cassandra 4.1 backend.
  */
 public class CassandraBackend implements CassandraProxy {
-    private static final CassandraBackend singleton = new CassandraBackend();
+    private static CassandraProxy singleton;
 
-    public static CassandraProxy getInstance() {
+    /**
+     * Directory of copied sstables to read offline, or null to read the sstables of the local node.
+     */
+    private static File offlineDirectory;
+
+    /**
+     * File of CREATE TABLE statements for offline tables, or null to use the serialization header of the sstables.
+     */
+    private static File schemaFile;
+
+    /**
+     * Get the backend, bootstrapping the local node's configuration and schema on first use unless reading offline.
+     *
+     * @return Proxy to Cassandra backend.
+     */
+    public static synchronized CassandraProxy getInstance() {
+        if (singleton == null) {
+            if (offlineDirectory != null) {
+                singleton = new OfflineBackend(offlineDirectory, schemaFile);
+            } else if (schemaFile != null) {
+                System.err.println("A schema file can only be used with a data directory");
+                System.exit(1);
+            } else {
+                Util.initDatabaseDescriptor();
+                Schema.instance.loadFromDisk();
+                singleton = new CassandraBackend();
+            }
+        }
         return singleton;
     }
 
-    static {
-        Util.initDatabaseDescriptor();
-        Schema.instance.loadFromDisk();
+    /**
+     * Read copied sstables from a directory instead of the sstables of the local node.
+     *
+     * @param directory Data directory, keyspace directory or table directory.
+     */
+    public static synchronized void setOfflineDirectory(File directory) {
+        offlineDirectory = directory;
+    }
+
+    /**
+     * Set the file of CREATE TABLE statements describing offline tables.
+     *
+     * @param file Schema file.
+     */
+    public static synchronized void setSchemaFile(File file) {
+        schemaFile = file;
     }
 
     private CassandraBackend() {}
@@ -87,42 +133,91 @@ public class CassandraBackend implements CassandraProxy {
     }
 
     public List<SSTableMetadata> getSSTableMetadata(String ksName, String cfName) {
+        return getSSTableMetadata(ksName, cfName, false);
+    }
+
+    public List<SSTableMetadata> getSSTableMetadata(String ksName, String cfName, boolean cardinality) {
         ColumnFamilyStore cfStore = getStore(ksName, cfName);
         Collection<SSTableReader> tables = cfStore.getLiveSSTables();
         List<SSTableMetadata> metaData = new ArrayList<>(tables.size());
         for (SSTableReader table : tables) {
-            SSTableMetadata tableMetadata = new SSTableMetadata();
-            File dataFile = table.descriptor.fileFor(SSTableFormat.Components.DATA).toJavaIOFile();
-            tableMetadata.filename = dataFile.getName();
-            tableMetadata.ssTableId = table.descriptor.id;
+            metaData.add(getSSTableMetadata(table, cardinality));
+        }
+        return metaData;
+    }
+
+    /**
+     * Get metadata about an sstable.
+     *
+     * @param table       SSTable.
+     * @param cardinality Load the partition key cardinality estimator from Statistics.db.
+     * @return SSTable metadata.
+     */
+    static SSTableMetadata getSSTableMetadata(SSTableReader table, boolean cardinality) {
+        SSTableMetadata tableMetadata = new SSTableMetadata();
+        File dataFile = table.descriptor.fileFor(SSTableFormat.Components.DATA).toJavaIOFile();
+        tableMetadata.filename = dataFile.getName();
+        tableMetadata.ssTableId = table.descriptor.id;
+        try {
+            tableMetadata.fileTimestamp = Files.getLastModifiedTime(dataFile.toPath()).toMillis();
+        } catch (IOException e) {
+            tableMetadata.fileTimestamp = 0;
+        }
+        tableMetadata.minTimestamp = table.getMinTimestamp();
+        tableMetadata.maxTimestamp = table.getMaxTimestamp();
+        tableMetadata.minLocalDeletionTime = table.getSSTableMetadata().minLocalDeletionTime;
+        tableMetadata.maxLocalDeletionTime = table.getSSTableMetadata().maxLocalDeletionTime;
+        tableMetadata.diskLength = table.onDiskLength();
+        tableMetadata.uncompressedLength = table.uncompressedLength();
+        tableMetadata.keys = table.estimatedKeys();
+        EstimatedHistogram rowSizeHistogram = table.getEstimatedPartitionSize();
+        tableMetadata.maxRowSize = rowSizeHistogram.max();
+        tableMetadata.avgRowSize = rowSizeHistogram.mean();
+        EstimatedHistogram columnCountHistogram = table.getSSTableMetadata().estimatedCellPerPartitionCount;
+        tableMetadata.maxColumnCount = columnCountHistogram.max();
+        tableMetadata.avgColumnCount = columnCountHistogram.mean();
+        tableMetadata.droppableTombstones = table.getDroppableTombstonesBefore(NOW_SECONDS - table.metadata().params.gcGraceSeconds);
+        tableMetadata.level = table.getSSTableLevel();
+        tableMetadata.isRepaired = table.isRepaired();
+        tableMetadata.repairedAt = table.getSSTableMetadata().repairedAt;
+        tableMetadata.dataDirectory = getDataDirectory(table.descriptor);
+        tableMetadata.firstToken = table.getFirst().getToken();
+        tableMetadata.lastToken = table.getLast().getToken();
+        if (cardinality) {
             try {
-                tableMetadata.fileTimestamp = Files.getLastModifiedTime(dataFile.toPath()).toMillis();
+                tableMetadata.cardinality = StatsComponent.load(table.descriptor, MetadataType.COMPACTION).compactionMetadata().cardinalityEstimator;
             } catch (IOException e) {
-                tableMetadata.fileTimestamp = 0;
+                System.err.printf("Error reading compaction metadata of %s: %s%n", tableMetadata.filename, e.getMessage());
             }
-            tableMetadata.minTimestamp = table.getMinTimestamp();
-            tableMetadata.maxTimestamp = table.getMaxTimestamp();
-            tableMetadata.minLocalDeletionTime = table.getSSTableMetadata().minLocalDeletionTime;
-            tableMetadata.maxLocalDeletionTime = table.getSSTableMetadata().maxLocalDeletionTime;
-            tableMetadata.diskLength = table.onDiskLength();
-            tableMetadata.uncompressedLength = table.uncompressedLength();
-            tableMetadata.keys = table.estimatedKeys();
-            EstimatedHistogram rowSizeHistogram = table.getEstimatedPartitionSize();
-            tableMetadata.maxRowSize = rowSizeHistogram.max();
-            tableMetadata.avgRowSize = rowSizeHistogram.mean();
-            EstimatedHistogram columnCountHistogram = table.getSSTableMetadata().estimatedCellPerPartitionCount;
-            tableMetadata.maxColumnCount = columnCountHistogram.max();
-            tableMetadata.avgColumnCount = columnCountHistogram.mean();
-            tableMetadata.droppableTombstones = table.getDroppableTombstonesBefore(NOW_SECONDS - table.metadata().params.gcGraceSeconds);
-            tableMetadata.level = table.getSSTableLevel();
-            tableMetadata.isRepaired = table.isRepaired();
-            tableMetadata.repairedAt = table.getSSTableMetadata().repairedAt;
-            metaData.add(tableMetadata);
         }
-        return metaData;
+        return tableMetadata;
+    }
+
+    /**
+     * Get the configured data directory an sstable is on.
+     *
+     * @param descriptor SSTable descriptor.
+     * @return Data file directory containing the sstable, or the sstable's own directory if not under any.
+     */
+    static String getDataDirectory(Descriptor descriptor) {
+        Path path = descriptor.directory.toJavaIOFile().toPath().toAbsolutePath().normalize();
+        String result = null;
+        int length = -1;
+        for (String location : DatabaseDescriptor.getAllDataFileLocations()) {
+            Path locationPath = Paths.get(location).toAbsolutePath().normalize();
+            if (path.startsWith(locationPath) && locationPath.getNameCount() > length) {
+                result = location;
+                length = locationPath.getNameCount();
+            }
+        }
+        return result != null ? result : path.toString();
     }
 
     public ColumnFamilyProxy getColumnFamily(String ksName, String cfName, String snapshotName, Collection<String> filter) {
+        return getColumnFamily(ksName, cfName, snapshotName, filter, false);
+    }
+
+    public ColumnFamilyProxy getColumnFamily(String ksName, String cfName, String snapshotName, Collection<String> filter, boolean noSnapshot) {
         ColumnFamilyStore cfStore = getStore(ksName, cfName);
         try {
             TableMetadata metaData = Schema.instance.getTableMetadata(ksName, cfName);
@@ -132,7 +227,8 @@ public class CassandraBackend implements CassandraProxy {
                     compactionClass.equals(TimeWindowCompactionStrategy.class),
                     cfStore,
                     snapshotName,
-                    filter);
+                    filter,
+                    noSnapshot);
         } catch (Throwable t) {
             System.err.printf("Error retrieving snapshot for %s.%s%n", ksName, cfName);
             System.exit(1);
@@ -153,4 +249,14 @@ public class CassandraBackend implements CassandraProxy {
 
         return null;
     }
+
+    @Override
+    public Map<String, String> getCompactionOptions(String ksName, String cfName) {
+        return getStore(ksName, cfName).metadata().params.compaction.options();
+    }
+
+    @Override
+    public int getGcGraceSeconds(String ksName, String cfName) {
+        return getStore(ksName, cfName).metadata().params.gcGraceSeconds;
+    }
 }
@@ -3,25 +3,29 @@ package com.instaclustr.sstabletools.cassandra;
 import com.instaclustr.sstabletools.*;
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.DecoratedKey;
-import org.apache.cassandra.db.SerializationHeader;
+import org.apache.cassandra.db.compaction.TimeWindowCompactionStrategy;
+import org.apache.cassandra.db.lifecycle.SSTableSet;
+import org.apache.cassandra.db.lifecycle.View;
 import org.apache.cassandra.db.marshal.AbstractType;
-import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.io.sstable.format.SSTableFormat;
 import org.apache.cassandra.io.sstable.format.big.BigFormat;
-import org.apache.cassandra.io.sstable.format.big.BigTableReader;
+import org.apache.cassandra.io.sstable.format.bti.BtiFormat;
+import org.apache.cassandra.io.sstable.format.bti.PartitionIndex;
 import org.apache.cassandra.io.util.FileHandle;
-import org.apache.cassandra.utils.FilterFactory;
+import org.apache.cassandra.schema.TableMetadata;
+import org.apache.cassandra.utils.concurrent.Refs;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
 import java.io.IOException;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Optional;
-import java.util.Set;
+import java.util.function.Predicate;
 
 /**
  * ColumnFamilyProxy using Cassandra 3.5 backend.
@@ -45,6 +49,11 @@ public class ColumnFamilyBackend implements ColumnFamilyProxy {
      */
     private ColumnFamilyStore cfStore;
 
+    /**
+     * Table metadata.
+     */
+    private TableMetadata metadata;
+
     /**
      * Snapshot name.
      */
@@ -60,28 +69,54 @@ public class ColumnFamilyBackend implements ColumnFamilyProxy {
      */
     private Collection<org.apache.cassandra.io.sstable.format.SSTableReader> sstables;
 
+    /**
+     * References held on the SSTables being read.
+     */
+    private Refs<org.apache.cassandra.io.sstable.format.SSTableReader> refs;
+
+    /**
+     * Decode full rows and cells when reading all partitions of Data.db files.
+     */
+    private boolean fullDecode = false;
+
+    /**
+     * Release the sstables on close, as they were opened offline.
+     */
+    private boolean releaseSSTables = false;
+
     public ColumnFamilyBackend(AbstractType<?> keyValidator,
                                boolean isTWCS,
                                ColumnFamilyStore cfStore,
                                String snapshotName,
-                               Collection<String> filter) throws IOException {
+                               Collection<String> filter,
+                               boolean noSnapshot) throws IOException {
         this.keyValidator = keyValidator;
         this.isTWCS = isTWCS;
         this.cfStore = cfStore;
+        this.metadata = cfStore.metadata();
+        Predicate<org.apache.cassandra.io.sstable.format.SSTableReader> selected = sstable -> filter == null || filter.contains(dataFileName(sstable));
+        if (snapshotName == null && noSnapshot) {
+            // Hold references on the live sstables so they are not deleted while being read.
+            this.clearSnapshot = false;
+            this.refs = cfStore.selectAndReference(View.select(SSTableSet.CANONICAL, selected::test)).refs;
+            this.sstables = new ArrayList<>(refs);
+            return;
+        }
         if (snapshotName != null) {
             this.clearSnapshot = false;
         } else {
+            // Only hard link the selected sstables.
             snapshotName = Util.generateSnapshotName();
-            cfStore.snapshotWithoutMemtable(snapshotName, null, true, null, null, Instant.now());
+            cfStore.snapshotWithoutMemtable(snapshotName, selected::test, true, null, null, Instant.now());
             this.clearSnapshot = true;
         }
         this.snapshotName = snapshotName;
-        this.sstables = cfStore.getSnapshotSSTableReaders(snapshotName);
+        this.refs = cfStore.getSnapshotSSTableReaders(snapshotName);
+        this.sstables = refs;
         if (filter != null) {
             List<org.apache.cassandra.io.sstable.format.SSTableReader> filteredSSTables = new ArrayList<>(sstables.size());
             for (org.apache.cassandra.io.sstable.format.SSTableReader sstable : sstables) {
-                File dataFile = sstable.descriptor.fileFor(SSTableFormat.Components.DATA).toJavaIOFile();;
-                if (filter.contains(dataFile.getName())) {
+                if (selected.test(sstable)) {
                     filteredSSTables.add(sstable);
                 }
             }
@@ -89,38 +124,67 @@ public class ColumnFamilyBackend implements ColumnFamilyProxy {
         }
     }
 
+    /**
+     * Constructor for sstables opened offline without a column family store. The sstables are released on close.
+     *
+     * @param metadata Table metadata.
+     * @param sstables SSTables to read.
+     */
+    public ColumnFamilyBackend(TableMetadata metadata, Collection<org.apache.cassandra.io.sstable.format.SSTableReader> sstables) {
+        this.keyValidator = metadata.partitionKeyType;
+        this.isTWCS = metadata.params.compaction.klass().equals(TimeWindowCompactionStrategy.class);
+        this.metadata = metadata;
+        this.sstables = sstables;
+        this.releaseSSTables = true;
+    }
+
+    /**
+     * Get the Data.db filename of an sstable.
+     *
+     * @param sstable SSTable.
+     * @return Filename of Data.db.
+     */
+    private static String dataFileName(org.apache.cassandra.io.sstable.format.SSTableReader sstable) {
+        return sstable.descriptor.fileFor(SSTableFormat.Components.DATA).toJavaIOFile().getName();
+    }
+
+    /**
+     * Construct a statistics record for an sstable.
+     *
+     * @param sstable SSTable.
+     * @param size    Length in bytes of the SSTable to be read.
+     * @return SSTable statistics.
+     */
+    private static SSTableStatistics statistics(org.apache.cassandra.io.sstable.format.SSTableReader sstable, long size) {
+        SSTableStatistics stats = new SSTableStatistics(
+                sstable.descriptor.id,
+                dataFileName(sstable),
+                size,
+                sstable.getMinTimestamp(),
+                sstable.getMaxTimestamp(),
+                sstable.getSSTableLevel());
+        stats.dataDirectory = CassandraBackend.getDataDirectory(sstable.descriptor);
+        return stats;
+    }
+
     @Override
     public Collection<SSTableReader> getIndexReaders() {
         Collection<SSTableReader> readers = new ArrayList<>(sstables.size());
         for (org.apache.cassandra.io.sstable.format.SSTableReader sstable : sstables) {
             try {
-                Set<Component> components = sstable.descriptor.discoverComponents();
-
-                Optional<Component> maybeIndexComponent = components.stream().filter(c -> c.name.contains("Index")).findFirst();
-                if (!maybeIndexComponent.isPresent()) {
+                if (BtiFormat.is(sstable.descriptor.version.format)) {
+                    readers.add(openTrieIndexReader(sstable));
                     continue;
                 }
 
-                org.apache.cassandra.io.util.File indexFile = sstable.descriptor.fileFor(maybeIndexComponent.get());
-                FileHandle indexHandle = new FileHandle.Builder(indexFile).complete();
-
-                BigTableReader reader = new BigTableReader.Builder(sstable.descriptor)
-                        .setComponents(components)
-                        .setFilter(FilterFactory.AlwaysPresent)
-                        .setSerializationHeader(SerializationHeader.makeWithoutStats(cfStore.metadata()))
-                        .setIndexFile(indexHandle)
-                        .build(this.cfStore, false, false);
+                org.apache.cassandra.io.util.File indexFile = sstable.descriptor.fileFor(BigFormat.Components.PRIMARY_INDEX);
+                if (!indexFile.exists()) {
+                    continue;
+                }
 
-                File dataFile = sstable.descriptor.fileFor(SSTableFormat.Components.DATA).toJavaIOFile();
                 readers.add(new IndexReader(
-                        new SSTableStatistics(
-                                sstable.descriptor.id,
-                                dataFile.getName(),
-                                sstable.uncompressedLength(),
-                                sstable.getMinTimestamp(),
-                                sstable.getMaxTimestamp(),
-                                sstable.getSSTableLevel()),
-                        reader.getIndexFile().createReader(),
+                        statistics(sstable, sstable.uncompressedLength()),
+                        indexFile.toPath(),
                         sstable.descriptor.version,
                         sstable.getPartitioner()
                 ));
@@ -131,22 +195,92 @@ public class ColumnFamilyBackend implements ColumnFamilyProxy {
         return readers;
     }
 
+    /**
+     * Open a reader over the Partitions.db trie of a BTI sstable.
+     *
+     * @param sstable BTI sstable.
+     * @return Reader for partition sizes.
+     * @throws IOException if the partition index could not be loaded.
+     */
+    private SSTableReader openTrieIndexReader(org.apache.cassandra.io.sstable.format.SSTableReader sstable) throws IOException {
+        PartitionIndex partitionIndex;
+        try (FileHandle partitionIndexFile = new FileHandle.Builder(sstable.descriptor.fileFor(BtiFormat.Components.PARTITION_INDEX)).mmapped(true).complete()) {
+            partitionIndex = PartitionIndex.load(partitionIndexFile, sstable.getPartitioner(), false);
+        }
+        return new TrieIndexReader(
+                statistics(sstable, sstable.uncompressedLength()),
+                partitionIndex,
+                new FileHandle.Builder(sstable.descriptor.fileFor(BtiFormat.Components.ROW_INDEX)).complete(),
+                sstable.openDataReader(),
+                sstable.getPartitioner()
+        );
+    }
+
+    @Override
+    public Collection<SSTableReader> getIndexReaders(Collection<Range<Token>> ranges) {
+        Collection<SSTableReader> readers = new ArrayList<>(sstables.size());
+        for (org.apache.cassandra.io.sstable.format.SSTableReader sstable : sstables) {
+            if (!IndexedScanner.intersects(sstable, ranges)) {
+                continue;
+            }
+            try {
+                readers.add(new RangeIndexReader(
+                        statistics(sstable, IndexedScanner.length(sstable, ranges)),
+                        new IndexedScanner(sstable, null, ranges)
+                ));
+            } catch (Throwable t) {
+                logger.error("Error opening range index readers", t);
+            }
+        }
+        return readers;
+    }
+
     @Override
     public Collection<SSTableReader> getDataReaders() {
+        return getDataReaders(sstables);
+    }
+
+    @Override
+    public Collection<SSTableReader> getDataReaders(PartitionSampler sampler, Collection<Range<Token>> ranges) {
+        return getDataReaders(sampler, ranges, sstables);
+    }
+
+    @Override
+    public Collection<SSTableReader> getDataReaders(PartitionSampler sampler, Collection<Range<Token>> ranges, int offset, int count) {
+        List<org.apache.cassandra.io.sstable.format.SSTableReader> slice = new ArrayList<>(sstables)
+                .subList(Math.min(offset, sstables.size()), Math.min(offset + count, sstables.size()));
+        return sampler != null || ranges != null ? getDataReaders(sampler, ranges, slice) : getDataReaders(slice);
+    }
+
+    @Override
+    public void setFullDecode(boolean fullDecode) {
+        this.fullDecode = fullDecode;
+    }
+
+    @Override
+    public int getSSTableCount() {
+        return sstables.size();
+    }
+
+    /**
+     * Get readers for Data.db files of SSTables.
+     *
+     * @param sstables SSTables to read.
+     * @return Collection of readers for SSTable Data.db files.
+     */
+    private Collection<SSTableReader> getDataReaders(Collection<org.apache.cassandra.io.sstable.format.SSTableReader> sstables) {
         Collection<SSTableReader> readers = new ArrayList<>(sstables.size());
         for (org.apache.cassandra.io.sstable.format.SSTableReader sstable : sstables) {
             try {
-                File dataFile = sstable.descriptor.fileFor(SSTableFormat.Components.DATA).toJavaIOFile();
+                int gcBefore = Util.NOW_SECONDS - sstable.metadata().params.gcGraceSeconds;
+                if (!fullDecode) {
+                    readers.add(new HeaderDataReader(statistics(sstable, sstable.uncompressedLength()), sstable, gcBefore));
+                    continue;
+                }
                 readers.add(new DataReader(
-                        new SSTableStatistics(
-                                sstable.descriptor.id,
-                                dataFile.getName(),
-                                sstable.uncompressedLength(),
-                                sstable.getMinTimestamp(),
-                                sstable.getMaxTimestamp(),
-                                sstable.getSSTableLevel()),
+                        statistics(sstable, sstable.uncompressedLength()),
                         sstable.getScanner(),
-                        Util.NOW_SECONDS - sstable.metadata().params.gcGraceSeconds
+                        gcBefore
                 ));
             } catch (Throwable t) {
                 logger.error("Error while getting data readers", t);
@@ -155,9 +289,86 @@ public class ColumnFamilyBackend implements ColumnFamilyProxy {
         return readers;
     }
 
+    /**
+     * Get readers for a selection of partitions in Data.db files of SSTables.
+     *
+     * @param sampler  Sampler to select partitions, or null to read all partitions.
+     * @param ranges   Token ranges to read, or null to read all token ranges.
+     * @param sstables SSTables to read.
+     * @return Collection of readers for SSTable Data.db files.
+     */
+    private Collection<SSTableReader> getDataReaders(PartitionSampler sampler, Collection<Range<Token>> ranges, Collection<org.apache.cassandra.io.sstable.format.SSTableReader> sstables) {
+        Collection<SSTableReader> readers = new ArrayList<>(sstables.size());
+        for (org.apache.cassandra.io.sstable.format.SSTableReader sstable : sstables) {
+            if (!IndexedScanner.intersects(sstable, ranges)) {
+                continue;
+            }
+            try {
+                int gcBefore = Util.NOW_SECONDS - sstable.metadata().params.gcGraceSeconds;
+                SSTableStatistics stats = statistics(sstable, IndexedScanner.length(sstable, ranges));
+                IndexedScanner scanner = new IndexedScanner(sstable, sampler, ranges);
+                if (!fullDecode) {
+                    readers.add(new HeaderDataReader(stats, scanner, gcBefore));
+                    continue;
+                }
+                readers.add(new IndexedDataReader(stats, scanner, gcBefore));
+            } catch (Throwable t) {
+                logger.error("Error while getting indexed data readers", t);
+            }
+        }
+        return readers;
+    }
+
+    @Override
+    public Collection<SSTableReader> getDataReaders(List<DecoratedKey> keys) {
+        Collection<SSTableReader> readers = new ArrayList<>(sstables.size());
+        for (org.apache.cassandra.io.sstable.format.SSTableReader sstable : sstables) {
+            try {
+                readers.add(new KeyDataReader(
+                        statistics(sstable, 0),
+                        sstable,
+                        keys,
+                        Util.NOW_SECONDS - sstable.metadata().params.gcGraceSeconds
+                ));
+            } catch (Throwable t) {
+                logger.error("Error while getting key data readers", t);
+            }
+        }
+        return readers;
+    }
+
     @Override
     public PurgeStatisticsReader getPurgeStatisticsReader() {
-        return new PurgeStatisticBackend(cfStore, sstables, cfStore.metadata().params.gcGraceSeconds);
+        return getPurgeStatisticsReader(null, null);
+    }
+
+    @Override
+    public PurgeStatisticsReader getPurgeStatisticsReader(PartitionSampler sampler, Collection<Range<Token>> ranges) {
+        return getPurgeStatisticsReader(sampler, ranges, getGcGraceSeconds(), null);
+    }
+
+    @Override
+    public PurgeStatisticsReader getPurgeStatisticsReader(PartitionSampler sampler, Collection<Range<Token>> ranges, int gcGrace, PurgeForecast forecast) {
+        try {
+            return new PurgeStatisticBackend(sstables, gcGrace, sampler, ranges, forecast);
+        } catch (IOException e) {
+            throw new RuntimeException("Error opening purge statistics reader", e);
+        }
+    }
+
+    @Override
+    public int getGcGraceSeconds() {
+        return metadata.params.gcGraceSeconds;
+    }
+
+    @Override
+    public IPartitioner getPartitioner() {
+        return metadata.partitioner;
+    }
+
+    @Override
+    public DecoratedKey parseKey(String key) {
+        return metadata.partitioner.decorateKey(keyValidator.fromString(key));
     }
 
     @Override
@@ -172,6 +383,16 @@ public class ColumnFamilyBackend implements ColumnFamilyProxy {
 
     @Override
     public void close() {
+        if (refs != null) {
+            refs.release();
+            refs = null;
+        }
+        if (releaseSSTables) {
+            for (org.apache.cassandra.io.sstable.format.SSTableReader sstable : sstables) {
+                sstable.selfRef().release();
+            }
+            releaseSSTables = false;
+        }
         if (clearSnapshot) {
             cfStore.clearSnapshot(snapshotName);
             clearSnapshot = false;
@@ -5,6 +5,8 @@ import com.instaclustr.sstabletools.PartitionStatistics;
 import com.instaclustr.sstabletools.SSTableStatistics;
 import org.apache.cassandra.db.LivenessInfo;
 import org.apache.cassandra.db.rows.Cell;
+import org.apache.cassandra.db.rows.ColumnData;
+import org.apache.cassandra.db.rows.RangeTombstoneMarker;
 import org.apache.cassandra.db.rows.Row;
 import org.apache.cassandra.db.rows.Unfiltered;
 import org.apache.cassandra.db.rows.UnfilteredRowIterator;
@@ -43,6 +45,16 @@ public class DataReader extends AbstractSSTableReader {
         this.position = 0;
     }
 
+    /**
+     * Construct a reader for subclasses that supply partitions themselves.
+     *
+     * @param tableStats SSTable statistics.
+     * @param gcGrace    gc_grace of table
+     */
+    protected DataReader(SSTableStatistics tableStats, int gcGrace) {
+        this(tableStats, null, gcGrace);
+    }
+
     public boolean next() {
         if (!scanner.hasNext()) {
             scanner.close();
@@ -51,20 +63,44 @@ public class DataReader extends AbstractSSTableReader {
         UnfilteredRowIterator partition = scanner.next();
         this.partitionStats = new PartitionStatistics(partition.partitionKey());
         this.tableStats.partitionCount++;
+        collect(partition);
+        long currentPosition = scanner.getCurrentPosition();
+        this.partitionStats.size = currentPosition - position;
+        position = currentPosition;
+        this.tableStats.maxPartitionSize = Math.max(this.partitionStats.size, this.tableStats.maxPartitionSize);
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if (scanner != null) {
+            scanner.close();
+        }
+    }
+
+    /**
+     * Collect cell statistics of a partition into the current partition statistics and SSTable statistics.
+     *
+     * @param partition Partition to collect statistics on.
+     */
+    protected void collect(UnfilteredRowIterator partition) {
         if (!partition.staticRow().isEmpty()) {
             Row row = partition.staticRow();
+            timestamps(row);
             int cellCount = row.columns().size() + row.clustering().size();
             this.partitionStats.cellCount += cellCount;
             this.tableStats.cellCount += cellCount;
         }
         if (!partition.partitionLevelDeletion().isLive()) {
             this.tableStats.partitionDeleteCount++;
+            this.partitionStats.timestamp(partition.partitionLevelDeletion().markedForDeleteAt());
         }
         while (partition.hasNext()) {
             Unfiltered unfiltered = partition.next();
             switch (unfiltered.kind()) {
                 case ROW:
                     Row row = (Row) unfiltered;
+                    timestamps(row);
                     this.partitionStats.rowCount++;
                     this.tableStats.rowCount++;
                     if (!row.deletion().isLive()) {
@@ -109,16 +145,31 @@ public class DataReader extends AbstractSSTableReader {
                     }
                     break;
                 case RANGE_TOMBSTONE_MARKER:
+                    RangeTombstoneMarker marker = (RangeTombstoneMarker) unfiltered;
+                    if (marker.isOpen(false)) {
+                        this.partitionStats.timestamp(marker.openDeletionTime(false).markedForDeleteAt());
+                    }
+                    if (marker.isClose(false)) {
+                        this.partitionStats.timestamp(marker.closeDeletionTime(false).markedForDeleteAt());
+                    }
                     this.partitionStats.tombstoneCount++;
                     this.tableStats.tombstoneCount++;
                     this.tableStats.rangeTombstoneCount++;
                     break;
             }
         }
-        long currentPosition = scanner.getCurrentPosition();
-        this.partitionStats.size = currentPosition - position;
-        position = currentPosition;
-        this.tableStats.maxPartitionSize = Math.max(this.partitionStats.size, this.tableStats.maxPartitionSize);
-        return true;
+    }
+
+    /**
+     * Record the timestamps of a row, its deletion and its cells into the current partition statistics.
+     *
+     * @param row Row to record timestamps of.
+     */
+    private void timestamps(Row row) {
+        this.partitionStats.timestamp(row.primaryKeyLivenessInfo().timestamp());
+        this.partitionStats.timestamp(row.deletion().time().markedForDeleteAt());
+        for (ColumnData data : row) {
+            this.partitionStats.timestamp(data.maxTimestamp());
+        }
     }
 }
@@ -0,0 +1,397 @@
+package com.instaclustr.sstabletools.cassandra;
+
+import com.instaclustr.sstabletools.AbstractSSTableReader;
+import com.instaclustr.sstabletools.PartitionStatistics;
+import com.instaclustr.sstabletools.SSTableStatistics;
+import org.apache.cassandra.db.Clustering;
+import org.apache.cassandra.db.ClusteringBoundOrBoundary;
+import org.apache.cassandra.db.ClusteringPrefix;
+import org.apache.cassandra.db.Columns;
+import org.apache.cassandra.db.DeletionTime;
+import org.apache.cassandra.db.LivenessInfo;
+import org.apache.cassandra.db.SerializationHeader;
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.rows.Cell;
+import org.apache.cassandra.db.rows.UnfilteredSerializer;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.io.util.RandomAccessReader;
+import org.apache.cassandra.schema.ColumnMetadata;
+import org.apache.cassandra.schema.DroppedColumn;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SSTable Data.db reader that only decodes the headers of rows and cells.
+ * <p>
+ * Rows and cells are walked in their serialized form, reading flags, timestamps, TTLs and deletion times while
+ * skipping clustering and cell values by length, so no Row or Cell objects are built. The statistics collected
+ * are the same as those of {@link DataReader}.
+ * <p>
+ * Given an index driven scanner, only the partitions it selects are read by seeking to them, and SSTable statistics
+ * are extrapolated from them once the scan ends, as {@link IndexedDataReader} does.
+ */
+public class HeaderDataReader extends AbstractSSTableReader {
+    /*
+     * Unfiltered flags, see UnfilteredSerializer.
+     */
+    private static final int END_OF_PARTITION = 0x01;
+    private static final int IS_MARKER = 0x02;
+    private static final int HAS_TIMESTAMP = 0x04;
+    private static final int HAS_TTL = 0x08;
+    private static final int HAS_DELETION = 0x10;
+    private static final int HAS_ALL_COLUMNS = 0x20;
+    private static final int HAS_COMPLEX_DELETION = 0x40;
+
+    /*
+     * Cell flags, see Cell.Serializer.
+     */
+    private static final int IS_DELETED_MASK = 0x01;
+    private static final int IS_EXPIRING_MASK = 0x02;
+    private static final int HAS_EMPTY_VALUE_MASK = 0x04;
+    private static final int USE_ROW_TIMESTAMP_MASK = 0x08;
+    private static final int USE_ROW_TTL_MASK = 0x10;
+
+    /**
+     * SSTable being read.
+     */
+    private final SSTableReader sstable;
+
+    /**
+     * Serialization header of the SSTable.
+     */
+    private final SerializationHeader header;
+
+    /**
+     * Clustering types of the SSTable.
+     */
+    private final List<AbstractType<?>> clusteringTypes;
+
+    /**
+     * Messaging version of the SSTable format.
+     */
+    private final int version;
+
+    /**
+     * Serializer of partition deletion times.
+     */
+    private final DeletionTime.Serializer deletionTimeSerializer;
+
+    /**
+     * Columns dropped from the table, whose cells are ignored.
+     */
+    private final Map<ByteBuffer, DroppedColumn> droppedColumns;
+
+    /**
+     * Epoch time when tombstones can be dropped.
+     */
+    private final long gcBefore;
+
+    /**
+     * Reader for Data.db file, opened on the first partition.
+     */
+    private RandomAccessReader dfile;
+
+    /**
+     * Flag to determine that the Data.db file has been read or the reader closed.
+     */
+    private boolean completed = false;
+
+    /**
+     * Index driven scanner of selected partitions, or null to read every partition in turn.
+     */
+    private final IndexedScanner scanner;
+
+    /**
+     * Number of partitions selected by the scanner.
+     */
+    private long sampledCount = 0;
+
+    /**
+     * Construct a reader for Data.db sstable file.
+     *
+     * @param tableStats SSTable statistics.
+     * @param sstable    SSTable to read.
+     * @param gcBefore   Epoch time when tombstones can be dropped.
+     */
+    public HeaderDataReader(SSTableStatistics tableStats, SSTableReader sstable, long gcBefore) {
+        this(tableStats, sstable, null, gcBefore);
+    }
+
+    /**
+     * Construct a reader for selected partitions in a Data.db sstable file.
+     *
+     * @param tableStats SSTable statistics.
+     * @param scanner    Index driven scanner of selected partitions.
+     * @param gcBefore   Epoch time when tombstones can be dropped.
+     */
+    public HeaderDataReader(SSTableStatistics tableStats, IndexedScanner scanner, long gcBefore) {
+        this(tableStats, scanner.getSSTable(), scanner, gcBefore);
+    }
+
+    private HeaderDataReader(SSTableStatistics tableStats, SSTableReader sstable, IndexedScanner scanner, long gcBefore) {
+        this.tableStats = tableStats;
+        this.scanner = scanner;
+        this.sstable = sstable;
+        this.header = sstable.header;
+        this.clusteringTypes = header.clusteringTypes();
+        this.version = sstable.descriptor.version.correspondingMessagingVersion();
+        this.deletionTimeSerializer = DeletionTime.getSerializer(sstable.descriptor.version);
+        this.droppedColumns = sstable.metadata().droppedColumns;
+        this.gcBefore = gcBefore;
+    }
+
+    @Override
+    public boolean next() {
+        if (completed) {
+            return false;
+        }
+        if (scanner != null) {
+            return nextSelected();
+        }
+        try {
+            if (dfile == null) {
+                dfile = sstable.openDataReader();
+            }
+            if (dfile.isEOF()) {
+                close();
+                return false;
+            }
+            long position = dfile.getFilePointer();
+            this.partitionStats = new PartitionStatistics(sstable.decorateKey(ByteBufferUtil.readWithShortLength(dfile)));
+            this.tableStats.partitionCount++;
+            readPartition();
+            this.partitionStats.size = dfile.getFilePointer() - position;
+            this.tableStats.maxPartitionSize = Math.max(this.partitionStats.size, this.tableStats.maxPartitionSize);
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading " + tableStats.filename, e);
+        }
+    }
+
+    /**
+     * Seek to the next partition selected by the scanner and walk it.
+     */
+    private boolean nextSelected() {
+        try {
+            if (!scanner.advance()) {
+                close();
+                return false;
+            }
+            dfile = scanner.getDataFile();
+            dfile.seek(scanner.getPosition());
+            ByteBufferUtil.skipShortLength(dfile);
+            this.partitionStats = new PartitionStatistics(scanner.getKey());
+            readPartition();
+            this.partitionStats.size = scanner.getSize();
+            sampledCount++;
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading " + tableStats.filename, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (completed) {
+            return;
+        }
+        completed = true;
+        if (scanner == null) {
+            FileUtils.closeQuietly(dfile);
+            return;
+        }
+        scanner.close();
+        this.tableStats.extrapolate(sampledCount, scanner.getKeyCount());
+        this.tableStats.maxPartitionSize = Math.max(scanner.getMaxSize(), this.tableStats.maxPartitionSize);
+    }
+
+    /**
+     * Walk the partition after its key.
+     */
+    private void readPartition() throws IOException {
+        DeletionTime partitionDeletion = deletionTimeSerializer.deserialize(dfile);
+        if (!partitionDeletion.isLive()) {
+            this.tableStats.partitionDeleteCount++;
+            this.partitionStats.timestamp(partitionDeletion.markedForDeleteAt());
+        }
+        if (header.hasStatic()) {
+            int flags = dfile.readUnsignedByte();
+            UnfilteredSerializer.readExtendedFlags(dfile, flags);
+            readRow(flags, true);
+        }
+        while (true) {
+            int flags = dfile.readUnsignedByte();
+            if ((flags & END_OF_PARTITION) != 0) {
+                return;
+            }
+            UnfilteredSerializer.readExtendedFlags(dfile, flags);
+            if ((flags & IS_MARKER) != 0) {
+                ClusteringPrefix.Kind kind = ClusteringPrefix.Kind.values()[dfile.readByte()];
+                ClusteringBoundOrBoundary.serializer.skipValues(dfile, kind, version, clusteringTypes);
+                dfile.readUnsignedVInt(); // marker size
+                dfile.readUnsignedVInt(); // previous unfiltered size
+                this.partitionStats.timestamp(header.readDeletionTime(dfile).markedForDeleteAt());
+                if (kind.isBoundary()) {
+                    this.partitionStats.timestamp(header.readDeletionTime(dfile).markedForDeleteAt());
+                }
+                this.partitionStats.tombstoneCount++;
+                this.tableStats.tombstoneCount++;
+                this.tableStats.rangeTombstoneCount++;
+            } else {
+                Clustering.serializer.skip(dfile, version, clusteringTypes);
+                readRow(flags, false);
+            }
+        }
+    }
+
+    /**
+     * Walk the body of a row, after its flags and clustering.
+     */
+    private void readRow(int flags, boolean isStatic) throws IOException {
+        long rowSize = dfile.readUnsignedVInt();
+        long end = dfile.getFilePointer() + rowSize;
+        dfile.readUnsignedVInt(); // previous unfiltered size
+
+        boolean hasTimestamp = (flags & HAS_TIMESTAMP) != 0;
+        boolean hasDeletion = (flags & HAS_DELETION) != 0;
+        boolean hasComplexDeletion = (flags & HAS_COMPLEX_DELETION) != 0;
+        long rowTimestamp = LivenessInfo.NO_TIMESTAMP;
+        int rowTTL = LivenessInfo.NO_TTL;
+        long rowLocalExpirationTime = LivenessInfo.NO_EXPIRATION_TIME;
+        if (hasTimestamp) {
+            rowTimestamp = header.readTimestamp(dfile);
+            this.partitionStats.timestamp(rowTimestamp);
+            if ((flags & HAS_TTL) != 0) {
+                rowTTL = header.readTTL(dfile);
+                rowLocalExpirationTime = header.readLocalDeletionTime(dfile);
+            }
+        }
+        if (hasDeletion) {
+            this.partitionStats.timestamp(header.readDeletionTime(dfile).markedForDeleteAt());
+        }
+        Columns headerColumns = header.columns(isStatic);
+        Columns columns = (flags & HAS_ALL_COLUMNS) != 0 ? headerColumns : Columns.serializer.deserializeSubset(headerColumns, dfile);
+
+        if (!isStatic && hasTimestamp) {
+            this.partitionStats.ttl(rowTTL != LivenessInfo.NO_TTL ? rowTTL : PartitionStatistics.NO_TTL);
+        }
+
+        long cellCount = 0;
+        int columnCount = 0;
+        for (ColumnMetadata column : columns) {
+            DroppedColumn dropped = droppedColumns.get(column.name.bytes);
+            boolean present = false;
+            if (column.isSimple()) {
+                int cells = readCell(column, dropped, isStatic, hasTimestamp, rowTimestamp, rowTTL, rowLocalExpirationTime);
+                cellCount += cells;
+                present = cells > 0;
+            } else {
+                if (hasComplexDeletion) {
+                    DeletionTime complexDeletion = header.readDeletionTime(dfile);
+                    present = !complexDeletion.isLive() && (dropped == null || complexDeletion.markedForDeleteAt() > dropped.droppedTime);
+                    if (present) {
+                        this.partitionStats.timestamp(complexDeletion.markedForDeleteAt());
+                    }
+                }
+                int count = dfile.readUnsignedVInt32();
+                while (--count >= 0) {
+                    int cells = readCell(column, dropped, isStatic, hasTimestamp, rowTimestamp, rowTTL, rowLocalExpirationTime);
+                    cellCount += cells;
+                    present |= cells > 0;
+                }
+            }
+            if (present) {
+                columnCount++;
+            }
+        }
+        dfile.seek(end);
+
+        if (isStatic) {
+            // As with DataReader, static rows count each of their columns as a cell.
+            if (hasTimestamp || hasDeletion || columnCount > 0) {
+                this.partitionStats.cellCount += columnCount;
+                this.tableStats.cellCount += columnCount;
+            }
+            return;
+        }
+        if (hasTimestamp || hasDeletion || columnCount > 0) {
+            this.partitionStats.rowCount++;
+            this.tableStats.rowCount++;
+            if (hasDeletion) {
+                this.partitionStats.rowDeleteCount++;
+                this.tableStats.rowDeleteCount++;
+            }
+        }
+    }
+
+    /**
+     * Walk a cell, skipping its path and value.
+     *
+     * @return 1 if the cell was counted, 0 if it belongs to a dropped column.
+     */
+    private int readCell(ColumnMetadata column,
+                         DroppedColumn dropped,
+                         boolean isStatic,
+                         boolean rowHasTimestamp,
+                         long rowTimestamp,
+                         int rowTTL,
+                         long rowLocalExpirationTime) throws IOException {
+        int flags = dfile.readUnsignedByte();
+        boolean hasValue = (flags & HAS_EMPTY_VALUE_MASK) == 0;
+        boolean isDeleted = (flags & IS_DELETED_MASK) != 0;
+        boolean isExpiring = (flags & IS_EXPIRING_MASK) != 0;
+        boolean useRowTimestamp = (flags & USE_ROW_TIMESTAMP_MASK) != 0;
+        boolean useRowTTL = (flags & USE_ROW_TTL_MASK) != 0;
+
+        long timestamp = useRowTimestamp ? rowTimestamp : header.readTimestamp(dfile);
+        long localDeletionTime = useRowTTL
+                ? rowLocalExpirationTime
+                : (isDeleted || isExpiring ? header.readLocalDeletionTime(dfile) : Cell.NO_DELETION_TIME);
+        int ttl = useRowTTL ? rowTTL : (isExpiring ? header.readTTL(dfile) : Cell.NO_TTL);
+        if (column.isComplex()) {
+            column.cellPathSerializer().skip(dfile);
+        }
+        if (hasValue) {
+            header.getType(column).skipValue(dfile);
+        }
+
+        if (dropped != null && timestamp <= dropped.droppedTime) {
+            return 0;
+        }
+        this.partitionStats.timestamp(timestamp);
+        if (isStatic) {
+            return 1;
+        }
+
+        this.partitionStats.cellCount++;
+        this.tableStats.cellCount++;
+        boolean tombstone = localDeletionTime != Cell.NO_DELETION_TIME && ttl == Cell.NO_TTL;
+        boolean expiring = ttl != Cell.NO_TTL;
+        // Same as Cell.isLive(gcBefore).
+        boolean live = localDeletionTime == Cell.NO_DELETION_TIME || (expiring && gcBefore < localDeletionTime);
+        if (live) {
+            this.tableStats.liveCellCount++;
+        }
+        if (!rowHasTimestamp || ttl != rowTTL) {
+            this.partitionStats.ttl(expiring ? ttl : PartitionStatistics.NO_TTL);
+        }
+        if (tombstone) {
+            this.partitionStats.tombstoneCount++;
+            this.tableStats.tombstoneCount++;
+            if (!live) {
+                this.partitionStats.droppableTombstoneCount++;
+                this.tableStats.droppableTombstoneCount++;
+            }
+        } else if (expiring) {
+            this.tableStats.expiringCellCount++;
+        } else if (column.isCounterColumn()) {
+            this.tableStats.counterCellCount++;
+        }
+        return 1;
+    }
+}
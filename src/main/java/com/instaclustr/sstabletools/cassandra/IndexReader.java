@@ -2,28 +2,69 @@ package com.instaclustr.sstabletools.cassandra;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 import com.instaclustr.sstabletools.AbstractSSTableReader;
 import com.instaclustr.sstabletools.PartitionStatistics;
 import com.instaclustr.sstabletools.SSTableStatistics;
 import org.apache.cassandra.dht.IPartitioner;
 import org.apache.cassandra.io.sstable.format.Version;
-import org.apache.cassandra.io.util.RandomAccessReader;
-import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.utils.vint.VIntCoding;
 
 /**
  * SSTable Index.db reader.
+ * <p>
+ * Index.db is memory mapped a window at a time and entries are decoded in place. Partition keys are slices of the
+ * mapped window and the promoted index of each entry is skipped without being read.
  */
 public class IndexReader extends AbstractSSTableReader {
     /**
-     * Index.db reader.
+     * Size in bytes of the window of Index.db mapped at a time.
      */
-    private RandomAccessReader reader;
+    private static final long WINDOW_SIZE = 256L * 1024 * 1024;
 
     /**
-     * SSTable version.
+     * Path to Index.db file.
      */
-    private Version version;
+    private Path indexPath;
+
+    /**
+     * Index.db channel, opened on first read.
+     */
+    private FileChannel channel;
+
+    /**
+     * Length of Index.db file.
+     */
+    private long length;
+
+    /**
+     * Mapped window of Index.db.
+     */
+    private ByteBuffer window;
+
+    /**
+     * Position in Index.db of the start of the mapped window.
+     */
+    private long windowStart;
+
+    /**
+     * Position in Index.db of the next entry.
+     */
+    private long offset = 0;
+
+    /**
+     * Is the Data.db position of an entry encoded as a vint.
+     */
+    private boolean vintPosition;
+
+    /**
+     * Is the promoted index size of an entry encoded as a vint.
+     */
+    private boolean vintPromotedIndexSize;
 
     /**
      * The sstable partitioner.
@@ -49,28 +90,104 @@ public class IndexReader extends AbstractSSTableReader {
      * Construct a reader for Index.db sstable file.
      *
      * @param tableStats  SSTable statistics.
-     * @param reader      Reader to Index.db file.
+     * @param indexPath   Path to Index.db file.
      * @param version     Version of SSTable
      * @param partitioner The sstable partitioner.
      */
-    public IndexReader(SSTableStatistics tableStats, RandomAccessReader reader, Version version, IPartitioner partitioner) {
+    public IndexReader(SSTableStatistics tableStats, Path indexPath, Version version, IPartitioner partitioner) {
         this.tableStats = tableStats;
-        this.reader = reader;
-        this.version = version;
+        this.indexPath = indexPath;
+        this.vintPosition = version.version.compareTo("ma") > 0;
+        this.vintPromotedIndexSize = version.version.compareTo("ma") >= 0;
         this.nextKey = null;
         this.partitioner = partitioner;
     }
 
     /**
-     * Skip data field on index entry.
+     * Map the window of Index.db starting at a position.
+     *
+     * @param position Position in Index.db.
+     * @throws IOException
+     */
+    private void map(long position) throws IOException {
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, length - position));
+    }
+
+    /**
+     * Read the next index entry.
      *
+     * @return True if an entry was read, false if the end of Index.db was reached.
      * @throws IOException
      */
-    private void skipData() throws IOException {
-        int size = version.version.compareTo("ma") >= 0 ? (int) reader.readUnsignedVInt() : reader.readInt();
-        if (size > 0) {
-            reader.skipBytesFully(size);
+    private boolean readEntry() throws IOException {
+        if (offset >= length) {
+            return false;
+        }
+        if (!decodeEntry()) {
+            // Entry straddles the end of the window.
+            map(offset);
+            if (!decodeEntry()) {
+                throw new IOException("Truncated index entry at " + offset + " in " + indexPath);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decode the entry at the current offset from the mapped window.
+     *
+     * @return True if decoded, false if the entry is not wholly within the window.
+     */
+    private boolean decodeEntry() {
+        int limit = window.limit();
+        if (offset - windowStart + 2 > limit) {
+            return false;
+        }
+        int p = (int) (offset - windowStart);
+        int keyLength = window.getShort(p) & 0xFFFF;
+        p += 2;
+        if (p + keyLength > limit) {
+            return false;
+        }
+        ByteBuffer key = window.duplicate();
+        key.position(p).limit(p + keyLength);
+        p += keyLength;
+
+        long position;
+        if (vintPosition) {
+            if (p >= limit || p + VIntCoding.computeUnsignedVIntSize(window, p) > limit) {
+                return false;
+            }
+            position = VIntCoding.getUnsignedVInt(window, p);
+            p += VIntCoding.computeUnsignedVIntSize(position);
+        } else {
+            if (p + 8 > limit) {
+                return false;
+            }
+            position = window.getLong(p);
+            p += 8;
+        }
+
+        long promotedIndexSize;
+        if (vintPromotedIndexSize) {
+            if (p >= limit || p + VIntCoding.computeUnsignedVIntSize(window, p) > limit) {
+                return false;
+            }
+            promotedIndexSize = VIntCoding.getUnsignedVInt(window, p);
+            p += VIntCoding.computeUnsignedVIntSize(promotedIndexSize);
+        } else {
+            if (p + 4 > limit) {
+                return false;
+            }
+            promotedIndexSize = window.getInt(p);
+            p += 4;
         }
+
+        nextKey = key.slice();
+        nextPosition = position;
+        offset = windowStart + p + promotedIndexSize;
+        return true;
     }
 
     @Override
@@ -79,36 +196,37 @@ public class IndexReader extends AbstractSSTableReader {
             return false;
         }
         try {
-            if (nextKey == null) {
-                nextKey = ByteBufferUtil.readWithShortLength(reader);
-                nextPosition = version.version.compareTo("ma") > 0 ? reader.readUnsignedVInt() : reader.readLong();
-                skipData();
+            if (channel == null) {
+                channel = FileChannel.open(indexPath, StandardOpenOption.READ);
+                length = channel.size();
+                map(0);
+            }
+            if (nextKey == null && !readEntry()) {
+                close();
+                return false;
             }
             partitionStats = new PartitionStatistics(partitioner.decorateKey(nextKey));
             long position = nextPosition;
-            if (!reader.isEOF()) {
-                nextKey = ByteBufferUtil.readWithShortLength(reader);
-                nextPosition = version.version.compareTo("ma") > 0 ? reader.readUnsignedVInt() : reader.readLong();
-                skipData();
+            if (readEntry()) {
                 partitionStats.size = nextPosition - position;
             } else {
                 partitionStats.size = this.tableStats.size - position;
-                reader.close();
-                completed = true;
+                close();
             }
             this.tableStats.partitionCount++;
             this.tableStats.maxPartitionSize = Math.max(partitionStats.size, this.tableStats.maxPartitionSize);
             return true;
         } catch (IOException e) {
             e.printStackTrace();
-            if (!completed) {
-                try {
-                    reader.close();
-                } catch (Throwable t) {
-                }
-            }
-            completed = true;
+            close();
             return false;
         }
     }
+
+    @Override
+    public void close() {
+        // Mapped windows are left to be unmapped by the garbage collector as partition keys reference them.
+        FileUtils.closeQuietly(channel);
+        completed = true;
+    }
 }
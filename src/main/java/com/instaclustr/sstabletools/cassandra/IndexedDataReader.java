@@ -0,0 +1,81 @@
+package com.instaclustr.sstabletools.cassandra;
+
+import com.instaclustr.sstabletools.PartitionStatistics;
+import com.instaclustr.sstabletools.SSTableStatistics;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+
+import java.io.IOException;
+
+/**
+ * SSTable Data.db reader driven by the partition index.
+ * <p>
+ * The partition index is used to seek to the partitions that are sampled and within the token ranges being read.
+ * SSTable statistics are extrapolated from the sample once the SSTable has been read.
+ */
+public class IndexedDataReader extends DataReader {
+    /**
+     * Index driven scanner of selected partitions.
+     */
+    private IndexedScanner scanner;
+
+    /**
+     * Number of partitions sampled.
+     */
+    private long sampledCount = 0;
+
+    /**
+     * Flag to determine that the SSTable statistics have been finished.
+     */
+    private boolean finished = false;
+
+    /**
+     * Construct a reader for selected partitions in a Data.db sstable file.
+     *
+     * @param tableStats SSTable statistics.
+     * @param scanner    Index driven scanner of selected partitions.
+     * @param gcGrace    gc_grace of table
+     */
+    public IndexedDataReader(SSTableStatistics tableStats, IndexedScanner scanner, int gcGrace) {
+        super(tableStats, gcGrace);
+        this.scanner = scanner;
+    }
+
+    @Override
+    public boolean next() {
+        try {
+            if (!scanner.advance()) {
+                finish();
+                return false;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            finish();
+            return false;
+        }
+        this.partitionStats = new PartitionStatistics(scanner.getKey());
+        try (UnfilteredRowIterator partition = scanner.partition()) {
+            collect(partition);
+        }
+        this.partitionStats.size = scanner.getSize();
+        sampledCount++;
+        return true;
+    }
+
+    @Override
+    public void close() {
+        finish();
+    }
+
+    /**
+     * Close the scanner and extrapolate the statistics of the sampled partitions to the partitions visited.
+     */
+    private void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        scanner.close();
+        this.tableStats.extrapolate(sampledCount, scanner.getKeyCount());
+        this.tableStats.maxPartitionSize = Math.max(scanner.getMaxSize(), this.tableStats.maxPartitionSize);
+    }
+}
@@ -0,0 +1,281 @@
+package com.instaclustr.sstabletools.cassandra;
+
+import com.instaclustr.sstabletools.PartitionSampler;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.PartitionPosition;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.dht.Bounds;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.KeyReader;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.io.sstable.format.big.BigTableKeyReader;
+import org.apache.cassandra.io.sstable.format.big.BigTableReader;
+import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.io.util.RandomAccessReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * Scans partitions of an SSTable driven by its partition index.
+ * <p>
+ * The index gives the extent of every partition in Data.db, so partitions can be skipped without being decoded and
+ * their size is known without reading them. The scan can be restricted to token ranges, in which case the index is
+ * seeked to the start of each range.
+ */
+public class IndexedScanner implements Closeable {
+    /**
+     * SSTable being scanned.
+     */
+    private final SSTableReader sstable;
+
+    /**
+     * Reader for partition index.
+     */
+    private final KeyReader keyReader;
+
+    /**
+     * Reader for Data.db file.
+     */
+    private final RandomAccessReader dfile;
+
+    /**
+     * Sampler to select partitions, or null to select all.
+     */
+    private final PartitionSampler sampler;
+
+    /**
+     * Remaining token ranges to scan, or null to scan the whole SSTable.
+     */
+    private final Iterator<Range<Token>> rangeIterator;
+
+    /**
+     * Token range currently being scanned.
+     */
+    private Range<Token> range;
+
+    /**
+     * The current partition key.
+     */
+    private DecoratedKey key;
+
+    /**
+     * Position of the current partition in Data.db.
+     */
+    private long position;
+
+    /**
+     * Size in bytes of the current partition.
+     */
+    private long size;
+
+    /**
+     * Bytes of Data.db covered by partitions visited so far, including skipped partitions.
+     */
+    private long scannedBytes = 0;
+
+    /**
+     * Number of partitions visited in the index, including skipped partitions.
+     */
+    private long keyCount = 0;
+
+    /**
+     * Maximum size in bytes of partitions visited, including skipped partitions.
+     */
+    private long maxSize = 0;
+
+    /**
+     * Construct scanner over SSTable.
+     *
+     * @param sstable SSTable to scan.
+     * @param sampler Sampler to select partitions, or null to select all.
+     * @throws IOException if index could not be opened.
+     */
+    public IndexedScanner(SSTableReader sstable, PartitionSampler sampler) throws IOException {
+        this(sstable, sampler, null);
+    }
+
+    /**
+     * Construct scanner over token ranges of SSTable.
+     *
+     * @param sstable SSTable to scan.
+     * @param sampler Sampler to select partitions, or null to select all.
+     * @param ranges  Token ranges to scan, or null to scan the whole SSTable.
+     * @throws IOException if index could not be opened.
+     */
+    public IndexedScanner(SSTableReader sstable, PartitionSampler sampler, Collection<Range<Token>> ranges) throws IOException {
+        this.sstable = sstable;
+        this.sampler = sampler;
+        this.keyReader = sstable.keyReader();
+        this.dfile = sstable.openDataReader();
+        if (ranges != null) {
+            this.rangeIterator = Range.normalize(ranges).iterator();
+            nextRange();
+        } else {
+            this.rangeIterator = null;
+        }
+    }
+
+    /**
+     * Get the length in bytes of Data.db covered by token ranges.
+     *
+     * @param sstable SSTable to measure.
+     * @param ranges  Token ranges, or null for the whole SSTable.
+     * @return Uncompressed length in bytes.
+     */
+    public static long length(SSTableReader sstable, Collection<Range<Token>> ranges) {
+        if (ranges == null) {
+            return sstable.uncompressedLength();
+        }
+        long length = 0;
+        for (SSTableReader.PartitionPositionBounds bounds : sstable.getPositionsForRanges(ranges)) {
+            length += bounds.upperPosition - bounds.lowerPosition;
+        }
+        return length;
+    }
+
+    /**
+     * Does the SSTable contain partitions in any of the token ranges.
+     * <p>
+     * An SSTable spanning a range may have no partition in it, so the index is checked once the bounds intersect.
+     *
+     * @param sstable SSTable to check.
+     * @param ranges  Token ranges, or null for all token ranges.
+     * @return True if the SSTable contains partitions in the token ranges.
+     */
+    public static boolean intersects(SSTableReader sstable, Collection<Range<Token>> ranges) {
+        if (ranges == null) {
+            return true;
+        }
+        return new Bounds<>(sstable.getFirst().getToken(), sstable.getLast().getToken()).intersects(ranges)
+                && !sstable.getPositionsForRanges(ranges).isEmpty();
+    }
+
+    /**
+     * Move to the next selected partition.
+     *
+     * @return True if positioned on a partition, false if the SSTable is exhausted.
+     * @throws IOException if the index could not be read.
+     */
+    public boolean advance() throws IOException {
+        while (!keyReader.isExhausted()) {
+            ByteBuffer nextKey = keyReader.key();
+            DecoratedKey decoratedKey = null;
+            if (rangeIterator != null) {
+                if (range == null) {
+                    break;
+                }
+                decoratedKey = sstable.decorateKey(nextKey);
+                Token token = decoratedKey.getToken();
+                if (token.compareTo(range.left) <= 0) {
+                    // Before start of range.
+                    keyReader.advance();
+                    continue;
+                }
+                if (!range.right.isMinimum() && token.compareTo(range.right) > 0) {
+                    // Beyond end of range.
+                    nextRange();
+                    continue;
+                }
+            }
+            long start = keyReader.dataPosition();
+            keyReader.advance();
+            long end = keyReader.isExhausted() ? sstable.uncompressedLength() : keyReader.dataPosition();
+            keyCount++;
+            maxSize = Math.max(maxSize, end - start);
+            scannedBytes += end - start;
+            if (sampler == null || sampler.test(nextKey)) {
+                key = decoratedKey != null ? decoratedKey : sstable.decorateKey(nextKey);
+                position = start;
+                size = end - start;
+                return true;
+            }
+        }
+        key = null;
+        return false;
+    }
+
+    /**
+     * Move to the next token range and seek the index to its start.
+     *
+     * @throws IOException if the index could not be read.
+     */
+    private void nextRange() throws IOException {
+        range = rangeIterator.hasNext() ? rangeIterator.next() : null;
+        if (range != null && !range.left.isMinimum()) {
+            seek(range.left.maxKeyBound());
+        }
+    }
+
+    /**
+     * Seek index close to a position. The scan then walks the index to the exact position.
+     *
+     * @param target Position to seek to.
+     * @throws IOException if the index could not be read.
+     */
+    private void seek(PartitionPosition target) throws IOException {
+        if (keyReader.isExhausted() || !(keyReader instanceof BigTableKeyReader) || !(sstable instanceof BigTableReader)) {
+            return;
+        }
+        long indexPosition = ((BigTableReader) sstable).getIndexSummary().getScanPosition(target);
+        if (indexPosition > keyReader.keyPositionForSecondaryIndex()) {
+            ((BigTableKeyReader) keyReader).indexPosition(indexPosition);
+        }
+    }
+
+    /**
+     * Decode the current partition.
+     *
+     * @return Iterator over the current partition.
+     */
+    public UnfilteredRowIterator partition() {
+        return sstable.simpleIterator(dfile, key, position, false);
+    }
+
+    public DecoratedKey getKey() {
+        return key;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getScannedBytes() {
+        return scannedBytes;
+    }
+
+    public long getKeyCount() {
+        return keyCount;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public SSTableReader getSSTable() {
+        return sstable;
+    }
+
+    /**
+     * Get the reader of Data.db the scanner decodes partitions with, closed with the scanner.
+     *
+     * @return Reader of Data.db.
+     */
+    public RandomAccessReader getDataFile() {
+        return dfile;
+    }
+
+    @Override
+    public void close() {
+        keyReader.close();
+        FileUtils.closeQuietly(dfile);
+    }
+}
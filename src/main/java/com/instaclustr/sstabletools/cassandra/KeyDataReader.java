@@ -0,0 +1,90 @@
+package com.instaclustr.sstabletools.cassandra;
+
+import com.instaclustr.sstabletools.PartitionStatistics;
+import com.instaclustr.sstabletools.SSTableStatistics;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.io.util.RandomAccessReader;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * SSTable Data.db reader that only decodes the partitions of the given keys.
+ * <p>
+ * Keys outside the SSTable bounds or rejected by the bloom filter are skipped, the others are looked up in the
+ * partition index and decoded directly from their position in Data.db.
+ */
+public class KeyDataReader extends DataReader {
+    /**
+     * SSTable being read.
+     */
+    private SSTableReader sstable;
+
+    /**
+     * Remaining keys to look up in token order.
+     */
+    private Iterator<DecoratedKey> keyIterator;
+
+    /**
+     * Reader for Data.db file, opened on the first key found.
+     */
+    private RandomAccessReader dfile;
+
+    /**
+     * Construct a reader for the partitions of keys in a Data.db sstable file.
+     *
+     * @param tableStats SSTable statistics.
+     * @param sstable    SSTable to read.
+     * @param keys       Keys to look up sorted in token order.
+     * @param gcGrace    gc_grace of table
+     */
+    public KeyDataReader(SSTableStatistics tableStats, SSTableReader sstable, List<DecoratedKey> keys, int gcGrace) {
+        super(tableStats, gcGrace);
+        this.sstable = sstable;
+        this.keyIterator = keys.iterator();
+    }
+
+    @Override
+    public boolean next() {
+        while (keyIterator.hasNext()) {
+            DecoratedKey key = keyIterator.next();
+            if (key.compareTo(sstable.getFirst()) < 0 || key.compareTo(sstable.getLast()) > 0) {
+                continue;
+            }
+            if (!sstable.mayContainAssumingKeyIsInRange(key)) {
+                continue;
+            }
+            long position = sstable.getPosition(key, SSTableReader.Operator.EQ, false);
+            if (position < 0) {
+                continue;
+            }
+            long end = sstable.getPosition(key, SSTableReader.Operator.GT, false);
+            if (end < 0) {
+                end = sstable.uncompressedLength();
+            }
+            if (dfile == null) {
+                dfile = sstable.openDataReader();
+            }
+            this.partitionStats = new PartitionStatistics(key);
+            try (UnfilteredRowIterator partition = sstable.simpleIterator(dfile, key, position, false)) {
+                collect(partition);
+            }
+            this.partitionStats.size = end - position;
+            this.tableStats.partitionCount++;
+            this.tableStats.size += this.partitionStats.size;
+            this.tableStats.maxPartitionSize = Math.max(this.partitionStats.size, this.tableStats.maxPartitionSize);
+            return true;
+        }
+        close();
+        return false;
+    }
+
+    @Override
+    public void close() {
+        FileUtils.closeQuietly(dfile);
+        dfile = null;
+    }
+}
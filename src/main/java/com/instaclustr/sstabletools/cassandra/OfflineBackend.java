@@ -0,0 +1,408 @@
+package com.instaclustr.sstabletools.cassandra;
+
+import com.instaclustr.sstabletools.CassandraProxy;
+import com.instaclustr.sstabletools.ColumnFamilyProxy;
+import com.instaclustr.sstabletools.SSTableMetadata;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.cql3.CQLFragmentParser;
+import org.apache.cassandra.cql3.CqlParser;
+import org.apache.cassandra.cql3.statements.schema.CreateTableStatement;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.format.SSTableFormat;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.schema.TableMetadata;
+import org.apache.cassandra.schema.TableMetadataRef;
+import org.apache.cassandra.utils.FBUtilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Proxy to copied sstables read without a running node, its cassandra.yaml or its system keyspace.
+ * <p>
+ * The directory is searched like a data directory, a keyspace directory or a single table directory. A directory
+ * holding Data.db files is a table named after the directory, less its table id, in the keyspace named after its
+ * parent. Table metadata is parsed from the CREATE TABLE statements of a schema file, falling back to the serialization
+ * header of the sstables for tables that are not in it. The partitioner is read from the sstables.
+ */
+public class OfflineBackend implements CassandraProxy {
+    /**
+     * Suffix of the table id Cassandra appends to table directories.
+     */
+    private static final Pattern TABLE_ID = Pattern.compile("-[0-9a-f]{32}$");
+
+    private static final Pattern CREATE_TABLE = Pattern.compile("^CREATE\\s+TABLE\\b", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Directories not holding live sstables of the table.
+     */
+    private static final List<String> SKIPPED_DIRECTORIES = Arrays.asList("snapshots", "backups");
+
+    /**
+     * CREATE TABLE statement of the schema file.
+     */
+    private static class Statement {
+        /**
+         * Keyspace the table is qualified with, or null.
+         */
+        String keyspace;
+
+        String table;
+
+        String cql;
+    }
+
+    /**
+     * Table found in the directory.
+     */
+    private static class Table {
+        String keyspace;
+
+        String name;
+
+        /**
+         * Directories holding sstables of the table.
+         */
+        List<File> directories = new ArrayList<>();
+
+        /**
+         * Statement describing the table, or null to use the serialization header.
+         */
+        Statement statement;
+
+        /**
+         * Table metadata, loaded on first use.
+         */
+        TableMetadata metadata;
+    }
+
+    private final File directory;
+
+    private final List<Statement> statements = new ArrayList<>();
+
+    /**
+     * Tables by keyspace and table name.
+     */
+    private final Map<String, Map<String, Table>> keyspaces = new TreeMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param directory  Data directory, keyspace directory or table directory.
+     * @param schemaFile File of CREATE TABLE statements, or null.
+     */
+    public OfflineBackend(File directory, File schemaFile) {
+        DatabaseDescriptor.clientInitialization();
+        this.directory = directory;
+        if (!directory.isDirectory()) {
+            System.err.printf("Data directory %s does not exist%n", directory);
+            System.exit(1);
+        }
+        if (schemaFile != null) {
+            try {
+                readSchema(schemaFile);
+            } catch (IOException e) {
+                System.err.printf("Unable to read schema %s: %s%n", schemaFile, e.getMessage());
+                System.exit(1);
+            } catch (RuntimeException e) {
+                System.err.printf("Unable to parse schema %s: %s%n", schemaFile, e.getMessage());
+                System.exit(1);
+            }
+        }
+        findTables(directory.getAbsoluteFile(), 0);
+    }
+
+    /**
+     * Parse the CREATE TABLE statements of a schema file, ignoring any other statements.
+     *
+     * @param schemaFile Schema file, such as the output of DESCRIBE.
+     * @throws IOException if unable to read the file.
+     */
+    private void readSchema(File schemaFile) throws IOException {
+        String cql = new String(Files.readAllBytes(schemaFile.toPath()), StandardCharsets.UTF_8);
+        for (String cqlStatement : splitStatements(cql)) {
+            if (!CREATE_TABLE.matcher(cqlStatement).find()) {
+                continue;
+            }
+            CreateTableStatement.Raw raw = CQLFragmentParser.parseAny(CqlParser::createTableStatement, cqlStatement, "CREATE TABLE");
+            Statement statement = new Statement();
+            statement.keyspace = raw.keyspace();
+            statement.table = raw.table();
+            statement.cql = cqlStatement;
+            statements.add(statement);
+        }
+    }
+
+    /**
+     * Split CQL into statements, dropping comments.
+     *
+     * @param cql CQL statements separated by semicolons.
+     * @return Statements without the trailing semicolon.
+     */
+    static List<String> splitStatements(String cql) {
+        List<String> result = new ArrayList<>();
+        StringBuilder statement = new StringBuilder();
+        char quote = 0;
+        int i = 0;
+        while (i < cql.length()) {
+            char c = cql.charAt(i);
+            if (quote != 0) {
+                statement.append(c);
+                if (c == quote) {
+                    quote = 0;
+                }
+                i++;
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+                statement.append(c);
+                i++;
+            } else if (cql.startsWith("--", i) || cql.startsWith("//", i)) {
+                int end = cql.indexOf('\n', i);
+                i = end < 0 ? cql.length() : end;
+            } else if (cql.startsWith("/*", i)) {
+                int end = cql.indexOf("*/", i + 2);
+                i = end < 0 ? cql.length() : end + 2;
+            } else if (c == ';') {
+                add(result, statement);
+                i++;
+            } else {
+                statement.append(c);
+                i++;
+            }
+        }
+        add(result, statement);
+        return result;
+    }
+
+    private static void add(List<String> statements, StringBuilder statement) {
+        String trimmed = statement.toString().trim();
+        if (!trimmed.isEmpty()) {
+            statements.add(trimmed);
+        }
+        statement.setLength(0);
+    }
+
+    /**
+     * Find directories holding Data.db files, down to the table directories of a data directory.
+     *
+     * @param dir   Directory to search.
+     * @param depth Depth below the given directory.
+     */
+    private void findTables(File dir, int depth) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        if (!dataFiles(dir).isEmpty()) {
+            addTable(dir, depth);
+            return;
+        }
+        if (depth == 2) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            // Secondary index sstables are in directories starting with a dot.
+            if (file.isDirectory() && !file.getName().startsWith(".") && !SKIPPED_DIRECTORIES.contains(file.getName())) {
+                findTables(file, depth + 1);
+            }
+        }
+    }
+
+    private void addTable(File dir, int depth) {
+        String name = TABLE_ID.matcher(dir.getName()).replaceFirst("");
+        File parent = dir.getParentFile();
+        String keyspace = parent != null ? parent.getName() : name;
+        Statement statement = null;
+        for (Statement candidate : statements) {
+            if (candidate.table.equals(name) && (candidate.keyspace == null || candidate.keyspace.equals(keyspace))) {
+                statement = candidate;
+                break;
+            }
+        }
+        if (depth == 0) {
+            // A copied table directory can be named anything, so take the names of the schema when it is unambiguous.
+            if (statement == null && statements.size() == 1) {
+                statement = statements.get(0);
+            }
+            if (statement != null) {
+                name = statement.table;
+                keyspace = statement.keyspace != null ? statement.keyspace : keyspace;
+            }
+        }
+        Table table = keyspaces.computeIfAbsent(keyspace, k -> new TreeMap<>()).get(name);
+        if (table == null) {
+            table = new Table();
+            table.keyspace = keyspace;
+            table.name = name;
+            table.statement = statement;
+            keyspaces.get(keyspace).put(name, table);
+        }
+        table.directories.add(dir);
+    }
+
+    /**
+     * List Data.db files in a directory.
+     *
+     * @param dir Directory.
+     * @return Data.db files, sorted by name.
+     */
+    private static List<File> dataFiles(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith("-Data.db"));
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    private Table getTable(String ksName, String cfName) {
+        Map<String, Table> tables = keyspaces.get(ksName);
+        Table table = tables != null ? tables.get(cfName) : null;
+        if (table == null) {
+            System.err.printf("No sstables of %s.%s found in %s%n", ksName, cfName, directory);
+            System.exit(1);
+        }
+        return table;
+    }
+
+    /**
+     * Get the descriptors of the sstables of a table.
+     *
+     * @param table        Table.
+     * @param snapshotName Snapshot to read, or null to read the sstables of the table directories.
+     * @return SSTable descriptors.
+     */
+    private static List<Descriptor> getDescriptors(Table table, String snapshotName) {
+        List<Descriptor> descriptors = new ArrayList<>();
+        for (File dir : table.directories) {
+            File sstableDir = snapshotName != null ? new File(new File(dir, "snapshots"), snapshotName) : dir;
+            for (File dataFile : dataFiles(sstableDir)) {
+                descriptors.add(Descriptor.fromFileWithComponent(new org.apache.cassandra.io.util.File(dataFile), table.keyspace, table.name).left);
+            }
+        }
+        return descriptors;
+    }
+
+    /**
+     * Get the metadata of a table, from its CREATE TABLE statement or from the serialization header of an sstable.
+     *
+     * @param table Table.
+     * @return Table metadata.
+     */
+    private static TableMetadata getMetadata(Table table) {
+        if (table.metadata != null) {
+            return table.metadata;
+        }
+        List<Descriptor> descriptors = getDescriptors(table, null);
+        Descriptor descriptor = descriptors.get(0);
+        try {
+            if (table.statement != null) {
+                IPartitioner partitioner = FBUtilities.newPartitioner(descriptor);
+                table.metadata = CreateTableStatement.parse(table.statement.cql, table.keyspace).partitioner(partitioner).build();
+            } else {
+                table.metadata = org.apache.cassandra.tools.Util.metadataFromSSTable(descriptor);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.printf("Unable to load metadata of %s.%s: %s%n", table.keyspace, table.name, e.getMessage());
+            System.exit(1);
+        }
+        return table.metadata;
+    }
+
+    /**
+     * Open the sstables of a table.
+     *
+     * @param table        Table.
+     * @param snapshotName Snapshot to read, or null to read the sstables of the table directories.
+     * @param filter       List of SSTables to open, or null to open all.
+     * @return Open sstables, to be released by the caller.
+     */
+    private static List<SSTableReader> open(Table table, String snapshotName, Collection<String> filter) {
+        TableMetadataRef metadata = TableMetadataRef.forOfflineTools(getMetadata(table));
+        List<SSTableReader> sstables = new ArrayList<>();
+        for (Descriptor descriptor : getDescriptors(table, snapshotName)) {
+            String filename = descriptor.fileFor(SSTableFormat.Components.DATA).name();
+            if (filter != null && !filter.contains(filename)) {
+                continue;
+            }
+            try {
+                sstables.add(SSTableReader.openNoValidation(null, descriptor, metadata));
+            } catch (Throwable t) {
+                System.err.printf("Unable to open %s: %s%n", filename, t.getMessage());
+                System.exit(1);
+            }
+        }
+        return sstables;
+    }
+
+    @Override
+    public List<String> getKeyspaces() {
+        return new ArrayList<>(keyspaces.keySet());
+    }
+
+    @Override
+    public List<String> getColumnFamilies(String ksName) {
+        Map<String, Table> tables = keyspaces.get(ksName);
+        if (tables == null) {
+            throw new IllegalStateException("Unknown keyspace " + ksName);
+        }
+        return new ArrayList<>(tables.keySet());
+    }
+
+    @Override
+    public List<SSTableMetadata> getSSTableMetadata(String ksName, String cfName) {
+        return getSSTableMetadata(ksName, cfName, false);
+    }
+
+    @Override
+    public List<SSTableMetadata> getSSTableMetadata(String ksName, String cfName, boolean cardinality) {
+        List<SSTableReader> sstables = open(getTable(ksName, cfName), null, null);
+        List<SSTableMetadata> metaData = new ArrayList<>(sstables.size());
+        for (SSTableReader sstable : sstables) {
+            metaData.add(CassandraBackend.getSSTableMetadata(sstable, cardinality));
+            sstable.selfRef().release();
+        }
+        return metaData;
+    }
+
+    @Override
+    public ColumnFamilyProxy getColumnFamily(String ksName, String cfName, String snapshotName, Collection<String> filter) {
+        return getColumnFamily(ksName, cfName, snapshotName, filter, false);
+    }
+
+    /**
+     * Get proxy to column family backend. The copied sstables are read in place, so no snapshot is taken.
+     */
+    @Override
+    public ColumnFamilyProxy getColumnFamily(String ksName, String cfName, String snapshotName, Collection<String> filter, boolean noSnapshot) {
+        Table table = getTable(ksName, cfName);
+        return new ColumnFamilyBackend(getMetadata(table), open(table, snapshotName, filter));
+    }
+
+    @Override
+    public Class<?> getCompactionClass(String ksName, String cfName) {
+        return getMetadata(getTable(ksName, cfName)).params.compaction.klass();
+    }
+
+    @Override
+    public Map<String, String> getCompactionOptions(String ksName, String cfName) {
+        return getMetadata(getTable(ksName, cfName)).params.compaction.options();
+    }
+
+    @Override
+    public int getGcGraceSeconds(String ksName, String cfName) {
+        return getMetadata(getTable(ksName, cfName)).params.gcGraceSeconds;
+    }
+}
@@ -1,17 +1,26 @@
 package com.instaclustr.sstabletools.cassandra;
 
+import com.instaclustr.sstabletools.PartitionSampler;
+import com.instaclustr.sstabletools.PurgeForecast;
 import com.instaclustr.sstabletools.PurgeStatistics;
 import com.instaclustr.sstabletools.PurgeStatisticsReader;
 import com.instaclustr.sstabletools.Util;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.*;
-import org.apache.cassandra.db.filter.ColumnFilter;
 import org.apache.cassandra.db.rows.*;
 import org.apache.cassandra.db.transform.Transformation;
-import org.apache.cassandra.io.sstable.ISSTableScanner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.io.sstable.SSTableId;
-import org.apache.cassandra.net.MessagingService;
-import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.io.sstable.format.Version;
+import org.apache.cassandra.io.sstable.metadata.StatsMetadata;
+import org.apache.cassandra.io.util.DataOutputPlus;
+import org.apache.cassandra.io.util.WrappedDataOutputStreamPlus;
+import org.apache.cassandra.schema.TableMetadata;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -29,7 +38,7 @@ public class PurgeStatisticBackend implements PurgeStatisticsReader {
     private long bytesRead;
 
     /**
-     * Total uncompressed length of sstables.
+     * Total uncompressed length of sstables within the token ranges being read.
      */
     private long length;
 
@@ -39,28 +48,80 @@ public class PurgeStatisticBackend implements PurgeStatisticsReader {
     private int gcBefore;
 
     /**
-     * Column family store.
+     * gc_grace_seconds used to decide when data is purgeable.
      */
-    private ColumnFamilyStore cfs;
+    private int gcGrace;
 
-    public PurgeStatisticBackend(ColumnFamilyStore cfs, Collection<org.apache.cassandra.io.sstable.format.SSTableReader> sstables, int gcGrace) {
+    /**
+     * Forecast of data that will become reclaimable, or null if not forecasting.
+     */
+    private PurgeForecast forecast;
+
+    /**
+     * Serializer of deletion times in the sstable format compaction writes.
+     */
+    private DeletionTime.Serializer deletionTimeSerializer;
+
+    /**
+     * Messaging version of the sstable format compaction writes.
+     */
+    private int version;
+
+    /**
+     * Count of bytes written to {@link #out}.
+     */
+    private final CountingOutputStream counter = new CountingOutputStream(ByteStreams.nullOutputStream());
+
+    /**
+     * Output discarding serialized unfiltereds once they are counted.
+     */
+    private final DataOutputPlus out = new WrappedDataOutputStreamPlus(counter);
+
+    /**
+     * Construct purge statistics reader.
+     *
+     * @param sstables SSTables to read.
+     * @param gcGrace  gc_grace_seconds of table.
+     * @param sampler  Sampler to select partitions, or null to read all partitions.
+     * @param ranges   Token ranges to read, or null to read all partitions.
+     * @param forecast Forecast to record data that will become reclaimable, or null to not forecast.
+     * @throws IOException if an sstable index could not be opened.
+     */
+    public PurgeStatisticBackend(Collection<org.apache.cassandra.io.sstable.format.SSTableReader> sstables, int gcGrace, PartitionSampler sampler, Collection<Range<Token>> ranges, PurgeForecast forecast) throws IOException {
         this.gcBefore = Util.NOW_SECONDS - gcGrace;
+        this.gcGrace = gcGrace;
+        this.forecast = forecast;
+        // Partitions can only skip decoding if nothing in them is purgeable up to the forecast horizon.
+        long horizon = forecast != null ? Math.max(gcBefore, forecast.getHorizon()) : gcBefore;
         bytesRead = 0;
         readerQueue = new PriorityQueue<>(sstables.size());
         for (org.apache.cassandra.io.sstable.format.SSTableReader sstable : sstables) {
-            length += sstable.uncompressedLength();
-            ScannerWrapper scanner = new ScannerWrapper(sstable.descriptor.id, sstable.getScanner());
+            if (!IndexedScanner.intersects(sstable, ranges)) {
+                continue;
+            }
+            length += IndexedScanner.length(sstable, ranges);
+            ScannerWrapper scanner = new ScannerWrapper(sstable.descriptor.id, new IndexedScanner(sstable, sampler, ranges), gcBefore, horizon);
             if (scanner.next()) {
                 readerQueue.add(scanner);
             }
         }
-        this.cfs = cfs;
+        Version latest = DatabaseDescriptor.getSelectedSSTableFormat().getLatestVersion();
+        this.deletionTimeSerializer = DeletionTime.getSerializer(latest);
+        this.version = latest.correspondingMessagingVersion();
     }
 
     public double getProgress() {
         return bytesRead / (double) length;
     }
 
+    @Override
+    public void close() {
+        for (ScannerWrapper scanner : readerQueue) {
+            scanner.close();
+        }
+        readerQueue.clear();
+    }
+
     @Override
     public boolean hasNext() {
         return !readerQueue.isEmpty();
@@ -78,66 +139,51 @@ public class PurgeStatisticBackend implements PurgeStatisticsReader {
         List<ScannerWrapper> scanners = new ArrayList<>(readerQueue.size());
         ScannerWrapper scanner = readerQueue.remove();
         scanners.add(scanner);
-        stats.key = scanner.row.partitionKey();
+        stats.key = scanner.key();
 
         // Grab matching rows from other scanners.
-        while ((scanner = this.readerQueue.peek()) != null && scanner.row.partitionKey().equals(stats.key)) {
+        while ((scanner = this.readerQueue.peek()) != null && scanner.key().equals(stats.key)) {
             readerQueue.remove();
             scanners.add(scanner);
         }
 
-        // List of rows from each scanner.
-        List<UnfilteredRowIterator> rows = new ArrayList<>(scanners.size());
+        // Input size is taken from the partition positions in Data.db.
         for (ScannerWrapper scannerWrapper: scanners) {
-            UnfilteredRowIterator row = scannerWrapper.row;
-            SerializationHeader header = new SerializationHeader(false,
-                    row.metadata(),
-                    row.columns(),
-                    row.stats());
-            stats.size += serializedPartitionSize(header, row, ColumnFilter.all(cfs.metadata()), MessagingService.current_version);
-            row = Transformation.apply(scannerWrapper.row, new Transformation<UnfilteredRowIterator>() {
-                @Override
-                protected Row applyToRow(Row row) {
-                    onUnfiltered(row);
-                    return row;
-                }
-
-                @Override
-                protected Row applyToStatic(Row row) {
-                    if (row != Rows.EMPTY_STATIC_ROW) {
-                        onUnfiltered(row);
-                    }
-                    return row;
-                }
-
-                @Override
-                public RangeTombstoneMarker applyToMarker(RangeTombstoneMarker marker) {
-                    onUnfiltered(marker);
-                    return marker;
-                }
-
-                private void onUnfiltered(Unfiltered unfiltered) {
-                    SerializationHelper helper = new SerializationHelper(header);
-                    stats.size += UnfilteredSerializer.serializer.serializedSize(unfiltered, helper, MessagingService.current_version);
-                }
-            });
-            rows.add(row);
+            stats.size += scannerWrapper.size();
             stats.ssTableIds.add(scannerWrapper.ssTableId);
         }
 
-        // Merge rows together and grab column statistics.
-        UnfilteredRowIterator iter = UnfilteredRowIterators.merge(rows);
-        iter = Transformation.apply(iter, new PurgeFunction(Util.NOW_SECONDS, gcBefore));
-        CellCounter cellCounter = new CellCounter();
-        iter = Transformation.apply(iter, cellCounter);
+        // A partition only in one sstable can be accounted from the sstable metadata without being decoded.
+        ScannerWrapper single = scanners.size() == 1 ? scanners.get(0) : null;
+        if (single != null && single.nonePurgeable) {
+            stats.reclaimable = 0;
+        } else if (single != null && single.allPurgeable) {
+            stats.reclaimable = stats.size;
+        } else {
+            // Merge rows together and size the purged partition.
+            List<UnfilteredRowIterator> rows = new ArrayList<>(scanners.size());
+            List<org.apache.cassandra.io.sstable.format.SSTableReader> sstables = new ArrayList<>(scanners.size());
+            for (ScannerWrapper scannerWrapper: scanners) {
+                rows.add(scannerWrapper.row());
+                sstables.add(scannerWrapper.scanner.getSSTable());
+            }
+            UnfilteredRowIterator iter = UnfilteredRowIterators.merge(rows);
+            iter = Transformation.apply(iter, new PurgeFunction(Util.NOW_SECONDS, gcBefore));
+
+            long mergeSize = 0;
+            try {
+                if (!iter.isEmpty()) {
+                    mergeSize = serializedSize(iter, header(iter.metadata(), sstables));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Error sizing partition " + stats.key, e);
+            } finally {
+                iter.close();
+            }
 
-        long mergeSize = 0;
-        if (iter.hasNext()) {
-            mergeSize = serializedSize(iter, ColumnFilter.all(cfs.metadata()), MessagingService.current_version);
+            stats.reclaimable = Math.max(0, stats.size - mergeSize);
         }
 
-        stats.reclaimable = stats.size - mergeSize;
-
         // Increment scanners.
         for (ScannerWrapper scannerWrapper: scanners) {
             bytesRead += scannerWrapper.bytesRead();
@@ -150,52 +196,140 @@ public class PurgeStatisticBackend implements PurgeStatisticsReader {
     }
 
     /**
-     * Return size of partition without clustering rows.
+     * Make an sstable serialization header encoding like the headers of the sstables holding a partition.
+     * <p>
+     * The input size is taken from how those sstables encoded the partition, so the merged partition is encoded with
+     * the same columns and encoding statistics for the difference to only count what merging and purging removes.
+     *
+     * @param metadata Table metadata.
+     * @param sstables SSTables holding the partition.
+     * @return Serialization header.
      */
-    private long serializedPartitionSize(SerializationHeader header, UnfilteredRowIterator iterator, ColumnFilter selection, int version) {
-        long size = ByteBufferUtil.serializedSizeWithVIntLength(iterator.partitionKey().getKey())
-                + 1; // flags
-
-        if (iterator.isEmpty()) {
-            return size;
+    private static SerializationHeader header(TableMetadata metadata, List<org.apache.cassandra.io.sstable.format.SSTableReader> sstables) {
+        RegularAndStaticColumns.Builder columns = RegularAndStaticColumns.builder();
+        EncodingStats stats = null;
+        for (org.apache.cassandra.io.sstable.format.SSTableReader sstable : sstables) {
+            columns.addAll(sstable.header.columns());
+            stats = stats == null ? sstable.header.stats() : stats.mergeWith(sstable.header.stats());
         }
+        return new SerializationHeader(true, metadata, columns.build(), stats);
+    }
 
+    /**
+     * Size a partition as the sstable writer lays it out in Data.db, so it is comparable with the on-disk input size.
+     * <p>
+     * Each unfiltered is serialized with an sstable header in the sstable version compaction writes, preceded by the
+     * distance from the start of the previous unfiltered, and only its length is kept.
+     */
+    private long serializedSize(UnfilteredRowIterator iterator, SerializationHeader header) throws IOException {
         DeletionTime partitionDeletion = iterator.partitionLevelDeletion();
-        Row staticRow = iterator.staticRow();
-        boolean hasStatic = staticRow != Rows.EMPTY_STATIC_ROW;
-
-        size += SerializationHeader.serializer.serializedSizeForMessaging(header, selection, hasStatic);
+        long partitionPurgeTime = partitionDeletion.isLive() ? Long.MIN_VALUE : partitionDeletion.localDeletionTime();
+        SerializationHelper helper = new SerializationHelper(header);
 
-        if (!partitionDeletion.isLive()) {
-            size += header.deletionTimeSerializedSize(partitionDeletion);
+        long overhead = 2 + iterator.partitionKey().getKey().remaining()
+                + deletionTimeSerializer.serializedSize(partitionDeletion)
+                + UnfilteredSerializer.serializer.serializedSizeEndOfPartition();
+        // Position of the next unfiltered from the start of the partition.
+        long position = overhead - UnfilteredSerializer.serializer.serializedSizeEndOfPartition();
+
+        if (header.hasStatic()) {
+            // An empty static row is still written when the table has static columns.
+            Row staticRow = iterator.staticRow();
+            long before = counter.getCount();
+            UnfilteredSerializer.serializer.serializeStaticRow(staticRow, helper, out, version);
+            long staticSize = counter.getCount() - before;
+            position += staticSize;
+            if (staticRow == Rows.EMPTY_STATIC_ROW) {
+                overhead += staticSize;
+            } else if (forecast != null) {
+                long purgeTime = purgeTime(staticRow);
+                forecast.record(purgeTime, staticSize);
+                partitionPurgeTime = Math.max(partitionPurgeTime, purgeTime);
+            }
         }
 
-        if (hasStatic) {
-            SerializationHelper helper = new SerializationHelper(header);
-            size += UnfilteredSerializer.serializer.serializedSize(staticRow, helper, version);
+        long previousStart = 0;
+        while (iterator.hasNext()) {
+            Unfiltered unfiltered = iterator.next();
+            long before = counter.getCount();
+            UnfilteredSerializer.serializer.serialize(unfiltered, helper, out, position - previousStart, version);
+            long unfilteredSize = counter.getCount() - before;
+            previousStart = position;
+            position += unfilteredSize;
+            if (forecast != null) {
+                long purgeTime = unfiltered.isRow() ? purgeTime((Row) unfiltered) : purgeTime((RangeTombstoneMarker) unfiltered);
+                forecast.record(purgeTime, unfilteredSize);
+                partitionPurgeTime = Math.max(partitionPurgeTime, purgeTime);
+            }
         }
 
-        size += UnfilteredSerializer.serializer.serializedSizeEndOfPartition();
+        if (forecast != null) {
+            // The partition key and header go once everything in the partition has been purged.
+            forecast.record(partitionPurgeTime, overhead);
+        }
 
-        return size;
+        return position + UnfilteredSerializer.serializer.serializedSizeEndOfPartition();
     }
 
-    private long serializedSize(UnfilteredRowIterator iterator, ColumnFilter selection, int version) {
-        SerializationHeader header = new SerializationHeader(false,
-                iterator.metadata(),
-                iterator.columns(),
-                iterator.stats());
-
-        SerializationHelper helper = new SerializationHelper(header);
-
-        long size = serializedPartitionSize(header, iterator, selection, version);
+    /**
+     * The gcBefore after which all of a row could be purged.
+     *
+     * @param row Row that survived purging.
+     * @return Time in seconds, or Long.MAX_VALUE if the row holds live data without a TTL.
+     */
+    private long purgeTime(Row row) {
+        long purgeTime = Long.MIN_VALUE;
+        LivenessInfo liveness = row.primaryKeyLivenessInfo();
+        if (!liveness.isEmpty()) {
+            if (!liveness.isExpiring()) {
+                return Long.MAX_VALUE;
+            }
+            purgeTime = expiringPurgeTime(liveness.localExpirationTime(), liveness.ttl());
+        }
+        if (!row.deletion().isLive()) {
+            purgeTime = Math.max(purgeTime, row.deletion().time().localDeletionTime());
+        }
+        for (ColumnData data : row) {
+            if (data instanceof ComplexColumnData && !((ComplexColumnData) data).complexDeletion().isLive()) {
+                purgeTime = Math.max(purgeTime, ((ComplexColumnData) data).complexDeletion().localDeletionTime());
+            }
+        }
+        for (Cell<?> cell : row.cells()) {
+            if (cell.isTombstone()) {
+                purgeTime = Math.max(purgeTime, cell.localDeletionTime());
+            } else if (cell.isExpiring()) {
+                purgeTime = Math.max(purgeTime, expiringPurgeTime(cell.localDeletionTime(), cell.ttl()));
+            } else {
+                return Long.MAX_VALUE;
+            }
+        }
+        return purgeTime;
+    }
 
-        while (iterator.hasNext()) {
-            Unfiltered unfiltered = iterator.next();
-            size += UnfilteredSerializer.serializer.serializedSize(unfiltered, helper, MessagingService.current_version);
+    /**
+     * The gcBefore after which a range tombstone marker could be purged.
+     *
+     * @param marker Marker that survived purging.
+     * @return Time in seconds.
+     */
+    private long purgeTime(RangeTombstoneMarker marker) {
+        if (marker.isBoundary()) {
+            RangeTombstoneBoundaryMarker boundary = (RangeTombstoneBoundaryMarker) marker;
+            return Math.max(boundary.closeDeletionTime(false).localDeletionTime(), boundary.openDeletionTime(false).localDeletionTime());
         }
+        return ((RangeTombstoneBoundMarker) marker).deletionTime().localDeletionTime();
+    }
 
-        return size;
+    /**
+     * The gcBefore after which an expiring cell could be purged. It must have expired, which happens once gcBefore
+     * is gc_grace_seconds before its expiry, and the tombstone it becomes is dated its expiry less its TTL.
+     *
+     * @param localExpirationTime Expiry in seconds.
+     * @param ttl                 TTL in seconds.
+     * @return Time in seconds.
+     */
+    private long expiringPurgeTime(long localExpirationTime, int ttl) {
+        return localExpirationTime - Math.min(ttl, gcGrace);
     }
 
     public class PurgeFunction extends Transformation<UnfilteredRowIterator> {
@@ -256,26 +390,6 @@ public class PurgeStatisticBackend implements PurgeStatisticsReader {
         }
     }
 
-    private class CellCounter extends Transformation<UnfilteredRowIterator> {
-        public int cellCount;
-
-        @Override
-        protected Row applyToRow(Row row) {
-            onRow(row);
-            return row;
-        }
-
-        @Override
-        protected Row applyToStatic(Row row) {
-            onRow(row);
-            return row;
-        }
-
-        private void onRow(Row row) {
-            cellCount += row.columns().size() + row.clustering().size();
-        }
-    }
-
     private class ScannerWrapper implements Comparable<ScannerWrapper> {
         /**
          * Generation of sstable being scanned.
@@ -285,42 +399,85 @@ public class PurgeStatisticBackend implements PurgeStatisticsReader {
         /**
          * SSTable scanner.
          */
-        private ISSTableScanner scanner;
+        private IndexedScanner scanner;
+
+        /**
+         * Bytes scanned in Data.db file.
+         */
+        private long scannedBytes;
 
         /**
-         * The current row.
+         * Nothing in the sstable can be purged up to the horizon, including TTL'd data that expires before it.
          */
-        public UnfilteredRowIterator row;
+        public final boolean nonePurgeable;
 
         /**
-         * Position in Data.db file.
+         * Everything in the sstable is deleted or expired before gcBefore.
          */
-        private long position;
+        public final boolean allPurgeable;
 
-        public ScannerWrapper(SSTableId ssTableId, ISSTableScanner scanner) {
+        public ScannerWrapper(SSTableId ssTableId, IndexedScanner scanner, int gcBefore, long horizon) {
             this.ssTableId = ssTableId;
             this.scanner = scanner;
-            this.position = 0;
+            this.scannedBytes = 0;
+            StatsMetadata metadata = scanner.getSSTable().getSSTableMetadata();
+            // Expired cells become tombstones with a local deletion time of their expiry less their TTL.
+            this.nonePurgeable = metadata.minLocalDeletionTime - metadata.maxTTL >= horizon;
+            this.allPurgeable = metadata.maxLocalDeletionTime < gcBefore;
         }
 
         public boolean next() {
-            if (!scanner.hasNext()) {
+            try {
+                if (!scanner.advance()) {
+                    scanner.close();
+                    return false;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                scanner.close();
                 return false;
             }
-            this.row = scanner.next();
             return true;
         }
 
+        /**
+         * Close the scanner before the SSTable has been fully read.
+         */
+        public void close() {
+            scanner.close();
+        }
+
+        /**
+         * Key of the current partition.
+         */
+        public DecoratedKey key() {
+            return scanner.getKey();
+        }
+
+        /**
+         * Decode the current partition.
+         */
+        public UnfilteredRowIterator row() {
+            return scanner.partition();
+        }
+
+        /**
+         * Size in Data.db of the current partition.
+         */
+        public long size() {
+            return scanner.getSize();
+        }
+
         public long bytesRead() {
-            long currentPosition = scanner.getCurrentPosition();
-            long bytesRead = currentPosition - position;
-            position = currentPosition;
+            long currentScannedBytes = scanner.getScannedBytes();
+            long bytesRead = currentScannedBytes - scannedBytes;
+            scannedBytes = currentScannedBytes;
             return bytesRead;
         }
 
         @Override
         public int compareTo(ScannerWrapper o) {
-            return this.row.partitionKey().compareTo(o.row.partitionKey());
+            return this.key().compareTo(o.key());
         }
     }
 
@@ -0,0 +1,61 @@
+package com.instaclustr.sstabletools.cassandra;
+
+import com.instaclustr.sstabletools.AbstractSSTableReader;
+import com.instaclustr.sstabletools.PartitionStatistics;
+import com.instaclustr.sstabletools.SSTableStatistics;
+
+import java.io.IOException;
+
+/**
+ * SSTable partition index reader restricted to token ranges.
+ */
+public class RangeIndexReader extends AbstractSSTableReader {
+    /**
+     * Index driven scanner of partitions in token ranges.
+     */
+    private IndexedScanner scanner;
+
+    /**
+     * Flag to determine that the last index entry has been read.
+     */
+    private boolean completed = false;
+
+    /**
+     * Construct a reader for the partition index of an sstable.
+     *
+     * @param tableStats SSTable statistics.
+     * @param scanner    Index driven scanner of partitions in token ranges.
+     */
+    public RangeIndexReader(SSTableStatistics tableStats, IndexedScanner scanner) {
+        this.tableStats = tableStats;
+        this.scanner = scanner;
+    }
+
+    @Override
+    public boolean next() {
+        if (completed) {
+            return false;
+        }
+        try {
+            if (scanner.advance()) {
+                partitionStats = new PartitionStatistics(scanner.getKey());
+                partitionStats.size = scanner.getSize();
+                this.tableStats.partitionCount++;
+                this.tableStats.maxPartitionSize = Math.max(partitionStats.size, this.tableStats.maxPartitionSize);
+                return true;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        close();
+        return false;
+    }
+
+    @Override
+    public void close() {
+        if (!completed) {
+            scanner.close();
+        }
+        completed = true;
+    }
+}
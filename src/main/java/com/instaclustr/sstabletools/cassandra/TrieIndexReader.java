@@ -0,0 +1,164 @@
+package com.instaclustr.sstabletools.cassandra;
+
+import java.io.IOException;
+
+import com.instaclustr.sstabletools.AbstractSSTableReader;
+import com.instaclustr.sstabletools.PartitionStatistics;
+import com.instaclustr.sstabletools.SSTableStatistics;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.io.sstable.format.bti.PartitionIndex;
+import org.apache.cassandra.io.util.FileHandle;
+import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.io.util.RandomAccessReader;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+/**
+ * SSTable Partitions.db reader for sstables in the BTI format.
+ * <p>
+ * The partition index trie is walked in key order. Each entry points either to the partition's entry in Rows.db or,
+ * for partitions without a row index, directly to the partition in Data.db. Both start with the partition key.
+ */
+public class TrieIndexReader extends AbstractSSTableReader {
+    /**
+     * Partitions.db trie.
+     */
+    private PartitionIndex partitionIndex;
+
+    /**
+     * Iterator over the trie positions in key order.
+     */
+    private PositionIterator positions;
+
+    /**
+     * Rows.db file.
+     */
+    private FileHandle rowIndexFile;
+
+    /**
+     * Rows.db reader, opened on the first partition with a row index.
+     */
+    private RandomAccessReader rowIndexReader;
+
+    /**
+     * Data.db reader.
+     */
+    private RandomAccessReader dataReader;
+
+    /**
+     * The sstable partitioner.
+     */
+    private IPartitioner partitioner;
+
+    /**
+     * The next partition key.
+     */
+    private DecoratedKey nextKey;
+
+    /**
+     * The position in Data.db of the next partition.
+     */
+    private long nextPosition;
+
+    /**
+     * Flag to determine that the last index entry has been read.
+     */
+    private boolean completed = false;
+
+    /**
+     * Construct a reader for Partitions.db sstable file.
+     *
+     * @param tableStats     SSTable statistics.
+     * @param partitionIndex Partitions.db trie.
+     * @param rowIndexFile   Rows.db file.
+     * @param dataReader     Reader to Data.db file.
+     * @param partitioner    The sstable partitioner.
+     */
+    public TrieIndexReader(SSTableStatistics tableStats, PartitionIndex partitionIndex, FileHandle rowIndexFile, RandomAccessReader dataReader, IPartitioner partitioner) {
+        this.tableStats = tableStats;
+        this.partitionIndex = partitionIndex;
+        this.positions = new PositionIterator(partitionIndex);
+        this.rowIndexFile = rowIndexFile;
+        this.dataReader = dataReader;
+        this.partitioner = partitioner;
+    }
+
+    /**
+     * Read the key and Data.db position of the next trie entry.
+     *
+     * @return True if an entry was read, false if the trie is exhausted.
+     * @throws IOException
+     */
+    private boolean readEntry() throws IOException {
+        long pos = positions.nextPosition();
+        if (pos == PartitionIndex.NOT_FOUND) {
+            return false;
+        }
+        if (pos >= 0) {
+            if (rowIndexReader == null) {
+                rowIndexReader = rowIndexFile.createReader();
+            }
+            rowIndexReader.seek(pos);
+            nextKey = partitioner.decorateKey(ByteBufferUtil.readWithShortLength(rowIndexReader));
+            nextPosition = rowIndexReader.readUnsignedVInt();
+        } else {
+            nextPosition = ~pos;
+            dataReader.seek(nextPosition);
+            nextKey = partitioner.decorateKey(ByteBufferUtil.readWithShortLength(dataReader));
+        }
+        return true;
+    }
+
+    @Override
+    public boolean next() {
+        if (completed) {
+            return false;
+        }
+        try {
+            if (nextKey == null && !readEntry()) {
+                close();
+                return false;
+            }
+            partitionStats = new PartitionStatistics(nextKey);
+            long position = nextPosition;
+            if (readEntry()) {
+                partitionStats.size = nextPosition - position;
+            } else {
+                partitionStats.size = this.tableStats.size - position;
+                close();
+            }
+            this.tableStats.partitionCount++;
+            this.tableStats.maxPartitionSize = Math.max(partitionStats.size, this.tableStats.maxPartitionSize);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            close();
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!completed) {
+            positions.close();
+            partitionIndex.close();
+            FileUtils.closeQuietly(rowIndexReader);
+            rowIndexFile.close();
+            FileUtils.closeQuietly(dataReader);
+        }
+        completed = true;
+    }
+
+    /**
+     * Exposes the trie positions of the partition index iterator.
+     */
+    private static class PositionIterator extends PartitionIndex.IndexPosIterator {
+        PositionIterator(PartitionIndex index) {
+            super(index);
+        }
+
+        long nextPosition() {
+            return nextIndexPos();
+        }
+    }
+}
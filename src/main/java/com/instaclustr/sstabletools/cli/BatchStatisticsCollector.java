@@ -0,0 +1,538 @@
+package com.instaclustr.sstabletools.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.MinMaxPriorityQueue;
+import com.instaclustr.sstabletools.AnalysisResult;
+import com.instaclustr.sstabletools.CassandraProxy;
+import com.instaclustr.sstabletools.ColumnFamilyProxy;
+import com.instaclustr.sstabletools.LoadGovernor;
+import com.instaclustr.sstabletools.PartitionReader;
+import com.instaclustr.sstabletools.PartitionStatistics;
+import com.instaclustr.sstabletools.SSTableMetadata;
+import com.instaclustr.sstabletools.SSTableReader;
+import com.instaclustr.sstabletools.TableBuilder;
+import com.instaclustr.sstabletools.TimeBudget;
+import com.instaclustr.sstabletools.Util;
+import com.instaclustr.sstabletools.cassandra.CassandraBackend;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.schema.SchemaConstants;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+/**
+ * Collect partition statistics of many tables in one process on a shared pool of workers.
+ * <p>
+ * Tables are scheduled largest first. A table larger than the split size is split into token ranges read by different
+ * workers, and tables smaller than the split size are packed together into one unit of work, so every unit reads
+ * about the same amount of data. The report of a table is printed as soon as its last part finishes.
+ */
+@Command(
+    versionProvider = CLI.class,
+    name = "batch",
+    usageHelpWidth = 128,
+    description = "Partition statistics of many column families on a shared pool of workers",
+    mixinStandardHelpOptions = true
+)
+public class BatchStatisticsCollector implements Runnable {
+
+    @Option(names = {"-n"}, description = "Number of partitions to display, defaults to 10", arity = "1", defaultValue = "10")
+    public int numPartitions;
+
+    @Option(names = {"--all"}, description = "Analyse every column family of every non system keyspace", arity = "0")
+    public boolean all;
+
+    @Option(names = {"-t"}, description = "Snapshot name", arity = "1")
+    public String snapshotName;
+
+    @Option(names = {"--no-snapshot"}, description = "Read the live sstables instead of creating a snapshot", arity = "0")
+    public boolean noSnapshot;
+
+    @Option(names = {"--threads"}, description = "Number of workers, defaults to the number of processors", arity = "1")
+    public int threads = Runtime.getRuntime().availableProcessors();
+
+    @Option(names = {"--split-size"}, description = "Amount of data read by one unit of work, larger tables are split and smaller tables packed together, defaults to 1GB", arity = "1", defaultValue = "1GB")
+    public String splitSize;
+
+    @Option(names = {"-a", "--adaptive"}, description = "Back off automatically when the host is under CPU or I/O pressure", arity = "0")
+    public boolean adaptive;
+
+    @Option(names = {"--max-rate"}, description = "Maximum read rate in MiB/s shared by all workers, defaults to unlimited", arity = "1", defaultValue = "0")
+    public double maxRate;
+
+    @Option(names = {"--full-decode"}, description = "Decode full rows and cells instead of only their headers", arity = "0")
+    public boolean fullDecode;
+
+    @Option(names = {"--result"}, description = "Directory to write a binary result of each column family to, for the combine command", arity = "1")
+    public String resultDirectory;
+
+    @Parameters(arity = "0..2", description = "<keyspace> [<table glob>]")
+    public List<String> params = new ArrayList<>();
+
+    /**
+     * Governor shared by all workers, or null if unlimited.
+     */
+    private LoadGovernor governor;
+
+    /**
+     * Number of workers reading.
+     */
+    private final AtomicInteger running = new AtomicInteger();
+
+    /**
+     * Column family being analysed.
+     */
+    private static class Table {
+        String ksName;
+        String cfName;
+
+        /**
+         * Uncompressed length of the sstables.
+         */
+        long size;
+
+        int sstableCount;
+
+        /**
+         * Number of token ranges the table is read in.
+         */
+        int partCount = 1;
+
+        /**
+         * Parts still to finish.
+         */
+        AtomicInteger remaining;
+
+        ColumnFamilyProxy cfProxy;
+
+        /**
+         * Token ranges of the parts, or null when read in one part.
+         */
+        List<Range<Token>> ranges;
+
+        /**
+         * Result merged from the finished parts.
+         */
+        AnalysisResult result;
+
+        /**
+         * First error reading the table, or null.
+         */
+        Throwable error;
+
+        long startTime;
+        long endTime;
+    }
+
+    /**
+     * Part of a table read by a worker.
+     */
+    private static class Part {
+        final Table table;
+        final int index;
+
+        Part(Table table, int index) {
+            this.table = table;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Parts read one after another by a worker.
+     */
+    private static class Unit {
+        final List<Part> parts = new ArrayList<>();
+        long size;
+    }
+
+    @Override
+    public void run() {
+        if (!all && params.isEmpty()) {
+            System.err.println("Specify a keyspace or --all");
+            System.exit(1);
+        }
+        if (threads < 1) {
+            System.err.println("--threads must be at least 1");
+            System.exit(1);
+        }
+        if (adaptive || maxRate > 0) {
+            governor = new LoadGovernor(maxRate * 1024 * 1024, threads, adaptive);
+        }
+        long splitBytes = Math.max(1, Util.parseSize(splitSize));
+        File resultDir = resultDirectory != null ? new File(resultDirectory) : null;
+        if (resultDir != null && !resultDir.isDirectory() && !resultDir.mkdirs()) {
+            System.err.println("Unable to create " + resultDir);
+            System.exit(1);
+        }
+
+        CassandraProxy proxy = CassandraBackend.getInstance();
+        List<Table> tables = findTables(proxy);
+        if (tables.isEmpty()) {
+            System.out.println("No data found!");
+            return;
+        }
+
+        // Largest first, so the longest parts are not left for last.
+        tables.sort(Comparator.comparingLong((Table t) -> t.size).reversed());
+        List<Unit> units = new ArrayList<>();
+        Unit packed = null;
+        for (Table table : tables) {
+            if (table.size > splitBytes) {
+                table.partCount = (int) Math.min(TimeBudget.DEFAULT_RANGES, (table.size + splitBytes - 1) / splitBytes);
+                for (int i = 0; i < table.partCount; i++) {
+                    Unit unit = new Unit();
+                    unit.parts.add(new Part(table, i));
+                    unit.size = table.size / table.partCount;
+                    units.add(unit);
+                }
+            } else {
+                if (packed == null || packed.size + table.size > splitBytes) {
+                    packed = new Unit();
+                    units.add(packed);
+                }
+                packed.parts.add(new Part(table, 0));
+                packed.size += table.size;
+            }
+            table.remaining = new AtomicInteger(table.partCount);
+        }
+        long totalSize = 0;
+        for (Table table : tables) {
+            totalSize += table.size;
+        }
+        System.out.println(String.format("Analysing %d column families (%s) in %d units of work on %d workers", tables.size(), Util.humanReadableByteCount(totalSize), units.size(), threads));
+        System.out.println();
+
+        long startTime = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "batch-worker-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (Unit unit : units) {
+            executor.submit(() -> {
+                for (Part part : unit.parts) {
+                    read(part, resultDir);
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        System.out.println(String.format("Column families (analysed in %s):", Util.humanReadableDateDiff(startTime, System.currentTimeMillis())));
+        TableBuilder tb = new TableBuilder();
+        tb.setHeader("Keyspace", "Column Family", "SSTables", "Size", "Parts", "Partitions", "Rows", "Tombstones", "Max Partition", "Time");
+        for (Table table : tables) {
+            if (table.error != null || table.result == null) {
+                tb.addRow(table.ksName, table.cfName, Integer.toString(table.sstableCount), Util.humanReadableByteCount(table.size), Integer.toString(table.partCount), "failed", "", "", "", "");
+                continue;
+            }
+            AnalysisResult result = table.result;
+            List<AnalysisResult.Leader> largest = result.leaders.get(AnalysisResult.SIZE);
+            tb.addRow(
+                table.ksName,
+                table.cfName,
+                Integer.toString(table.sstableCount),
+                Util.humanReadableByteCount(table.size),
+                Integer.toString(table.partCount),
+                Long.toString(result.counters.getOrDefault(AnalysisResult.PARTITIONS, 0L)),
+                Long.toString(result.counters.getOrDefault(AnalysisResult.ROWS, 0L)),
+                Long.toString(result.counters.getOrDefault(AnalysisResult.TOMBSTONES, 0L)),
+                largest.isEmpty() ? "" : Util.humanReadableByteCount(largest.get(0).stats.size),
+                Util.humanReadableDateDiff(table.startTime, table.endTime)
+            );
+        }
+        System.out.println(tb);
+    }
+
+    /**
+     * Find the column families to analyse and the size of their sstables.
+     */
+    private List<Table> findTables(CassandraProxy proxy) {
+        List<String> keyspaces = new ArrayList<>();
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + (params.size() > 1 ? params.get(1) : "*"));
+        if (all) {
+            for (String ksName : proxy.getKeyspaces()) {
+                if (!SchemaConstants.isSystemKeyspace(ksName)) {
+                    keyspaces.add(ksName);
+                }
+            }
+        } else {
+            keyspaces.add(params.get(0));
+        }
+        List<Table> tables = new ArrayList<>();
+        for (String ksName : keyspaces) {
+            for (String cfName : proxy.getColumnFamilies(ksName)) {
+                if (!matcher.matches(Paths.get(cfName))) {
+                    continue;
+                }
+                Table table = new Table();
+                table.ksName = ksName;
+                table.cfName = cfName;
+                for (SSTableMetadata metadata : proxy.getSSTableMetadata(ksName, cfName)) {
+                    table.size += metadata.uncompressedLength;
+                    table.sstableCount++;
+                }
+                if (table.sstableCount > 0) {
+                    tables.add(table);
+                }
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Read a part of a table, and report the table if it was the last part to finish.
+     */
+    private void read(Part part, File resultDir) {
+        Table table = part.table;
+        AnalysisResult result = null;
+        try {
+            acquireWorker();
+            try {
+                result = read(table, part.index);
+            } finally {
+                running.decrementAndGet();
+            }
+        } catch (Throwable t) {
+            synchronized (table) {
+                if (table.error == null) {
+                    table.error = t;
+                }
+            }
+        }
+        synchronized (table) {
+            if (result != null) {
+                if (table.result == null) {
+                    table.result = result;
+                } else {
+                    table.result.add(result, numPartitions);
+                }
+            }
+        }
+        if (table.remaining.decrementAndGet() > 0) {
+            return;
+        }
+        table.endTime = System.currentTimeMillis();
+        if (table.cfProxy != null) {
+            table.cfProxy.close();
+        }
+        if (table.error == null && resultDir != null) {
+            try {
+                table.result.write(new File(resultDir, table.ksName + "." + table.cfName + ".result"));
+            } catch (IOException e) {
+                table.error = e;
+            }
+        }
+        report(table);
+    }
+
+    /**
+     * Wait until the governor permits another worker to read.
+     */
+    private void acquireWorker() throws InterruptedException {
+        while (true) {
+            int count = running.get();
+            if ((governor == null || count < governor.getConcurrency()) && running.compareAndSet(count, count + 1)) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    /**
+     * Open the table on first use.
+     */
+    private ColumnFamilyProxy open(Table table) {
+        synchronized (table) {
+            if (table.cfProxy == null) {
+                table.startTime = System.currentTimeMillis();
+                table.cfProxy = CassandraBackend.getInstance().getColumnFamily(table.ksName, table.cfName, snapshotName, null, noSnapshot);
+                table.cfProxy.setFullDecode(fullDecode);
+                if (table.partCount > 1) {
+                    table.ranges = Util.splitRanges(table.cfProxy.getPartitioner(), null, table.partCount);
+                }
+            }
+            return table.cfProxy;
+        }
+    }
+
+    /**
+     * Read the partitions of a part of a table.
+     *
+     * @param table Table.
+     * @param index Index of the token range to read.
+     * @return Result of the part.
+     */
+    private AnalysisResult read(Table table, int index) {
+        ColumnFamilyProxy cfProxy = open(table);
+        Collection<SSTableReader> readers = table.ranges == null
+            ? cfProxy.getDataReaders()
+            : cfProxy.getDataReaders(null, Collections.singleton(table.ranges.get(index)));
+        long length = 0;
+        for (SSTableReader reader : readers) {
+            length += reader.getSSTableStatistics().size;
+        }
+        PartitionReader partitionReader = new PartitionReader(readers, Math.max(1, length));
+        AnalysisResult result = new AnalysisResult("batch", table.ksName, table.cfName, cfProxy.getPartitioner());
+
+        MinMaxPriorityQueue<PartitionStatistics> largestPartitions = leaders(PartitionStatistics.SIZE_COMPARATOR);
+        MinMaxPriorityQueue<PartitionStatistics> widestPartitions = leaders(PartitionStatistics.WIDE_COMPARATOR);
+        MinMaxPriorityQueue<PartitionStatistics> mostDeletedRows = leaders(PartitionStatistics.MOST_DELETED_ROWS_COMPARATOR);
+        MinMaxPriorityQueue<PartitionStatistics> tombstoneLeaders = leaders(PartitionStatistics.TOMBSTONE_COMPARATOR);
+        MinMaxPriorityQueue<PartitionStatistics> tableCountLeaders = leaders(PartitionStatistics.SSTABLE_COUNT_COMPARATOR);
+        long partitionCount = 0;
+        long size = 0;
+        long rowCount = 0;
+        long rowDeleteCount = 0;
+        long cellCount = 0;
+        long tombstoneCount = 0;
+        PartitionStatistics pStats;
+        try {
+            while ((pStats = partitionReader.read()) != null) {
+                if (governor != null) {
+                    governor.acquire(pStats.size);
+                }
+                largestPartitions.add(pStats);
+                widestPartitions.add(pStats);
+                if (pStats.rowDeleteCount > 0) {
+                    mostDeletedRows.add(pStats);
+                }
+                if (pStats.tombstoneCount > 0) {
+                    tombstoneLeaders.add(pStats);
+                }
+                tableCountLeaders.add(pStats);
+                result.update(AnalysisResult.SIZE, pStats.size);
+                result.update(AnalysisResult.SSTABLES, pStats.tableCount);
+                result.update(AnalysisResult.ROWS, pStats.rowCount);
+                result.update(AnalysisResult.TOMBSTONES, pStats.tombstoneCount);
+                partitionCount++;
+                size += pStats.size;
+                rowCount += pStats.rowCount;
+                rowDeleteCount += pStats.rowDeleteCount;
+                cellCount += pStats.cellCount;
+                tombstoneCount += pStats.tombstoneCount;
+            }
+        } catch (Throwable t) {
+            // Release the sstable files of the part before the error is recorded against the table.
+            for (SSTableReader reader : readers) {
+                reader.close();
+            }
+            throw t;
+        }
+        result.count(AnalysisResult.PARTITIONS, partitionCount);
+        result.count(AnalysisResult.SIZE, size);
+        result.count(AnalysisResult.ROWS, rowCount);
+        result.count(AnalysisResult.DELETED, rowDeleteCount);
+        result.count(AnalysisResult.CELLS, cellCount);
+        result.count(AnalysisResult.TOMBSTONES, tombstoneCount);
+        result.setLeaders(AnalysisResult.SIZE, largestPartitions, cfProxy::formatKey);
+        result.setLeaders(AnalysisResult.ROWS, widestPartitions, cfProxy::formatKey);
+        result.setLeaders(AnalysisResult.DELETED, mostDeletedRows, cfProxy::formatKey);
+        result.setLeaders(AnalysisResult.TOMBSTONES, tombstoneLeaders, cfProxy::formatKey);
+        result.setLeaders(AnalysisResult.SSTABLES, tableCountLeaders, cfProxy::formatKey);
+        result.sstables.addAll(partitionReader.getSSTableStatistics());
+        return result;
+    }
+
+    private MinMaxPriorityQueue<PartitionStatistics> leaders(Comparator<PartitionStatistics> comparator) {
+        return MinMaxPriorityQueue.orderedBy(comparator).maximumSize(numPartitions).create();
+    }
+
+    /**
+     * Print the report of a table, one table at a time.
+     */
+    private void report(Table table) {
+        synchronized (System.out) {
+            String name = table.ksName + "." + table.cfName;
+            if (table.error != null) {
+                System.err.println(String.format("Error analysing %s: %s", name, table.error));
+                return;
+            }
+            AnalysisResult result = table.result;
+            System.out.println(String.format("%s: %d sstables, %s in %d part%s, %s",
+                name,
+                table.sstableCount,
+                Util.humanReadableByteCount(table.size),
+                table.partCount,
+                table.partCount > 1 ? "s" : "",
+                Util.humanReadableDateDiff(table.startTime, table.endTime)));
+            if (result.counters.getOrDefault(AnalysisResult.PARTITIONS, 0L) == 0) {
+                System.out.println("No data found!");
+                System.out.println();
+                return;
+            }
+
+            TableBuilder ctb = new TableBuilder();
+            ctb.setHeader("", "Count");
+            for (String counter : result.counters.keySet()) {
+                ctb.addRow(ResultCombineCollector.capitalize(counter), ResultCombineCollector.format(counter, result.counters.get(counter)));
+            }
+            System.out.println(ctb);
+
+            TableBuilder ptb = new TableBuilder();
+            List<String> header = new ArrayList<>();
+            header.add("Percentile");
+            for (String histogram : result.histograms.keySet()) {
+                header.add(ResultCombineCollector.capitalize(histogram));
+            }
+            ptb.setHeader(header.toArray(new String[0]));
+            String[] labels = {"Minimum", "50%", "75%", "90%", "95%", "99%", "99.9%", "Maximum"};
+            double[] percentiles = {0, 0.5, 0.75, 0.9, 0.95, 0.99, 0.999, 1};
+            for (int i = 0; i < labels.length; i++) {
+                List<String> row = new ArrayList<>();
+                row.add(labels[i]);
+                for (String histogram : result.histograms.keySet()) {
+                    row.add(ResultCombineCollector.percentile(histogram, result.histograms.get(histogram), percentiles[i]));
+                }
+                ptb.addRow(row.toArray(new String[0]));
+            }
+            System.out.println(ptb);
+
+            System.out.println("Largest partitions:");
+            TableBuilder lptb = new TableBuilder();
+            lptb.setHeader("Key", "Size", "Rows", "(deleted)", "Tombstones", "(droppable)", "Cells", "SSTable Count");
+            for (AnalysisResult.Leader leader : result.leaders.get(AnalysisResult.SIZE)) {
+                PartitionStatistics p = leader.stats;
+                lptb.addRow(
+                    leader.key,
+                    Util.humanReadableByteCount(p.size),
+                    Long.toString(p.rowCount),
+                    Long.toString(p.rowDeleteCount),
+                    Long.toString(p.tombstoneCount),
+                    Long.toString(p.droppableTombstoneCount),
+                    Long.toString(p.cellCount),
+                    Long.toString(p.tableCount)
+                );
+            }
+            System.out.println(lptb);
+            System.out.flush();
+        }
+    }
+}
@@ -1,17 +1,30 @@
 package com.instaclustr.sstabletools.cli;
 
 import com.instaclustr.sstabletools.PurgeStatisticsCollector;
+import com.instaclustr.sstabletools.cassandra.CassandraBackend;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Model.CommandSpec;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.ScopeType;
 import picocli.CommandLine.Spec;
 
+import java.io.File;
+
 @Command(
         mixinStandardHelpOptions = true,
         subcommands = {
+                BatchStatisticsCollector.class,
                 ColumnFamilyStatisticsCollector.class,
+                CompactionSimulationCollector.class,
+                ExpiredSSTableBlockerCollector.class,
+                PartitionDiffCollector.class,
+                PartitionKeyStatisticsCollector.class,
+                PartitionQueryCollector.class,
                 PartitionSizeStatisticsCollector.class,
                 PurgeStatisticsCollector.class,
+                ResultCombineCollector.class,
+                SSTableOverlapCollector.class,
                 SSTableMetadataCollector.class,
                 SummaryCollector.class,
         },
@@ -23,6 +36,16 @@ public class CLI extends CLIApplication implements Runnable {
     @Spec
     private CommandSpec spec;
 
+    @Option(names = {"--data-dir"}, paramLabel = "<dir>", description = "Read copied sstables offline from a data, keyspace or table directory instead of the local node", arity = "1", scope = ScopeType.INHERIT)
+    public void setDataDirectory(File directory) {
+        CassandraBackend.setOfflineDirectory(directory);
+    }
+
+    @Option(names = {"--schema"}, paramLabel = "<file>", description = "File of CREATE TABLE statements of the tables read with --data-dir", arity = "1", scope = ScopeType.INHERIT)
+    public void setSchemaFile(File file) {
+        CassandraBackend.setSchemaFile(file);
+    }
+
     public static void main(String[] args) {
         main(args, true);
     }
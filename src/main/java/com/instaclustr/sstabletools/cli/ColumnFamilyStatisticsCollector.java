@@ -1,5 +1,7 @@
 package com.instaclustr.sstabletools.cli;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -8,20 +10,33 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 import com.google.common.collect.MinMaxPriorityQueue;
 import com.google.common.util.concurrent.RateLimiter;
+import com.instaclustr.sstabletools.AnalysisResult;
+import com.instaclustr.sstabletools.CandidatePartitionReader;
 import com.instaclustr.sstabletools.ColumnFamilyProxy;
 import com.instaclustr.sstabletools.Histogram;
+import com.instaclustr.sstabletools.LoadGovernor;
 import com.instaclustr.sstabletools.PartitionReader;
+import com.instaclustr.sstabletools.PartitionSampler;
 import com.instaclustr.sstabletools.PartitionStatistics;
+import com.instaclustr.sstabletools.PartitionStatisticsWriter;
 import com.instaclustr.sstabletools.ProgressBar;
+import com.instaclustr.sstabletools.ReadAheadScheduler;
 import com.instaclustr.sstabletools.SSTableReader;
+import com.instaclustr.sstabletools.SampleEstimate;
 import com.instaclustr.sstabletools.SSTableStatistics;
 import com.instaclustr.sstabletools.Snapshot;
+import com.instaclustr.sstabletools.SpillingPartitionReader;
 import com.instaclustr.sstabletools.TableBuilder;
+import com.instaclustr.sstabletools.TimeBudget;
+import com.instaclustr.sstabletools.TimeBudgetPartitionReader;
 import com.instaclustr.sstabletools.Util;
 import com.instaclustr.sstabletools.cassandra.CassandraBackend;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
@@ -41,12 +56,69 @@ public class ColumnFamilyStatisticsCollector implements Runnable {
     @Option(names = {"-t"}, description = "Snapshot name", arity = "1")
     public String snapshotName;
 
+    @Option(names = {"--no-snapshot"}, description = "Read the live sstables instead of creating a snapshot", arity = "0")
+    public boolean noSnapshot;
+
     @Option(names = {"-f"}, description = "Filter to sstables (comma separated)", defaultValue = "")
     public String filters;
 
     @Option(names = {"-b"}, description = "Batch mode", arity = "0")
     public boolean batch;
 
+    @Option(names = {"-a", "--adaptive"}, description = "Back off automatically when the host is under CPU or I/O pressure", arity = "0")
+    public boolean adaptive;
+
+    @Option(names = {"--max-rate"}, description = "Maximum read rate in MiB/s, defaults to unlimited", arity = "1", defaultValue = "0")
+    public double maxRate;
+
+    @Option(names = {"--sample"}, description = "Fraction of partitions to sample, defaults to 1 (all partitions)", arity = "1", defaultValue = "1")
+    public double sample;
+
+    @Option(names = {"--time-budget"}, description = "Stop after a wall-clock time (eg. 10m) and estimate totals from the token ranges read", arity = "1")
+    public String timeBudget;
+
+    @Option(names = {"--start-token"}, description = "Only read partitions with a token greater than this", arity = "1")
+    public String startToken;
+
+    @Option(names = {"--end-token"}, description = "Only read partitions with a token less than or equal to this", arity = "1")
+    public String endToken;
+
+    @Option(names = {"--ranges"}, description = "Only read partitions in token ranges (comma separated start:end pairs)", arity = "1")
+    public String tokenRanges;
+
+    @Option(names = {"--threads-per-disk"}, description = "Reader threads per data directory reading ahead of the merge, defaults to 0 (read on the merge thread)", arity = "1", defaultValue = "0")
+    public int threadsPerDisk;
+
+    @Option(names = {"--read-ahead"}, description = "Partitions buffered ahead of the merge per sstable when using reader threads, defaults to 256", arity = "1", defaultValue = "256")
+    public int readAhead;
+
+    @Option(names = {"--full-decode"}, description = "Decode full rows and cells instead of only their headers", arity = "0")
+    public boolean fullDecode;
+
+    @Option(names = {"--two-phase"}, description = "Read partition sizes from the indexes and only decode candidate partitions from Data.db", arity = "0")
+    public boolean twoPhase;
+
+    @Option(names = {"--min-size"}, description = "With --two-phase, decode partitions of at least this size (eg. 100MB)", arity = "1")
+    public String minSize;
+
+    @Option(names = {"--min-sstables"}, description = "With --two-phase, decode partitions in at least this many sstables", arity = "1", defaultValue = "0")
+    public int minSSTables;
+
+    @Option(names = {"--max-candidates"}, description = "With --two-phase, maximum partitions over --min-size or --min-sstables to decode, defaults to 100000", arity = "1", defaultValue = "100000")
+    public int maxCandidates;
+
+    @Option(names = {"--max-open"}, description = "Maximum sstables to open at once, spilling merged runs to disk when there are more, defaults to unlimited", arity = "1", defaultValue = "0")
+    public int maxOpen;
+
+    @Option(names = {"--spill-dir"}, description = "Directory to spill merged runs to, defaults to the temporary directory", arity = "1")
+    public String spillDir;
+
+    @Option(names = {"--export"}, description = "Write the statistics of every partition to a columnar file for the query command", arity = "1")
+    public String export;
+
+    @Option(names = {"--result"}, description = "Write a binary result that the combine command merges across nodes", arity = "1")
+    public String resultFile;
+
     @Parameters(arity = "2", description = "<keyspace> <table>")
     public List<String> params;
 
@@ -65,19 +137,82 @@ public class ColumnFamilyStatisticsCollector implements Runnable {
             interactive = false;
         }
 
+        LoadGovernor governor = null;
+        if (adaptive || maxRate > 0) {
+            governor = new LoadGovernor(maxRate * 1024 * 1024, Runtime.getRuntime().availableProcessors(), adaptive);
+        }
+
+        if (!(sample > 0 && sample <= 1)) {
+            System.err.println("--sample must be greater than 0 and at most 1, got " + sample);
+            System.exit(1);
+        }
+        PartitionSampler sampler = null;
+        if (sample < 1) {
+            sampler = new PartitionSampler(sample);
+        }
+
+        if (twoPhase && (sampler != null || timeBudget != null || maxOpen > 0)) {
+            System.err.println("--two-phase can not be combined with --sample, --time-budget or --max-open");
+            System.exit(1);
+        }
+        if (export != null && timeBudget != null) {
+            System.err.println("--export can not be combined with --time-budget as token ranges are read out of order");
+            System.exit(1);
+        }
+        if (maxCandidates < 0) {
+            System.err.println("--max-candidates must not be negative, got " + maxCandidates);
+            System.exit(1);
+        }
+
         final String ksName = params.get(0);
         final String cfName = params.get(1);
 
-        try (ColumnFamilyProxy cfProxy = CassandraBackend.getInstance().getColumnFamily(ksName, cfName, snapshotName, filter)) {
-            Collection<SSTableReader> sstableReaders = cfProxy.getDataReaders();
-            long totalLength = 0;
-            for (SSTableReader reader : sstableReaders) {
-                totalLength += reader.getSSTableStatistics().size;
-            }
-            if (totalLength == 0) {
-                System.out.println("No data found!");
-                System.exit(0);
+        try (ColumnFamilyProxy cfProxy = CassandraBackend.getInstance().getColumnFamily(ksName, cfName, snapshotName, filter, noSnapshot);
+             ReadAheadScheduler scheduler = threadsPerDisk > 0 ? new ReadAheadScheduler(threadsPerDisk, readAhead) : null) {
+            cfProxy.setFullDecode(fullDecode);
+            Function<Collection<SSTableReader>, Collection<SSTableReader>> schedule = readers -> scheduler != null ? scheduler.schedule(readers) : readers;
+            double fraction = sampler != null ? sampler.getFraction() : 1;
+            List<Range<Token>> ranges = Util.parseRanges(cfProxy.getPartitioner(), startToken, endToken, tokenRanges);
+            TimeBudget budget = null;
+            PartitionReader partitionReader;
+            if (timeBudget != null) {
+                budget = new TimeBudget(Util.parseDuration(timeBudget), cfProxy.getPartitioner(), ranges);
+                final PartitionSampler rangeSampler = sampler;
+                partitionReader = new TimeBudgetPartitionReader(budget, range -> schedule.apply(cfProxy.getDataReaders(rangeSampler, Collections.singleton(range))));
+            } else if (twoPhase) {
+                partitionReader = new CandidatePartitionReader(
+                    () -> ranges != null ? cfProxy.getIndexReaders(ranges) : cfProxy.getIndexReaders(),
+                    keys -> schedule.apply(cfProxy.getDataReaders(keys)),
+                    minSize != null ? Util.parseSize(minSize) : 0,
+                    minSSTables,
+                    numPartitions,
+                    maxCandidates
+                );
+            } else if (maxOpen > 0 && cfProxy.getSSTableCount() > maxOpen) {
+                final PartitionSampler groupSampler = sampler;
+                int groupCount = (cfProxy.getSSTableCount() + maxOpen - 1) / maxOpen;
+                partitionReader = new SpillingPartitionReader(
+                    groupCount,
+                    group -> schedule.apply(cfProxy.getDataReaders(groupSampler, ranges, group * maxOpen, maxOpen)),
+                    cfProxy.getPartitioner(),
+                    maxOpen,
+                    spillDir != null ? new File(spillDir) : null
+                );
+            } else {
+                Collection<SSTableReader> sstableReaders = schedule.apply(sampler != null || ranges != null ? cfProxy.getDataReaders(sampler, ranges) : cfProxy.getDataReaders());
+                long totalLength = 0;
+                for (SSTableReader reader : sstableReaders) {
+                    totalLength += reader.getSSTableStatistics().size;
+                }
+                if (totalLength == 0) {
+                    System.out.println("No data found!");
+                    return;
+                }
+                partitionReader = new PartitionReader(sstableReaders, Math.max(1, Math.round(totalLength * fraction)));
             }
+            boolean estimated = sampler != null || budget != null;
+            AnalysisResult result = resultFile != null ? new AnalysisResult("cfstats", ksName, cfName, cfProxy.getPartitioner()) : null;
+            PartitionStatisticsWriter exportWriter = export != null ? new PartitionStatisticsWriter(new File(export), cfProxy.getPartitioner(), ksName, cfName, fraction) : null;
 
             Histogram sizeHistogram = new Histogram();
             Histogram sstableHistogram = new Histogram();
@@ -89,6 +224,12 @@ public class ColumnFamilyStatisticsCollector implements Runnable {
             long rowDeleteCount = 0;
             long tombstoneCount = 0;
 
+            SampleEstimate partitionEstimate = new SampleEstimate(fraction);
+            SampleEstimate rowEstimate = new SampleEstimate(fraction);
+            SampleEstimate rowDeleteEstimate = new SampleEstimate(fraction);
+            SampleEstimate tombstoneEstimate = new SampleEstimate(fraction);
+            SampleEstimate sizeEstimate = new SampleEstimate(fraction);
+
             MinMaxPriorityQueue<PartitionStatistics> largestPartitions = MinMaxPriorityQueue
                 .orderedBy(PartitionStatistics.SIZE_COMPARATOR)
                 .maximumSize(numPartitions)
@@ -114,12 +255,15 @@ public class ColumnFamilyStatisticsCollector implements Runnable {
                 .maximumSize(numPartitions)
                 .create();
 
-            PartitionReader partitionReader = new PartitionReader(sstableReaders, totalLength);
             PartitionStatistics pStats;
             ProgressBar progressBar = new ProgressBar("Analyzing SSTables...", interactive);
             progressBar.updateProgress(0.0);
+            partitionReader.setProgressBar(progressBar);
             while ((pStats = partitionReader.read()) != null) {
                 progressBar.updateProgress(partitionReader.getProgress());
+                if (governor != null) {
+                    governor.acquire(pStats.size);
+                }
                 widestPartitions.add(pStats);
                 largestPartitions.add(pStats);
                 if (pStats.tombstoneCount > 0) {
@@ -138,6 +282,55 @@ public class ColumnFamilyStatisticsCollector implements Runnable {
                 rowDeleteCount += pStats.rowDeleteCount;
                 pStats.mergeTtl(ttl);
                 partitionCount++;
+                if (exportWriter != null) {
+                    exportWriter.add(pStats, cfProxy.formatKey(pStats.key));
+                }
+                if (result != null) {
+                    result.update(AnalysisResult.SIZE, pStats.size);
+                    result.update(AnalysisResult.SSTABLES, pStats.tableCount);
+                    result.update(AnalysisResult.ROWS, pStats.rowCount);
+                    result.update(AnalysisResult.TOMBSTONES, pStats.tombstoneCount);
+                    result.count(AnalysisResult.CELLS, pStats.cellCount);
+                }
+                if (estimated) {
+                    partitionEstimate.update(1);
+                    rowEstimate.update(pStats.rowCount);
+                    rowDeleteEstimate.update(pStats.rowDeleteCount);
+                    tombstoneEstimate.update(pStats.tombstoneCount);
+                    sizeEstimate.update(pStats.size);
+                }
+            }
+            progressBar.updateProgress(1.0);
+            if (exportWriter != null) {
+                exportWriter.close();
+            }
+            if (partitionCount == 0) {
+                System.out.println("No data found!");
+                return;
+            }
+            if (budget != null) {
+                fraction *= budget.getCoverage();
+                partitionEstimate.setFraction(fraction);
+                rowEstimate.setFraction(fraction);
+                rowDeleteEstimate.setFraction(fraction);
+                tombstoneEstimate.setFraction(fraction);
+                sizeEstimate.setFraction(fraction);
+            }
+            int sstableCount = partitionReader.getSSTableStatistics().size();
+            if (result != null) {
+                result.fraction = fraction;
+                result.count(AnalysisResult.PARTITIONS, partitionCount);
+                result.count(AnalysisResult.SIZE, sizeHistogram.snapshot().getTotal());
+                result.count(AnalysisResult.ROWS, rowCount);
+                result.count(AnalysisResult.DELETED, rowDeleteCount);
+                result.count(AnalysisResult.TOMBSTONES, tombstoneCount);
+                result.setLeaders(AnalysisResult.SIZE, largestPartitions, cfProxy::formatKey);
+                result.setLeaders(AnalysisResult.ROWS, widestPartitions, cfProxy::formatKey);
+                result.setLeaders(AnalysisResult.DELETED, mostDeletedRows, cfProxy::formatKey);
+                result.setLeaders(AnalysisResult.TOMBSTONES, tombstoneLeaders, cfProxy::formatKey);
+                result.setLeaders(AnalysisResult.SSTABLES, tableCountLeaders, cfProxy::formatKey);
+                result.sstables.addAll(partitionReader.getSSTableStatistics());
+                result.write(new File(resultFile));
             }
             Snapshot sizeSnapshot = sizeHistogram.snapshot();
             Snapshot sstableSnapshot = sstableHistogram.snapshot();
@@ -145,14 +338,22 @@ public class ColumnFamilyStatisticsCollector implements Runnable {
 
             cfProxy.close();
 
-            System.out.println("Summary:");
+            System.out.println(estimated ? "Summary (estimated, ± margin at 95% confidence):" : "Summary:");
             TableBuilder tb = new TableBuilder();
             tb.setHeader("", "Size", "SSTable");
-            tb.addRow("Count", Long.toString(partitionCount), "");
-            tb.addRow("Rows", Long.toString(rowCount), "");
-            tb.addRow("(deleted)", Long.toString(rowDeleteCount), "");
-            tb.addRow("Tombstones", Long.toString(tombstoneCount), "");
-            tb.addRow("Total", Util.humanReadableByteCount(sizeSnapshot.getTotal()), Integer.toString(sstableReaders.size()));
+            if (estimated) {
+                tb.addRow("Count", estimate(partitionEstimate), "");
+                tb.addRow("Rows", estimate(rowEstimate), "");
+                tb.addRow("(deleted)", estimate(rowDeleteEstimate), "");
+                tb.addRow("Tombstones", estimate(tombstoneEstimate), "");
+                tb.addRow("Total", Util.humanReadableByteCount(sizeEstimate.getEstimate()) + " ± " + Util.humanReadableByteCount(sizeEstimate.getMargin()), Integer.toString(sstableCount));
+            } else {
+                tb.addRow("Count", Long.toString(partitionCount), "");
+                tb.addRow("Rows", Long.toString(rowCount), "");
+                tb.addRow("(deleted)", Long.toString(rowDeleteCount), "");
+                tb.addRow("Tombstones", Long.toString(tombstoneCount), "");
+                tb.addRow("Total", Util.humanReadableByteCount(sizeSnapshot.getTotal()), Integer.toString(sstableCount));
+            }
             tb.addRow("Minimum", Util.humanReadableByteCount(sizeSnapshot.getMin()), Long.toString(sstableSnapshot.getMin()));
             tb.addRow("Average", Util.humanReadableByteCount(Math.round(sizeSnapshot.getMean())), String.format("%.1f", sstableSnapshot.getMean()));
             tb.addRow("std dev.", Util.humanReadableByteCount(Math.round(sizeSnapshot.getStdDev())), String.format("%.1f", sstableSnapshot.getStdDev()));
@@ -164,6 +365,42 @@ public class ColumnFamilyStatisticsCollector implements Runnable {
             tb.addRow("99.9%", Util.humanReadableByteCount(Math.round(sizeSnapshot.getPercentile(0.999))), String.format("%.1f", sstableSnapshot.getPercentile(0.999)));
             tb.addRow("Maximum", Util.humanReadableByteCount(sizeSnapshot.getMax()), Long.toString(sstableSnapshot.getMax()));
             System.out.println(tb);
+            if (exportWriter != null) {
+                System.out.println(String.format("Exported %d partitions to %s", partitionCount, export));
+                System.out.println();
+            }
+            if (twoPhase) {
+                CandidatePartitionReader candidateReader = (CandidatePartitionReader) partitionReader;
+                System.out.println(String.format("Two-phase: rows, cells, tombstones and TTLs only decoded for %d of %d partitions", candidateReader.getCandidateCount(), partitionCount));
+                if (candidateReader.getSkippedCount() > 0) {
+                    System.out.println(String.format("Warning: %d more partitions over --min-size or --min-sstables were not decoded as --max-candidates %d was reached, raise the thresholds or --max-candidates", candidateReader.getSkippedCount(), maxCandidates));
+                }
+                System.out.println();
+            }
+
+            if (estimated) {
+                if (budget != null) {
+                    System.out.println(String.format("Time budget: %.1f%% of token ranges read (%d of %d ranges completed)", budget.getCoverage() * 100, budget.getCompletedRanges(), budget.getRangeCount()));
+                }
+                System.out.println(String.format("Sample: %d partitions (%s%%), intervals at 95%% confidence", partitionCount, fraction * 100));
+                TableBuilder stb = new TableBuilder();
+                stb.setHeader("Percentile", "Size", "(interval)", "Rows", "(interval)");
+                String[] labels = {"50%", "75%", "90%", "95%", "99%", "99.9%"};
+                double[] percentiles = {0.5, 0.75, 0.9, 0.95, 0.99, 0.999};
+                for (int i = 0; i < percentiles.length; i++) {
+                    double percentile = percentiles[i];
+                    long[] sizeInterval = sizeSnapshot.getPercentileInterval(percentile, SampleEstimate.Z_95);
+                    long[] rowInterval = rowSnapshot.getPercentileInterval(percentile, SampleEstimate.Z_95);
+                    stb.addRow(
+                        labels[i],
+                        Util.humanReadableByteCount(Math.round(sizeSnapshot.getPercentile(percentile))),
+                        Util.humanReadableByteCount(sizeInterval[0]) + " - " + Util.humanReadableByteCount(sizeInterval[1]),
+                        Long.toString(Math.round(rowSnapshot.getPercentile(percentile))),
+                        rowInterval[0] + " - " + rowInterval[1]
+                    );
+                }
+                System.out.println(stb);
+            }
 
             System.out.println("Row Histogram:");
             TableBuilder rhtb = new TableBuilder();
@@ -335,7 +572,7 @@ public class ColumnFamilyStatisticsCollector implements Runnable {
                     Util.UTC_DATE_FORMAT.format(new Date(ts.maxTimestamp / 1000)),
                     Long.toString(ts.partitionCount),
                     Long.toString(ts.partitionDeleteCount),
-                    Util.humanReadableByteCount(ts.size / ts.partitionCount),
+                    Util.humanReadableByteCount(ts.partitionCount > 0 ? ts.size / ts.partitionCount : 0),
                     Util.humanReadableByteCount(ts.maxPartitionSize),
                     Long.toString(ts.rowCount),
                     Long.toString(ts.rowDeleteCount),
@@ -348,6 +585,13 @@ public class ColumnFamilyStatisticsCollector implements Runnable {
                 );
             }
             System.out.println(cltb);
+        } catch (IOException e) {
+            System.err.println("Unable to write results: " + e.getMessage());
+            System.exit(1);
         }
     }
+
+    private static String estimate(SampleEstimate estimate) {
+        return estimate.getEstimate() + " ± " + estimate.getMargin();
+    }
 }
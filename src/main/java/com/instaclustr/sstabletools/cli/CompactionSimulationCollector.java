@@ -0,0 +1,121 @@
+package com.instaclustr.sstabletools.cli;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.instaclustr.sstabletools.CassandraProxy;
+import com.instaclustr.sstabletools.CompactionSimulator;
+import com.instaclustr.sstabletools.SSTableMetadata;
+import com.instaclustr.sstabletools.TableBuilder;
+import com.instaclustr.sstabletools.Util;
+import com.instaclustr.sstabletools.cassandra.CassandraBackend;
+import org.apache.cassandra.db.compaction.LeveledCompactionStrategy;
+import org.apache.cassandra.db.compaction.SizeTieredCompactionStrategy;
+import org.apache.cassandra.db.compaction.TimeWindowCompactionStrategy;
+import org.apache.cassandra.db.compaction.UnifiedCompactionStrategy;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+/**
+ * Simulate compaction strategies over the sstables of a column family.
+ */
+@Command(
+    versionProvider = CLI.class,
+    name = "simulate",
+    usageHelpWidth = 128,
+    description = "Estimate the cost of compaction strategies over the sstables of a column family",
+    mixinStandardHelpOptions = true
+)
+public class CompactionSimulationCollector implements Runnable {
+
+    @Option(names = {"--flush-size"}, description = "Size of a flushed sstable in MiB, defaults to the smallest sstable", arity = "1", defaultValue = "0")
+    public double flushSize;
+
+    @Option(names = {"--min-threshold"}, description = "STCS and TWCS min_threshold, at least 2, defaults to 4", arity = "1", defaultValue = "4")
+    public int minThreshold;
+
+    @Option(names = {"--sstable-size"}, description = "LCS sstable_size_in_mb, defaults to 160", arity = "1", defaultValue = "160")
+    public long sstableSize;
+
+    @Option(names = {"--fanout"}, description = "LCS fanout_size, at least 2, defaults to 10", arity = "1", defaultValue = "10")
+    public int fanout;
+
+    @Option(names = {"--window"}, description = "TWCS time window (eg. 1d), defaults to 1d", arity = "1", defaultValue = "1d")
+    public String window;
+
+    @Option(names = {"--scaling"}, description = "UCS scaling_parameters (comma separated), defaults to T4,L10", arity = "1", defaultValue = "T4,L10")
+    public String scaling;
+
+    @Parameters(arity = "2", description = "<keyspace> <table>")
+    public List<String> params;
+
+    @Override
+    public void run() {
+        String ksName = params.get(0);
+        String cfName = params.get(1);
+
+        if (minThreshold < 2) {
+            System.err.println("--min-threshold must be at least 2, got " + minThreshold);
+            System.exit(1);
+        }
+        if (fanout < 2) {
+            System.err.println("--fanout must be at least 2, got " + fanout);
+            System.exit(1);
+        }
+        List<String> scalingParameters = Arrays.asList(scaling.split(","));
+        for (String scalingParameter : scalingParameters) {
+            try {
+                CompactionSimulator.parseScalingParameter(scalingParameter);
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        CassandraProxy proxy = CassandraBackend.getInstance();
+        List<SSTableMetadata> metadataCollection = proxy.getSSTableMetadata(ksName, cfName);
+        Class<?> compactionClass = proxy.getCompactionClass(ksName, cfName);
+        if (metadataCollection.isEmpty()) {
+            System.out.println("No sstables found!");
+            return;
+        }
+
+        CompactionSimulator simulator = new CompactionSimulator(metadataCollection, (long) (flushSize * 1024 * 1024));
+
+        System.out.println("Current:");
+        TableBuilder tb = new TableBuilder();
+        tb.setHeader("Strategy", "SSTables", "Disk Size", "Flush Size", "Avg Overlap", "Max Overlap");
+        tb.addRow(
+            compactionClass.getSimpleName(),
+            Integer.toString(metadataCollection.size()),
+            Util.humanReadableByteCount(simulator.getTotalSize()),
+            Util.humanReadableByteCount(simulator.getFlushSize()),
+            String.format("%.1f", simulator.getAverageOverlap()),
+            Integer.toString(simulator.getMaxOverlap())
+        );
+        System.out.println(tb);
+
+        System.out.println("Strategies:");
+        tb = new TableBuilder();
+        tb.setHeader("Strategy", "Levels", "Rewrite", "Write Amp", "SSTables/Read", "Current");
+        addResult(tb, simulator.simulateSTCS(minThreshold), compactionClass.equals(SizeTieredCompactionStrategy.class));
+        addResult(tb, simulator.simulateLCS(sstableSize * 1024 * 1024, fanout, compactionClass.equals(LeveledCompactionStrategy.class)), compactionClass.equals(LeveledCompactionStrategy.class));
+        addResult(tb, simulator.simulateTWCS(Util.parseDuration(window), minThreshold), compactionClass.equals(TimeWindowCompactionStrategy.class));
+        for (String scalingParameter : scalingParameters) {
+            addResult(tb, simulator.simulateUCS(scalingParameter.trim()), compactionClass.equals(UnifiedCompactionStrategy.class));
+        }
+        System.out.println(tb);
+    }
+
+    private static void addResult(TableBuilder tb, CompactionSimulator.Result result, boolean current) {
+        tb.addRow(
+            result.strategy,
+            Integer.toString(result.levels),
+            Util.humanReadableByteCount(result.rewrite),
+            String.format("%.1f", result.writeAmplification),
+            String.format("%.1f", result.readAmplification),
+            current ? "*" : ""
+        );
+    }
+}
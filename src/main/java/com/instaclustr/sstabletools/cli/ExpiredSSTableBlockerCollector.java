@@ -0,0 +1,176 @@
+package com.instaclustr.sstabletools.cli;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.instaclustr.sstabletools.CassandraProxy;
+import com.instaclustr.sstabletools.SSTableMetadata;
+import com.instaclustr.sstabletools.TableBuilder;
+import com.instaclustr.sstabletools.Util;
+import com.instaclustr.sstabletools.cassandra.CassandraBackend;
+import org.apache.cassandra.db.compaction.TimeWindowCompactionStrategy;
+import org.apache.cassandra.db.compaction.TimeWindowCompactionStrategyOptions;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+/**
+ * Find fully expired sstables and the sstables blocking them from being dropped.
+ * <p>
+ * As in Cassandra's CompactionController.getFullyExpiredSSTables, an sstable whose data has all expired before
+ * gcBefore can only be dropped if its maximum timestamp is older than the minimum timestamp of every sstable that is
+ * not itself fully expired, whatever their key ranges. Otherwise the older data could be shadowed by tombstones in the
+ * expired sstable. Memtables also hold back expired sstables in Cassandra but are not seen here. With TWCS
+ * unsafe_aggressive_sstable_expiration every expired sstable is dropped.
+ */
+@Command(
+    versionProvider = CLI.class,
+    name = "twcs",
+    usageHelpWidth = 128,
+    description = "Fully expired sstables and the sstables blocking them from being dropped",
+    mixinStandardHelpOptions = true
+)
+public class ExpiredSSTableBlockerCollector implements Runnable {
+
+    @Option(names = {"--gc-grace"}, description = "gc_grace_seconds to use instead of the table's (eg. 1d)", arity = "1")
+    public String gcGrace;
+
+    @Parameters(arity = "2", description = "<keyspace> <table>")
+    public List<String> params;
+
+    @Override
+    public void run() {
+        String ksName = params.get(0);
+        String cfName = params.get(1);
+
+        CassandraProxy proxy = CassandraBackend.getInstance();
+        List<SSTableMetadata> metadataCollection = proxy.getSSTableMetadata(ksName, cfName);
+        if (!proxy.getCompactionClass(ksName, cfName).equals(TimeWindowCompactionStrategy.class)) {
+            System.out.println("Warning: table does not use TimeWindowCompactionStrategy");
+        }
+        // Cassandra also needs -Dcassandra.allow_unsafe_aggressive_sstable_expiration=true on the node to honour it.
+        boolean ignoreOverlaps = Boolean.parseBoolean(proxy.getCompactionOptions(ksName, cfName).get(TimeWindowCompactionStrategyOptions.UNSAFE_AGGRESSIVE_SSTABLE_EXPIRATION_KEY));
+        int gcGraceSeconds = gcGrace != null ? (int) (Util.parseDuration(gcGrace) / 1000) : proxy.getGcGraceSeconds(ksName, cfName);
+        long gcBefore = Util.NOW_SECONDS - gcGraceSeconds;
+
+        List<SSTableMetadata> expired = new ArrayList<>();
+        List<SSTableMetadata> live = new ArrayList<>();
+        long minTimestamp = Long.MAX_VALUE;
+        for (SSTableMetadata metadata : metadataCollection) {
+            if (metadata.maxLocalDeletionTime < gcBefore) {
+                expired.add(metadata);
+            } else {
+                live.add(metadata);
+                minTimestamp = Math.min(minTimestamp, metadata.minTimestamp);
+            }
+        }
+        Collections.sort(expired, SSTableMetadata.TWCS_COMPARATOR);
+
+        // Blockers of each expired sstable, and the expired sstables each blocker holds back.
+        Map<SSTableMetadata, List<SSTableMetadata>> blockersByExpired = new HashMap<>();
+        Map<SSTableMetadata, List<SSTableMetadata>> blockedByBlocker = new HashMap<>();
+        long droppableSize = 0;
+        long blockedSize = 0;
+        int droppableCount = 0;
+        for (SSTableMetadata candidate : expired) {
+            List<SSTableMetadata> blockers = new ArrayList<>();
+            if (!ignoreOverlaps && candidate.maxTimestamp >= minTimestamp) {
+                // Any live sstable with data as old as the candidate blocks it, wherever its keys are.
+                for (SSTableMetadata other : live) {
+                    if (other.minTimestamp <= candidate.maxTimestamp) {
+                        blockers.add(other);
+                        blockedByBlocker.computeIfAbsent(other, k -> new ArrayList<>()).add(candidate);
+                    }
+                }
+            }
+            blockersByExpired.put(candidate, blockers);
+            if (blockers.isEmpty()) {
+                droppableCount++;
+                droppableSize += candidate.diskLength;
+            } else {
+                blockedSize += candidate.diskLength;
+            }
+        }
+
+        System.out.println("Summary:");
+        TableBuilder tb = new TableBuilder();
+        tb.setHeader("", "SSTables", "Disk Size");
+        tb.addRow("Droppable", Integer.toString(droppableCount), Util.humanReadableByteCount(droppableSize));
+        tb.addRow("Blocked", Integer.toString(expired.size() - droppableCount), Util.humanReadableByteCount(blockedSize));
+        System.out.println(tb);
+        System.out.println(String.format("gcBefore: %s (gc_grace_seconds %d)", Util.UTC_DATE_FORMAT.format(new Date(gcBefore * 1000L)), gcGraceSeconds));
+        if (ignoreOverlaps) {
+            System.out.println("unsafe_aggressive_sstable_expiration is set: expired sstables are dropped without checking other sstables");
+        } else {
+            System.out.println("Memtables are not taken into account: unflushed data as old as an expired sstable also blocks it");
+        }
+        System.out.println();
+
+        if (expired.isEmpty()) {
+            System.out.println("No fully expired sstables found!");
+            return;
+        }
+
+        System.out.println("Expired SSTables:");
+        tb = new TableBuilder();
+        tb.setHeader("SSTable", "Disk Size", "Max Timestamp", "Max Deletion Time", "Status", "Blocked By");
+        for (SSTableMetadata candidate : expired) {
+            List<SSTableMetadata> blockers = blockersByExpired.get(candidate);
+            List<String> names = new ArrayList<>(blockers.size());
+            for (SSTableMetadata blocker : blockers) {
+                names.add(blocker.filename);
+            }
+            tb.addRow(
+                candidate.filename,
+                Util.humanReadableByteCount(candidate.diskLength),
+                Util.UTC_DATE_FORMAT.format(new Date(candidate.maxTimestamp / 1000)),
+                Util.UTC_DATE_FORMAT.format(new Date(candidate.maxLocalDeletionTime * 1000L)),
+                blockers.isEmpty() ? "Droppable" : "Blocked",
+                String.join(",", names)
+            );
+        }
+        System.out.println(tb);
+
+        if (blockedByBlocker.isEmpty()) {
+            return;
+        }
+
+        List<SSTableMetadata> blockers = new ArrayList<>(blockedByBlocker.keySet());
+        Map<SSTableMetadata, Long> stuck = new HashMap<>();
+        Map<SSTableMetadata, Long> soleStuck = new HashMap<>();
+        for (SSTableMetadata blocker : blockers) {
+            long size = 0;
+            long sole = 0;
+            for (SSTableMetadata candidate : blockedByBlocker.get(blocker)) {
+                size += candidate.diskLength;
+                if (blockersByExpired.get(candidate).size() == 1) {
+                    sole += candidate.diskLength;
+                }
+            }
+            stuck.put(blocker, size);
+            soleStuck.put(blocker, sole);
+        }
+        blockers.sort((o1, o2) -> -Long.compare(stuck.get(o1), stuck.get(o2)));
+
+        System.out.println("Blockers:");
+        tb = new TableBuilder();
+        tb.setHeader("SSTable", "Disk Size", "Min Timestamp", "Max Timestamp", "Max Deletion Time", "Blocked", "Stuck", "Sole Blocker Of");
+        for (SSTableMetadata blocker : blockers) {
+            tb.addRow(
+                blocker.filename,
+                Util.humanReadableByteCount(blocker.diskLength),
+                Util.UTC_DATE_FORMAT.format(new Date(blocker.minTimestamp / 1000)),
+                Util.UTC_DATE_FORMAT.format(new Date(blocker.maxTimestamp / 1000)),
+                blocker.maxLocalDeletionTime != Long.MAX_VALUE ? Util.UTC_DATE_FORMAT.format(new Date(blocker.maxLocalDeletionTime * 1000L)) : "",
+                Integer.toString(blockedByBlocker.get(blocker).size()),
+                Util.humanReadableByteCount(stuck.get(blocker)),
+                Util.humanReadableByteCount(soleStuck.get(blocker))
+            );
+        }
+        System.out.println(tb);
+    }
+}
@@ -0,0 +1,287 @@
+package com.instaclustr.sstabletools.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.collect.MinMaxPriorityQueue;
+import com.instaclustr.sstabletools.PartitionStatisticsFile;
+import com.instaclustr.sstabletools.TableBuilder;
+import com.instaclustr.sstabletools.Util;
+import org.apache.cassandra.db.DecoratedKey;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+/**
+ * Compare two files exported by cfstats --export to find growing partitions.
+ * <p>
+ * Both files are in token order so they are merged in a single pass, pairing up partitions found in both and
+ * collecting partitions only found in one of them. Sampled exports are refused, as partitions missing from a sample
+ * would be reported as new or vanished.
+ */
+@Command(
+    versionProvider = CLI.class,
+    name = "diff",
+    usageHelpWidth = 128,
+    description = "Growth of partitions between two exports of cfstats --export",
+    mixinStandardHelpOptions = true
+)
+public class PartitionDiffCollector implements Runnable {
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    @Option(names = {"-n"}, description = "Number of partitions to display, defaults to 10", arity = "1", defaultValue = "10")
+    public int numPartitions;
+
+    @Option(names = {"--by"}, description = "Column to compare: size, rows or tombstones, defaults to size", arity = "1", defaultValue = PartitionStatisticsFile.SIZE)
+    public String by;
+
+    @Option(names = {"--min-size"}, description = "Minimum size of a partition for relative growth, defaults to 1MB", arity = "1", defaultValue = "1MB")
+    public String minSize;
+
+    @Option(names = {"--danger"}, description = "Partition size to warn about, defaults to 100MB", arity = "1", defaultValue = "100MB")
+    public String danger;
+
+    @Option(names = {"--horizon"}, description = "Warn about partitions projected to reach the danger size within this time, defaults to 30d", arity = "1", defaultValue = "30d")
+    public String horizon;
+
+    @Parameters(arity = "2", description = "<previous file> <current file>")
+    public List<String> params;
+
+    /**
+     * Partition in the previous and/or current export.
+     */
+    private static class Change {
+        /**
+         * Row in the previous export, or -1 if new.
+         */
+        int before = -1;
+
+        /**
+         * Row in the current export, or -1 if vanished.
+         */
+        int after = -1;
+
+        long oldValue;
+        long newValue;
+        long oldSize;
+        long newSize;
+
+        long growth() {
+            return newValue - oldValue;
+        }
+
+        double relativeGrowth() {
+            return oldValue > 0 ? (newValue - oldValue) / (double) oldValue : Double.POSITIVE_INFINITY;
+        }
+    }
+
+    @Override
+    public void run() {
+        PartitionStatisticsFile previous = open(params.get(0));
+        PartitionStatisticsFile current = open(params.get(1));
+        if (!previous.getKeyspace().equals(current.getKeyspace()) || !previous.getTable().equals(current.getTable())) {
+            System.err.println("Exports are for different tables: " + previous.getKeyspace() + "." + previous.getTable() + " and " + current.getKeyspace() + "." + current.getTable());
+            System.exit(1);
+        }
+        if (!previous.getPartitionerName().equals(current.getPartitionerName())) {
+            System.err.println("Exports use different partitioners: " + previous.getPartitionerName() + " and " + current.getPartitionerName());
+            System.exit(1);
+        }
+        for (PartitionStatisticsFile file : new PartitionStatisticsFile[]{previous, current}) {
+            if (!file.isComplete()) {
+                System.err.println(String.format("%s only holds a %s%% sample of partitions, export every partition to diff", file.getFilename(), file.getFraction() * 100));
+                System.exit(1);
+            }
+        }
+        if (!by.equals(PartitionStatisticsFile.SIZE) && !by.equals(PartitionStatisticsFile.ROWS) && !by.equals(PartitionStatisticsFile.TOMBSTONES)) {
+            System.err.println("Unable to compare by " + by + ", expected size, rows or tombstones");
+            System.exit(1);
+        }
+        long minSizeBytes = Util.parseSize(minSize);
+        long dangerBytes = Util.parseSize(danger);
+        long horizonMillis = Util.parseDuration(horizon);
+        double days = Math.max(current.getCreated() - previous.getCreated(), 1) / (double) MILLIS_PER_DAY;
+
+        int previousColumn = previous.getColumn(by);
+        int currentColumn = current.getColumn(by);
+        int previousSize = previous.getColumn(PartitionStatisticsFile.SIZE);
+        int currentSize = current.getColumn(PartitionStatisticsFile.SIZE);
+
+        MinMaxPriorityQueue<Change> absoluteGrowth = MinMaxPriorityQueue
+            .orderedBy(Comparator.comparingLong(Change::growth).reversed())
+            .maximumSize(numPartitions)
+            .create();
+        MinMaxPriorityQueue<Change> relativeGrowth = MinMaxPriorityQueue
+            .orderedBy(Comparator.comparingDouble(Change::relativeGrowth).reversed())
+            .maximumSize(numPartitions)
+            .create();
+        MinMaxPriorityQueue<Change> newPartitions = MinMaxPriorityQueue
+            .orderedBy(Comparator.comparingLong((Change c) -> c.newValue).reversed())
+            .maximumSize(numPartitions)
+            .create();
+        MinMaxPriorityQueue<Change> vanishedPartitions = MinMaxPriorityQueue
+            .orderedBy(Comparator.comparingLong((Change c) -> c.oldValue).reversed())
+            .maximumSize(numPartitions)
+            .create();
+        List<Change> dangerZone = new ArrayList<>();
+
+        long common = 0;
+        long added = 0;
+        long vanished = 0;
+        long previousTotal = 0;
+        long currentTotal = 0;
+        int i = 0;
+        int j = 0;
+        DecoratedKey previousKey = key(previous, i, null);
+        DecoratedKey currentKey = key(current, j, null);
+        while (previousKey != null || currentKey != null) {
+            int cmp = previousKey == null ? 1 : currentKey == null ? -1 : previousKey.compareTo(currentKey);
+            Change change = new Change();
+            if (cmp <= 0) {
+                change.before = i;
+                change.oldValue = previous.getLong(previousColumn, i);
+                change.oldSize = previous.getLong(previousSize, i);
+                previousTotal += change.oldSize;
+                i++;
+                previousKey = key(previous, i, previousKey);
+            }
+            if (cmp >= 0) {
+                change.after = j;
+                change.newValue = current.getLong(currentColumn, j);
+                change.newSize = current.getLong(currentSize, j);
+                currentTotal += change.newSize;
+                j++;
+                currentKey = key(current, j, currentKey);
+            }
+            if (change.before < 0) {
+                added++;
+                newPartitions.add(change);
+            } else if (change.after < 0) {
+                vanished++;
+                vanishedPartitions.add(change);
+            } else {
+                common++;
+                if (change.growth() > 0) {
+                    absoluteGrowth.add(change);
+                    if (change.newSize >= minSizeBytes) {
+                        relativeGrowth.add(change);
+                    }
+                }
+            }
+            // Only project growth of partitions in both exports, a new partition has no rate of growth to go on.
+            if (change.after >= 0 && change.newSize >= dangerBytes) {
+                dangerZone.add(change);
+            } else if (change.before >= 0 && change.after >= 0 && change.newSize > change.oldSize
+                       && daysToDanger(change, dangerBytes, days) * MILLIS_PER_DAY <= horizonMillis) {
+                dangerZone.add(change);
+            }
+        }
+
+        System.out.println("Summary:");
+        TableBuilder tb = new TableBuilder();
+        tb.setHeader("", "Previous", "Current");
+        tb.addRow("Analysed", Util.UTC_DATE_FORMAT.format(previous.getCreated()), Util.UTC_DATE_FORMAT.format(current.getCreated()));
+        tb.addRow("Partitions", Integer.toString(previous.getCount()), Integer.toString(current.getCount()));
+        tb.addRow("Total size", Util.humanReadableByteCount(previousTotal), Util.humanReadableByteCount(currentTotal));
+        tb.addRow("In both", Long.toString(common), Long.toString(common));
+        tb.addRow("Only in this export", Long.toString(vanished), Long.toString(added));
+        System.out.println(tb);
+
+        print("Largest growth in " + by + ":", absoluteGrowth, previous, current);
+        print("Largest relative growth in " + by + " (partitions of at least " + Util.humanReadableByteCount(minSizeBytes) + "):", relativeGrowth, previous, current);
+        print("New partitions:", newPartitions, previous, current);
+        print("Vanished partitions:", vanishedPartitions, previous, current);
+
+        if (!dangerZone.isEmpty()) {
+            dangerZone.sort(Comparator.comparingDouble((Change c) -> daysToDanger(c, dangerBytes, days)).thenComparing(Comparator.comparingLong((Change c) -> c.newSize).reversed()));
+            System.out.println(String.format("Danger zone: %d partitions at or projected to reach %s within %s", dangerZone.size(), Util.humanReadableByteCount(dangerBytes), horizon));
+            TableBuilder dtb = new TableBuilder();
+            dtb.setHeader("Key", "Previous Size", "Current Size", "Growth per day", "Days to " + Util.humanReadableByteCount(dangerBytes));
+            for (Change change : dangerZone.subList(0, Math.min(numPartitions, dangerZone.size()))) {
+                double remaining = daysToDanger(change, dangerBytes, days);
+                dtb.addRow(
+                    current.getString(current.getColumn(PartitionStatisticsFile.KEY), change.after),
+                    change.before >= 0 ? Util.humanReadableByteCount(change.oldSize) : "",
+                    Util.humanReadableByteCount(change.newSize),
+                    change.before >= 0 ? Util.humanReadableByteCount(Math.round((change.newSize - change.oldSize) / days)) : "",
+                    remaining > 0 ? String.format("%.1f", remaining) : "reached"
+                );
+            }
+            System.out.println(dtb);
+        }
+    }
+
+    /**
+     * Get the key of the next partition of an export, exiting if it is not after the last key as the merge relies
+     * on token order.
+     *
+     * @param file    Export.
+     * @param row     Partition index.
+     * @param lastKey Key of the previous partition, or null if none.
+     * @return Key, or null if there are no more partitions.
+     */
+    private static DecoratedKey key(PartitionStatisticsFile file, int row, DecoratedKey lastKey) {
+        if (row >= file.getCount()) {
+            return null;
+        }
+        DecoratedKey key = file.getKey(row);
+        if (lastKey != null && key.compareTo(lastKey) <= 0) {
+            System.err.println(String.format("%s is not in token order at partition %d: %s is not after %s", file.getFilename(), row, key, lastKey));
+            System.exit(1);
+        }
+        return key;
+    }
+
+    /**
+     * Days until a growing partition reaches the danger size, growing at the rate between the two exports.
+     */
+    private static double daysToDanger(Change change, long dangerBytes, double days) {
+        if (change.newSize >= dangerBytes) {
+            return 0;
+        }
+        return (dangerBytes - change.newSize) / ((change.newSize - change.oldSize) / days);
+    }
+
+    private void print(String title, MinMaxPriorityQueue<Change> changes, PartitionStatisticsFile previous, PartitionStatisticsFile current) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        System.out.println(title);
+        TableBuilder tb = new TableBuilder();
+        tb.setHeader("Key", "Previous", "Current", "Growth", "(relative)", "Size", "SSTable Count");
+        boolean isSize = by.equals(PartitionStatisticsFile.SIZE);
+        while (!changes.isEmpty()) {
+            Change change = changes.remove();
+            PartitionStatisticsFile file = change.after >= 0 ? current : previous;
+            int row = change.after >= 0 ? change.after : change.before;
+            double relative = change.relativeGrowth();
+            tb.addRow(
+                file.getString(file.getColumn(PartitionStatisticsFile.KEY), row),
+                change.before >= 0 ? format(change.oldValue, isSize) : "",
+                change.after >= 0 ? format(change.newValue, isSize) : "",
+                (change.growth() > 0 ? "+" : change.growth() < 0 ? "-" : "") + format(Math.abs(change.growth()), isSize),
+                Double.isInfinite(relative) ? "" : String.format("%+.1f%%", relative * 100),
+                Util.humanReadableByteCount(file.getLong(file.getColumn(PartitionStatisticsFile.SIZE), row)),
+                Long.toString(file.getLong(file.getColumn(PartitionStatisticsFile.SSTABLES), row))
+            );
+        }
+        System.out.println(tb);
+    }
+
+    private static String format(long value, boolean isSize) {
+        return isSize ? Util.humanReadableByteCount(value) : Long.toString(value);
+    }
+
+    private static PartitionStatisticsFile open(String filename) {
+        try {
+            return PartitionStatisticsFile.open(new File(filename));
+        } catch (IOException e) {
+            System.err.println("Unable to read " + filename + ": " + e.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
+}
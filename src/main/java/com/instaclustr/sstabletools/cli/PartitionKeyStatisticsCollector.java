@@ -0,0 +1,169 @@
+package com.instaclustr.sstabletools.cli;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.instaclustr.sstabletools.ColumnFamilyProxy;
+import com.instaclustr.sstabletools.PartitionReader;
+import com.instaclustr.sstabletools.PartitionStatistics;
+import com.instaclustr.sstabletools.SSTableReader;
+import com.instaclustr.sstabletools.SSTableStatistics;
+import com.instaclustr.sstabletools.TableBuilder;
+import com.instaclustr.sstabletools.Util;
+import com.instaclustr.sstabletools.cassandra.CassandraBackend;
+import org.apache.cassandra.db.DecoratedKey;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+@Command(
+    versionProvider = CLI.class,
+    name = "keys",
+    usageHelpWidth = 128,
+    description = "Detailed statistics about specific partitions of a column family",
+    mixinStandardHelpOptions = true
+)
+public class PartitionKeyStatisticsCollector implements Runnable {
+
+    @Option(names = {"-t"}, description = "Snapshot name", arity = "1")
+    public String snapshotName;
+
+    @Option(names = {"--no-snapshot"}, description = "Read the live sstables instead of creating a snapshot", arity = "0")
+    public boolean noSnapshot;
+
+    @Option(names = {"-f"}, description = "Filter to sstables (comma separated)", defaultValue = "")
+    public String filters;
+
+    @Option(names = {"-k", "--keys-file"}, description = "File with partition keys to look up, one per line", arity = "1")
+    public String keysFile;
+
+    @Parameters(arity = "2..*", description = "<keyspace> <table> [<key>...]")
+    public List<String> params;
+
+    @Override
+    public void run() {
+
+        Collection<String> filter = null;
+
+        if (!filters.isEmpty()) {
+            String[] names = filters.split(",");
+            filter = Arrays.asList(names);
+        }
+
+        final String ksName = params.get(0);
+        final String cfName = params.get(1);
+
+        List<String> keyNames = new ArrayList<>(params.subList(2, params.size()));
+        if (keysFile != null) {
+            try {
+                for (String line : Files.readAllLines(Paths.get(keysFile))) {
+                    if (!line.trim().isEmpty()) {
+                        keyNames.add(line.trim());
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Unable to read keys file " + keysFile + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+        if (keyNames.isEmpty()) {
+            System.err.println("No partition keys given");
+            System.exit(1);
+        }
+
+        try (ColumnFamilyProxy cfProxy = CassandraBackend.getInstance().getColumnFamily(ksName, cfName, snapshotName, filter, noSnapshot)) {
+            Set<DecoratedKey> keySet = new HashSet<>();
+            for (String keyName : keyNames) {
+                keySet.add(cfProxy.parseKey(keyName));
+            }
+            List<DecoratedKey> keys = new ArrayList<>(keySet);
+            Collections.sort(keys);
+
+            Collection<SSTableReader> sstableReaders = cfProxy.getDataReaders(keys);
+            PartitionReader partitionReader = new PartitionReader(sstableReaders, 1);
+            List<PartitionStatistics> partitions = new ArrayList<>(keys.size());
+            Set<DecoratedKey> found = new HashSet<>();
+            Map<Integer, Long> ttl = new HashMap<>();
+            PartitionStatistics pStats;
+            while ((pStats = partitionReader.read()) != null) {
+                partitions.add(pStats);
+                found.add(pStats.key);
+                pStats.mergeTtl(ttl);
+            }
+
+            cfProxy.close();
+
+            System.out.println("Partitions:");
+            TableBuilder ptb = new TableBuilder();
+            ptb.setHeader("Key", "Size", "Rows", "(deleted)", "Tombstones", "(droppable)", "Cells", "SSTable Count");
+            for (PartitionStatistics p : partitions) {
+                ptb.addRow(
+                    cfProxy.formatKey(p.key),
+                    Util.humanReadableByteCount(p.size),
+                    Long.toString(p.rowCount),
+                    Long.toString(p.rowDeleteCount),
+                    Long.toString(p.tombstoneCount),
+                    Long.toString(p.droppableTombstoneCount),
+                    Long.toString(p.cellCount),
+                    Long.toString(p.tableCount)
+                );
+            }
+            System.out.println(ptb);
+
+            if (found.size() < keys.size()) {
+                System.out.println("Not found:");
+                TableBuilder nftb = new TableBuilder();
+                nftb.setHeader("Key");
+                for (DecoratedKey key : keys) {
+                    if (!found.contains(key)) {
+                        nftb.addRow(cfProxy.formatKey(key));
+                    }
+                }
+                System.out.println(nftb);
+            }
+
+            if (!ttl.isEmpty()) {
+                System.out.println("TTL:");
+                TableBuilder ttltb = new TableBuilder();
+                ttltb.setHeader("TTL", "Count");
+                for (Map.Entry<Integer, Long> entry : ttl.entrySet()) {
+                    if (entry.getKey() == PartitionStatistics.NO_TTL) {
+                        ttltb.addRow("NO_TTL", Long.toString(entry.getValue()));
+                    } else {
+                        ttltb.addRow(Util.humanReadableDateDiff(0, entry.getKey() * 1000L), Long.toString(entry.getValue()));
+                    }
+                }
+                System.out.println(ttltb);
+            }
+
+            System.out.println("SSTables:");
+            TableBuilder cltb = new TableBuilder();
+            cltb.setHeader("SSTable", "Partitions", "Size", "Rows", "(deleted)", "Tombstones", "(droppable)");
+            for (SSTableStatistics ts : partitionReader.getSSTableStatistics()) {
+                if (ts.partitionCount == 0) {
+                    continue;
+                }
+                cltb.addRow(
+                    ts.filename,
+                    Long.toString(ts.partitionCount),
+                    Util.humanReadableByteCount(ts.size),
+                    Long.toString(ts.rowCount),
+                    Long.toString(ts.rowDeleteCount),
+                    Long.toString(ts.tombstoneCount),
+                    Long.toString(ts.droppableTombstoneCount)
+                );
+            }
+            System.out.println(cltb);
+        }
+    }
+}
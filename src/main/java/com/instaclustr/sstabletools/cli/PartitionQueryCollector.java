@@ -0,0 +1,275 @@
+package com.instaclustr.sstabletools.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.collect.MinMaxPriorityQueue;
+import com.instaclustr.sstabletools.PartitionStatisticsFile;
+import com.instaclustr.sstabletools.TableBuilder;
+import com.instaclustr.sstabletools.Util;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+/**
+ * Filter, group and rank the partitions of a file exported by cfstats --export.
+ */
+@Command(
+    versionProvider = CLI.class,
+    name = "query",
+    usageHelpWidth = 128,
+    description = "Filter, group and rank partitions exported by cfstats --export",
+    mixinStandardHelpOptions = true
+)
+public class PartitionQueryCollector implements Runnable {
+    private static final Pattern CONDITION = Pattern.compile("^\\s*(\\w+)\\s*(>=|<=|!=|=|>|<)\\s*(.+?)\\s*$");
+
+    private static final long MICROS_PER_DAY = 24L * 60 * 60 * 1000 * 1000;
+
+    @Option(names = {"-n"}, description = "Number of partitions to display, defaults to 10", arity = "1", defaultValue = "10")
+    public int numPartitions;
+
+    @Option(names = {"-w", "--where"}, description = "Condition on a column (eg. size>100MB), repeat for more conditions", arity = "1")
+    public List<String> conditions = new ArrayList<>();
+
+    @Option(names = {"-g", "--group-by"}, description = "Column to group matching partitions by", arity = "1")
+    public String groupBy;
+
+    @Option(names = {"--top"}, description = "Column to rank matching partitions by, defaults to size", arity = "1", defaultValue = PartitionStatisticsFile.SIZE)
+    public String top;
+
+    @Parameters(arity = "1", description = "<file>")
+    public String file;
+
+    /**
+     * Condition on a fixed width column.
+     */
+    private static class Condition {
+        int column;
+        String operator;
+        long value;
+
+        boolean matches(PartitionStatisticsFile stats, int row) {
+            long v = stats.getLong(column, row);
+            switch (operator) {
+                case ">":
+                    return v > value;
+                case ">=":
+                    return v >= value;
+                case "<":
+                    return v < value;
+                case "<=":
+                    return v <= value;
+                case "=":
+                    return v == value;
+                default:
+                    return v != value;
+            }
+        }
+    }
+
+    /**
+     * Totals of a group of partitions.
+     */
+    private static class Group {
+        long partitions;
+        long size;
+        long rows;
+        long tombstones;
+        long droppable;
+    }
+
+    @Override
+    public void run() {
+        PartitionStatisticsFile stats;
+        try {
+            stats = PartitionStatisticsFile.open(new File(file));
+        } catch (IOException e) {
+            System.err.println("Unable to read " + file + ": " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        List<Condition> filters = new ArrayList<>();
+        for (String condition : conditions) {
+            Matcher matcher = CONDITION.matcher(condition);
+            if (!matcher.matches()) {
+                System.err.println("Invalid condition: " + condition);
+                System.exit(1);
+            }
+            Condition c = new Condition();
+            c.column = column(stats, matcher.group(1));
+            c.operator = matcher.group(2);
+            c.value = parseValue(matcher.group(1), matcher.group(3));
+            filters.add(c);
+        }
+        int groupColumn = groupBy != null ? column(stats, groupBy) : -1;
+        int topColumn = column(stats, top);
+
+        MinMaxPriorityQueue<Integer> leaders = MinMaxPriorityQueue
+            .orderedBy(Comparator.comparingLong((Integer row) -> stats.getLong(topColumn, row)).reversed())
+            .maximumSize(numPartitions)
+            .create();
+        Map<Long, Group> groups = new TreeMap<>();
+        int size = stats.getColumn(PartitionStatisticsFile.SIZE);
+        int rows = stats.getColumn(PartitionStatisticsFile.ROWS);
+        int tombstones = stats.getColumn(PartitionStatisticsFile.TOMBSTONES);
+        int droppable = stats.getColumn(PartitionStatisticsFile.DROPPABLE);
+        long matched = 0;
+        for (int row = 0; row < stats.getCount(); row++) {
+            boolean match = true;
+            for (Condition condition : filters) {
+                if (!condition.matches(stats, row)) {
+                    match = false;
+                    break;
+                }
+            }
+            if (!match) {
+                continue;
+            }
+            matched++;
+            leaders.add(row);
+            if (groupColumn >= 0) {
+                Group group = groups.computeIfAbsent(bucket(groupBy, stats.getLong(groupColumn, row)), k -> new Group());
+                group.partitions++;
+                group.size += stats.getLong(size, row);
+                group.rows += stats.getLong(rows, row);
+                group.tombstones += stats.getLong(tombstones, row);
+                group.droppable += stats.getLong(droppable, row);
+            }
+        }
+
+        System.out.println(String.format("Matched: %d of %d partitions of %s.%s", matched, stats.getCount(), stats.getKeyspace(), stats.getTable()));
+        if (!stats.isComplete()) {
+            System.out.println(String.format("Sample: the export holds %s%% of partitions", stats.getFraction() * 100));
+        }
+        System.out.println();
+        if (matched == 0) {
+            return;
+        }
+
+        if (groupColumn >= 0) {
+            System.out.println("Grouped by " + groupBy + ":");
+            TableBuilder gtb = new TableBuilder();
+            gtb.setHeader(groupBy, "Partitions", "Size", "Rows", "Tombstones", "(droppable)");
+            for (Map.Entry<Long, Group> entry : groups.entrySet()) {
+                Group group = entry.getValue();
+                gtb.addRow(
+                    bucketLabel(groupBy, entry.getKey()),
+                    Long.toString(group.partitions),
+                    Util.humanReadableByteCount(group.size),
+                    Long.toString(group.rows),
+                    Long.toString(group.tombstones),
+                    Long.toString(group.droppable)
+                );
+            }
+            System.out.println(gtb);
+        }
+
+        System.out.println("Top partitions by " + top + ":");
+        TableBuilder ttb = new TableBuilder();
+        ttb.setHeader("Key", "Token", "Size", "Rows", "(deleted)", "Cells", "Tombstones", "(droppable)", "SSTable Count", "Max Timestamp");
+        int key = stats.getColumn(PartitionStatisticsFile.KEY);
+        int token = stats.getColumn(PartitionStatisticsFile.TOKEN);
+        int deleted = stats.getColumn(PartitionStatisticsFile.DELETED);
+        int cells = stats.getColumn(PartitionStatisticsFile.CELLS);
+        int sstables = stats.getColumn(PartitionStatisticsFile.SSTABLES);
+        int maxTimestamp = stats.getColumn(PartitionStatisticsFile.MAX_TIMESTAMP);
+        while (!leaders.isEmpty()) {
+            int row = leaders.remove();
+            ttb.addRow(
+                stats.getString(key, row),
+                stats.getString(token, row),
+                Util.humanReadableByteCount(stats.getLong(size, row)),
+                Long.toString(stats.getLong(rows, row)),
+                Long.toString(stats.getLong(deleted, row)),
+                Long.toString(stats.getLong(cells, row)),
+                Long.toString(stats.getLong(tombstones, row)),
+                Long.toString(stats.getLong(droppable, row)),
+                Long.toString(stats.getLong(sstables, row)),
+                formatTimestamp(stats.getLong(maxTimestamp, row))
+            );
+        }
+        System.out.println(ttb);
+    }
+
+    /**
+     * Get the index of a fixed width column, exiting if there is none.
+     */
+    private static int column(PartitionStatisticsFile stats, String name) {
+        int column = stats.getColumn(name);
+        if (column < 0 || stats.isVariable(column)) {
+            List<String> names = new ArrayList<>();
+            for (String n : stats.getColumnNames()) {
+                if (!stats.isVariable(stats.getColumn(n))) {
+                    names.add(n);
+                }
+            }
+            System.err.println("Unknown column " + name + ", expected one of " + String.join(", ", names));
+            System.exit(1);
+        }
+        return column;
+    }
+
+    /**
+     * Parse a condition value. Sizes may have a unit and timestamps may be dates.
+     */
+    private static long parseValue(String column, String value) {
+        try {
+            if (column.equals(PartitionStatisticsFile.SIZE)) {
+                return Util.parseSize(value);
+            }
+            if (column.equals(PartitionStatisticsFile.MAX_TIMESTAMP) && value.indexOf('-') > 0) {
+                return LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli() * 1000;
+            }
+            return Long.parseLong(value);
+        } catch (RuntimeException e) {
+            System.err.println("Invalid value for " + column + ": " + value);
+            System.exit(1);
+            return 0;
+        }
+    }
+
+    /**
+     * Bucket of a value. SSTable counts are grouped by value, timestamps by day and other columns by power of two.
+     */
+    private static long bucket(String column, long value) {
+        if (column.equals(PartitionStatisticsFile.SSTABLES)) {
+            return value;
+        }
+        if (column.equals(PartitionStatisticsFile.MAX_TIMESTAMP)) {
+            return value == Long.MIN_VALUE ? Long.MIN_VALUE : Math.floorDiv(value, MICROS_PER_DAY);
+        }
+        return value <= 0 ? 0 : Long.highestOneBit(value);
+    }
+
+    private static String bucketLabel(String column, long bucket) {
+        if (column.equals(PartitionStatisticsFile.SSTABLES)) {
+            return Long.toString(bucket);
+        }
+        if (column.equals(PartitionStatisticsFile.MAX_TIMESTAMP)) {
+            return bucket == Long.MIN_VALUE ? "none" : LocalDate.ofEpochDay(bucket).toString();
+        }
+        if (bucket == 0) {
+            return "0";
+        }
+        if (column.equals(PartitionStatisticsFile.SIZE)) {
+            return Util.humanReadableByteCount(bucket, false) + " - " + Util.humanReadableByteCount(bucket * 2, false);
+        }
+        return bucket + " - " + (bucket * 2 - 1);
+    }
+
+    private static String formatTimestamp(long timestamp) {
+        return timestamp == Long.MIN_VALUE ? "" : Util.UTC_DATE_FORMAT.format(new Date(timestamp / 1000));
+    }
+}
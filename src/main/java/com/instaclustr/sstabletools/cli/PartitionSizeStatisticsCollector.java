@@ -1,5 +1,7 @@
 package com.instaclustr.sstabletools.cli;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -8,17 +10,24 @@ import java.util.Date;
 import java.util.List;
 
 import com.google.common.collect.MinMaxPriorityQueue;
+import com.instaclustr.sstabletools.AnalysisResult;
 import com.instaclustr.sstabletools.ColumnFamilyProxy;
 import com.instaclustr.sstabletools.Histogram;
+import com.instaclustr.sstabletools.OverlapMatrix;
 import com.instaclustr.sstabletools.PartitionReader;
 import com.instaclustr.sstabletools.PartitionStatistics;
 import com.instaclustr.sstabletools.ProgressBar;
 import com.instaclustr.sstabletools.SSTableReader;
 import com.instaclustr.sstabletools.SSTableStatistics;
 import com.instaclustr.sstabletools.Snapshot;
+import com.instaclustr.sstabletools.SampleEstimate;
 import com.instaclustr.sstabletools.TableBuilder;
+import com.instaclustr.sstabletools.TimeBudget;
+import com.instaclustr.sstabletools.TimeBudgetPartitionReader;
 import com.instaclustr.sstabletools.Util;
 import com.instaclustr.sstabletools.cassandra.CassandraBackend;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
@@ -38,12 +47,33 @@ public class PartitionSizeStatisticsCollector implements Runnable {
     @Option(names = {"-t"}, description = "Snapshot name", arity = "1")
     public String snapshotName;
 
+    @Option(names = {"--no-snapshot"}, description = "Read the live sstables instead of creating a snapshot", arity = "0")
+    public boolean noSnapshot;
+
     @Option(names = {"-f"}, description = "Filter to sstables (comma separated)", defaultValue = "")
     public String filters;
 
     @Option(names = {"-b"}, description = "Batch mode", arity = "0")
     public boolean batch;
 
+    @Option(names = {"--time-budget"}, description = "Stop after a wall-clock time (eg. 10m) and estimate totals from the token ranges read", arity = "1")
+    public String timeBudget;
+
+    @Option(names = {"--start-token"}, description = "Only read partitions with a token greater than this", arity = "1")
+    public String startToken;
+
+    @Option(names = {"--end-token"}, description = "Only read partitions with a token less than or equal to this", arity = "1")
+    public String endToken;
+
+    @Option(names = {"--ranges"}, description = "Only read partitions in token ranges (comma separated start:end pairs)", arity = "1")
+    public String tokenRanges;
+
+    @Option(names = {"--overlap"}, description = "Report partitions and bytes shared between pairs of sstables", arity = "0")
+    public boolean overlap;
+
+    @Option(names = {"--result"}, description = "Write a binary result that the combine command merges across nodes", arity = "1")
+    public String resultFile;
+
     @Parameters(arity = "2", description = "<keyspace> <table>")
     public List<String> params;
 
@@ -66,20 +96,37 @@ public class PartitionSizeStatisticsCollector implements Runnable {
         final String ksName = params.get(0);
         final String cfName = params.get(1);
 
-        try (final ColumnFamilyProxy cfProxy = CassandraBackend.getInstance().getColumnFamily(ksName, cfName, snapshotName, filter)) {
-            Collection<SSTableReader> sstableReaders = cfProxy.getIndexReaders();
-            long totalLength = 0;
-            for (SSTableReader reader : sstableReaders) {
-                totalLength += reader.getSSTableStatistics().size;
+        try (final ColumnFamilyProxy cfProxy = CassandraBackend.getInstance().getColumnFamily(ksName, cfName, snapshotName, filter, noSnapshot)) {
+            List<Range<Token>> ranges = Util.parseRanges(cfProxy.getPartitioner(), startToken, endToken, tokenRanges);
+            TimeBudget budget = null;
+            PartitionReader partitionReader;
+            if (timeBudget != null) {
+                budget = new TimeBudget(Util.parseDuration(timeBudget), cfProxy.getPartitioner(), ranges);
+                partitionReader = new TimeBudgetPartitionReader(budget, range -> cfProxy.getIndexReaders(Collections.singleton(range)));
+            } else {
+                Collection<SSTableReader> sstableReaders = ranges != null ? cfProxy.getIndexReaders(ranges) : cfProxy.getIndexReaders();
+                long totalLength = 0;
+                for (SSTableReader reader : sstableReaders) {
+                    totalLength += reader.getSSTableStatistics().size;
+                }
+                if (totalLength == 0) {
+                    System.out.println("No data found!");
+                    return;
+                }
+                partitionReader = new PartitionReader(sstableReaders, totalLength);
             }
-            if (totalLength == 0) {
-                System.out.println("No data found!");
-                System.exit(0);
+
+            OverlapMatrix overlapMatrix = null;
+            if (overlap) {
+                overlapMatrix = new OverlapMatrix();
+                partitionReader.setOverlapMatrix(overlapMatrix);
             }
 
             Histogram sizeHistogram = new Histogram();
             Histogram sstableHistogram = new Histogram();
             long partitionCount = 0;
+            SampleEstimate partitionEstimate = new SampleEstimate(1);
+            SampleEstimate sizeEstimate = new SampleEstimate(1);
 
             MinMaxPriorityQueue<PartitionStatistics> largestPartitions = MinMaxPriorityQueue
                 .orderedBy(PartitionStatistics.SIZE_COMPARATOR)
@@ -91,7 +138,7 @@ public class PartitionSizeStatisticsCollector implements Runnable {
                 .maximumSize(numPartitions)
                 .create();
 
-            PartitionReader partitionReader = new PartitionReader(sstableReaders, totalLength);
+            AnalysisResult result = resultFile != null ? new AnalysisResult("pstats", ksName, cfName, cfProxy.getPartitioner()) : null;
             PartitionStatistics stat;
             ProgressBar progressBar = new ProgressBar("Analyzing SSTables...", interactive);
             progressBar.updateProgress(0.0);
@@ -102,8 +149,31 @@ public class PartitionSizeStatisticsCollector implements Runnable {
                 sizeHistogram.update(stat.size);
                 sstableHistogram.update(stat.tableCount);
                 partitionCount++;
+                partitionEstimate.update(1);
+                sizeEstimate.update(stat.size);
+                if (result != null) {
+                    result.update(AnalysisResult.SIZE, stat.size);
+                    result.update(AnalysisResult.SSTABLES, stat.tableCount);
+                }
             }
+            progressBar.updateProgress(1.0);
+            if (partitionCount == 0) {
+                System.out.println("No data found!");
+                return;
+            }
+            int sstableCount = partitionReader.getSSTableStatistics().size();
             Snapshot sizeSnapshot = sizeHistogram.snapshot();
+            if (result != null) {
+                if (budget != null) {
+                    result.fraction = budget.getCoverage();
+                }
+                result.count(AnalysisResult.PARTITIONS, partitionCount);
+                result.count(AnalysisResult.SIZE, sizeSnapshot.getTotal());
+                result.setLeaders(AnalysisResult.SIZE, largestPartitions, cfProxy::formatKey);
+                result.setLeaders(AnalysisResult.SSTABLES, tableCountLeaders, cfProxy::formatKey);
+                result.sstables.addAll(partitionReader.getSSTableStatistics());
+                result.write(new File(resultFile));
+            }
             Snapshot sstableSnapshot = sstableHistogram.snapshot();
 
             cfProxy.close();
@@ -111,8 +181,15 @@ public class PartitionSizeStatisticsCollector implements Runnable {
             System.out.println("Summary:");
             TableBuilder tb = new TableBuilder();
             tb.setHeader("", "Size", "SSTable");
-            tb.addRow("Count", Long.toString(partitionCount), "");
-            tb.addRow("Total", Util.humanReadableByteCount(sizeSnapshot.getTotal()), Integer.toString(sstableReaders.size()));
+            if (budget != null) {
+                partitionEstimate.setFraction(budget.getCoverage());
+                sizeEstimate.setFraction(budget.getCoverage());
+                tb.addRow("Count", partitionEstimate.getEstimate() + " ± " + partitionEstimate.getMargin(), "");
+                tb.addRow("Total", Util.humanReadableByteCount(sizeEstimate.getEstimate()) + " ± " + Util.humanReadableByteCount(sizeEstimate.getMargin()), Integer.toString(sstableCount));
+            } else {
+                tb.addRow("Count", Long.toString(partitionCount), "");
+                tb.addRow("Total", Util.humanReadableByteCount(sizeSnapshot.getTotal()), Integer.toString(sstableCount));
+            }
             tb.addRow("Minimum", Util.humanReadableByteCount(sizeSnapshot.getMin()), Long.toString(sstableSnapshot.getMin()));
             tb.addRow("Average", Util.humanReadableByteCount(Math.round(sizeSnapshot.getMean())), String.format("%.1f", sstableSnapshot.getMean()));
             tb.addRow("std dev.", Util.humanReadableByteCount(Math.round(sizeSnapshot.getStdDev())), String.format("%.1f", sstableSnapshot.getStdDev()));
@@ -124,6 +201,10 @@ public class PartitionSizeStatisticsCollector implements Runnable {
             tb.addRow("99.9%", Util.humanReadableByteCount(Math.round(sizeSnapshot.getPercentile(0.999))), String.format("%.1f", sstableSnapshot.getPercentile(0.999)));
             tb.addRow("Maximum", Util.humanReadableByteCount(sizeSnapshot.getMax()), Long.toString(sstableSnapshot.getMax()));
             System.out.println(tb);
+            if (budget != null) {
+                System.out.println(String.format("Time budget: %.1f%% of token ranges read (%d of %d ranges completed), intervals at 95%% confidence", budget.getCoverage() * 100, budget.getCompletedRanges(), budget.getRangeCount()));
+                System.out.println();
+            }
 
             System.out.println("Largest partitions:");
             TableBuilder lptb = new TableBuilder();
@@ -178,11 +259,48 @@ public class PartitionSizeStatisticsCollector implements Runnable {
                     Util.UTC_DATE_FORMAT.format(new Date(stats.maxTimestamp / 1000)),
                     Integer.toString(stats.level),
                     Long.toString(stats.partitionCount),
-                    Util.humanReadableByteCount(stats.size / stats.partitionCount),
+                    Util.humanReadableByteCount(stats.partitionCount > 0 ? stats.size / stats.partitionCount : 0),
                     Util.humanReadableByteCount(stats.maxPartitionSize)
                 );
             }
             System.out.println(cltb);
+
+            if (overlapMatrix != null) {
+                System.out.println("SSTable overlap:");
+                TableBuilder optb = new TableBuilder();
+                optb.setHeader("SSTable", "SSTable", "Shared Partitions", "Shared Size");
+                List<OverlapMatrix.Pair> pairs = overlapMatrix.getPairs();
+                for (OverlapMatrix.Pair pair : pairs.subList(0, Math.min(numPartitions, pairs.size()))) {
+                    optb.addRow(
+                        pair.first,
+                        pair.second,
+                        Long.toString(pair.partitions),
+                        Util.humanReadableByteCount(pair.bytes)
+                    );
+                }
+                System.out.println(optb);
+
+                System.out.println("SSTable uniqueness:");
+                TableBuilder utb = new TableBuilder();
+                utb.setHeader("SSTable", "Partitions", "Unique Partitions", "Size", "Unique Size");
+                for (SSTableStatistics stats : sstableStats) {
+                    if (!overlapMatrix.getSSTables().contains(stats.filename)) {
+                        continue;
+                    }
+                    long[] totals = overlapMatrix.getTotals(stats.filename);
+                    utb.addRow(
+                        stats.filename,
+                        Long.toString(totals[0]),
+                        String.format("%.1f%%", 100.0 * totals[1] / Math.max(1, totals[0])),
+                        Util.humanReadableByteCount(totals[2]),
+                        String.format("%.1f%%", 100.0 * totals[3] / Math.max(1, totals[2]))
+                    );
+                }
+                System.out.println(utb);
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to write results: " + e.getMessage());
+            System.exit(1);
         }
     }
 }
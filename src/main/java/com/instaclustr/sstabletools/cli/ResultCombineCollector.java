@@ -0,0 +1,209 @@
+package com.instaclustr.sstabletools.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.instaclustr.sstabletools.AnalysisResult;
+import com.instaclustr.sstabletools.PartitionStatistics;
+import com.instaclustr.sstabletools.SSTableStatistics;
+import com.instaclustr.sstabletools.TableBuilder;
+import com.instaclustr.sstabletools.Util;
+import org.apache.cassandra.utils.EstimatedHistogram;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+/**
+ * Merge the binary results of cfstats or pstats from many nodes into a cluster-wide report.
+ */
+@Command(
+    versionProvider = CLI.class,
+    name = "combine",
+    usageHelpWidth = 128,
+    description = "Combine results of cfstats --result or pstats --result from many nodes into a cluster-wide report",
+    mixinStandardHelpOptions = true
+)
+public class ResultCombineCollector implements Runnable {
+
+    @Option(names = {"-n"}, description = "Number of partitions to display, defaults to 10", arity = "1", defaultValue = "10")
+    public int numPartitions;
+
+    @Parameters(arity = "1..*", description = "<result file>...")
+    public List<String> files;
+
+    /**
+     * Partition leading a ranking on one or more nodes.
+     */
+    private static class Replicated {
+        String key;
+        PartitionStatistics stats;
+        Set<String> hosts = new LinkedHashSet<>();
+    }
+
+    @Override
+    public void run() {
+        List<AnalysisResult> results = new ArrayList<>();
+        for (String file : files) {
+            try {
+                results.add(AnalysisResult.read(new File(file)));
+            } catch (IOException e) {
+                System.err.println("Unable to read " + file + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+        AnalysisResult first = results.get(0);
+        for (AnalysisResult result : results) {
+            if (!result.keyspace.equals(first.keyspace) || !result.table.equals(first.table)) {
+                System.err.println("Results are for different tables: " + first.keyspace + "." + first.table + " and " + result.keyspace + "." + result.table);
+                System.exit(1);
+            }
+        }
+
+        System.out.println("Nodes:");
+        TableBuilder ntb = new TableBuilder();
+        ntb.setHeader("Host", "Command", "Analysed", "Read", "SSTables", "SSTable Size", "Partitions", "Size");
+        Map<String, Long> counters = new LinkedHashMap<>();
+        Map<String, EstimatedHistogram> histograms = new LinkedHashMap<>();
+        long sstableCount = 0;
+        long sstableSize = 0;
+        for (AnalysisResult result : results) {
+            long size = 0;
+            for (SSTableStatistics stats : result.sstables) {
+                size += stats.size;
+            }
+            sstableCount += result.sstables.size();
+            sstableSize += size;
+            ntb.addRow(
+                result.host,
+                result.command,
+                Util.UTC_DATE_FORMAT.format(result.created),
+                String.format("%.1f%%", result.fraction * 100),
+                Integer.toString(result.sstables.size()),
+                Util.humanReadableByteCount(size),
+                Long.toString(extrapolate(result, AnalysisResult.PARTITIONS)),
+                Util.humanReadableByteCount(extrapolate(result, AnalysisResult.SIZE))
+            );
+            for (String name : result.counters.keySet()) {
+                counters.merge(name, extrapolate(result, name), Long::sum);
+            }
+            for (Map.Entry<String, EstimatedHistogram> entry : result.histograms.entrySet()) {
+                histograms.merge(entry.getKey(), entry.getValue(), AnalysisResult::merge);
+            }
+        }
+        System.out.println(ntb);
+
+        System.out.println("Cluster (summed over replicas):");
+        TableBuilder ctb = new TableBuilder();
+        ctb.setHeader("", "Count");
+        ctb.addRow("Nodes", Integer.toString(results.size()));
+        ctb.addRow("SSTables", Long.toString(sstableCount));
+        ctb.addRow("SSTable Size", Util.humanReadableByteCount(sstableSize));
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            String name = entry.getKey();
+            ctb.addRow(
+                capitalize(name),
+                name.equals(AnalysisResult.SIZE) ? Util.humanReadableByteCount(entry.getValue()) : Long.toString(entry.getValue())
+            );
+        }
+        System.out.println(ctb);
+
+        if (!histograms.isEmpty()) {
+            System.out.println("Cluster percentiles (per partition replica):");
+            TableBuilder ptb = new TableBuilder();
+            List<String> header = new ArrayList<>();
+            header.add("Percentile");
+            for (String name : histograms.keySet()) {
+                header.add(capitalize(name));
+            }
+            ptb.setHeader(header.toArray(new String[0]));
+            String[] labels = {"Minimum", "50%", "75%", "90%", "95%", "99%", "99.9%", "Maximum"};
+            double[] percentiles = {0, 0.5, 0.75, 0.9, 0.95, 0.99, 0.999, 1};
+            for (int i = 0; i < labels.length; i++) {
+                List<String> row = new ArrayList<>();
+                row.add(labels[i]);
+                for (Map.Entry<String, EstimatedHistogram> entry : histograms.entrySet()) {
+                    row.add(percentile(entry.getKey(), entry.getValue(), percentiles[i]));
+                }
+                ptb.addRow(row.toArray(new String[0]));
+            }
+            System.out.println(ptb);
+        }
+
+        Set<String> rankings = new LinkedHashSet<>();
+        for (AnalysisResult result : results) {
+            rankings.addAll(result.leaders.keySet());
+        }
+        for (String ranking : rankings) {
+            Map<ByteBuffer, Replicated> partitions = new HashMap<>();
+            for (AnalysisResult result : results) {
+                for (AnalysisResult.Leader leader : result.leaders.getOrDefault(ranking, new ArrayList<>())) {
+                    Replicated replicated = partitions.computeIfAbsent(leader.stats.key.getKey(), k -> new Replicated());
+                    replicated.hosts.add(result.host);
+                    if (replicated.stats == null || AnalysisResult.getValue(ranking, leader.stats) > AnalysisResult.getValue(ranking, replicated.stats)) {
+                        replicated.key = leader.key;
+                        replicated.stats = leader.stats;
+                    }
+                }
+            }
+            List<Replicated> leaders = new ArrayList<>(partitions.values());
+            leaders.sort(Comparator.comparingLong((Replicated r) -> AnalysisResult.getValue(ranking, r.stats)).reversed());
+            if (leaders.isEmpty() || AnalysisResult.getValue(ranking, leaders.get(0).stats) == 0) {
+                continue;
+            }
+            System.out.println("Top partitions by " + ranking + ":");
+            TableBuilder ltb = new TableBuilder();
+            ltb.setHeader("Key", "Replicas", "Size", "Rows", "(deleted)", "Tombstones", "SSTable Count");
+            for (Replicated r : leaders.subList(0, Math.min(numPartitions, leaders.size()))) {
+                ltb.addRow(
+                    r.key,
+                    Integer.toString(r.hosts.size()),
+                    Util.humanReadableByteCount(r.stats.size),
+                    Long.toString(r.stats.rowCount),
+                    Long.toString(r.stats.rowDeleteCount),
+                    Long.toString(r.stats.tombstoneCount),
+                    Long.toString(r.stats.tableCount)
+                );
+            }
+            System.out.println(ltb);
+        }
+    }
+
+    /**
+     * Extrapolate a counter of a node that only read a fraction of partitions.
+     */
+    private static long extrapolate(AnalysisResult result, String name) {
+        long value = result.counters.getOrDefault(name, 0L);
+        return result.fraction > 0 && result.fraction < 1 ? Math.round(value / result.fraction) : value;
+    }
+
+    static String percentile(String name, EstimatedHistogram histogram, double percentile) {
+        if (histogram.count() == 0) {
+            return "";
+        }
+        if (percentile == 0) {
+            return format(name, histogram.min());
+        }
+        if (histogram.isOverflowed()) {
+            // Percentiles can not be estimated past the last bucket.
+            return "> " + format(name, histogram.getLargestBucketOffset());
+        }
+        return format(name, percentile == 1 ? histogram.max() : histogram.percentile(percentile));
+    }
+
+    static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    static String format(String name, long value) {
+        return name.equals(AnalysisResult.SIZE) ? Util.humanReadableByteCount(value) : Long.toString(value);
+    }
+}
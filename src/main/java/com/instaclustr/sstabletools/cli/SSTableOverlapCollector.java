@@ -0,0 +1,180 @@
+package com.instaclustr.sstabletools.cli;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.clearspring.analytics.stream.cardinality.CardinalityMergeException;
+import com.clearspring.analytics.stream.cardinality.ICardinality;
+import com.google.common.collect.MinMaxPriorityQueue;
+import com.instaclustr.sstabletools.CassandraProxy;
+import com.instaclustr.sstabletools.SSTableMetadata;
+import com.instaclustr.sstabletools.TableBuilder;
+import com.instaclustr.sstabletools.Util;
+import com.instaclustr.sstabletools.cassandra.CassandraBackend;
+import org.apache.cassandra.db.compaction.TimeWindowCompactionStrategy;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+/**
+ * Estimate partition key overlap between sstables from the cardinality estimators in their compaction metadata.
+ * <p>
+ * The estimator of each sstable is a HyperLogLog sketch of its partition keys. Merging sketches estimates the distinct
+ * partitions of a set of sstables, so the keys shared by two sstables are their estimates less that of their merge.
+ */
+@Command(
+    versionProvider = CLI.class,
+    name = "overlap",
+    usageHelpWidth = 128,
+    description = "Estimated partition overlap between sstables from metadata",
+    mixinStandardHelpOptions = true
+)
+public class SSTableOverlapCollector implements Runnable {
+
+    @Option(names = {"-n"}, description = "Number of sstable pairs to display, defaults to 20", arity = "1", defaultValue = "20")
+    public int numPairs;
+
+    @Option(names = {"--window"}, description = "TWCS time window (eg. 1d) sstables are grouped by, defaults to 1d", arity = "1", defaultValue = "1d")
+    public String window;
+
+    @Parameters(arity = "2", description = "<keyspace> <table>")
+    public List<String> params;
+
+    /**
+     * Estimated overlap between two sstables.
+     */
+    private static class Pair {
+        SSTableMetadata first;
+        SSTableMetadata second;
+        long firstCount;
+        long secondCount;
+        long shared;
+        long distinct;
+    }
+
+    @Override
+    public void run() {
+        String ksName = params.get(0);
+        String cfName = params.get(1);
+
+        CassandraProxy proxy = CassandraBackend.getInstance();
+        List<SSTableMetadata> metadataCollection = new ArrayList<>();
+        for (SSTableMetadata metadata : proxy.getSSTableMetadata(ksName, cfName, true)) {
+            if (metadata.cardinality != null) {
+                metadataCollection.add(metadata);
+            }
+        }
+        if (metadataCollection.isEmpty()) {
+            System.out.println("No sstables found!");
+            return;
+        }
+        boolean isTWCS = proxy.getCompactionClass(ksName, cfName).equals(TimeWindowCompactionStrategy.class);
+
+        // Estimating cardinality walks the whole sketch, so estimate each sstable once.
+        Map<SSTableMetadata, Long> cardinalities = new IdentityHashMap<>();
+        for (SSTableMetadata metadata : metadataCollection) {
+            cardinalities.put(metadata, metadata.cardinality.cardinality());
+        }
+
+        try {
+            // Groups are TWCS windows, or levels for other strategies which are all level 0 unless leveled.
+            long windowMillis = Util.parseDuration(window);
+            Map<Long, List<SSTableMetadata>> groups = new TreeMap<>();
+            for (SSTableMetadata metadata : metadataCollection) {
+                long group = isTWCS ? Math.floorDiv(metadata.maxTimestamp / 1000, windowMillis) : metadata.level;
+                groups.computeIfAbsent(group, k -> new ArrayList<>()).add(metadata);
+            }
+
+            System.out.println("Summary:");
+            TableBuilder tb = new TableBuilder();
+            tb.setHeader("", "SSTables", "Partitions", "Distinct", "Reduction");
+            addGroup(tb, "All", metadataCollection, cardinalities);
+            System.out.println(tb);
+
+            System.out.println(isTWCS ? "Windows:" : "Levels:");
+            tb = new TableBuilder();
+            tb.setHeader(isTWCS ? "Window" : "Level", "SSTables", "Partitions", "Distinct", "Reduction");
+            for (Map.Entry<Long, List<SSTableMetadata>> entry : groups.entrySet()) {
+                String name = isTWCS
+                    ? Util.UTC_DATE_FORMAT.format(new Date(entry.getKey() * windowMillis))
+                    : Long.toString(entry.getKey());
+                addGroup(tb, name, entry.getValue(), cardinalities);
+            }
+            System.out.println(tb);
+
+            MinMaxPriorityQueue<Pair> pairs = MinMaxPriorityQueue
+                .orderedBy((Pair o1, Pair o2) -> -Long.compare(o1.shared, o2.shared))
+                .maximumSize(numPairs)
+                .create();
+            for (int i = 0; i < metadataCollection.size(); i++) {
+                SSTableMetadata first = metadataCollection.get(i);
+                long firstCount = cardinalities.get(first);
+                for (int j = i + 1; j < metadataCollection.size(); j++) {
+                    SSTableMetadata second = metadataCollection.get(j);
+                    if (!first.overlaps(second)) {
+                        continue;
+                    }
+                    Pair pair = new Pair();
+                    pair.first = first;
+                    pair.second = second;
+                    pair.firstCount = firstCount;
+                    pair.secondCount = cardinalities.get(second);
+                    pair.distinct = first.cardinality.merge(second.cardinality).cardinality();
+                    pair.shared = Math.max(0, pair.firstCount + pair.secondCount - pair.distinct);
+                    if (pair.shared > 0) {
+                        pairs.add(pair);
+                    }
+                }
+            }
+
+            System.out.println("Most overlapping sstables:");
+            tb = new TableBuilder();
+            tb.setHeader("SSTable", "SSTable", "Partitions", "Partitions", "Shared", "Overlap", "Reduction");
+            while (!pairs.isEmpty()) {
+                Pair pair = pairs.removeFirst();
+                tb.addRow(
+                    pair.first.filename,
+                    pair.second.filename,
+                    Long.toString(pair.firstCount),
+                    Long.toString(pair.secondCount),
+                    Long.toString(pair.shared),
+                    String.format("%.1f%%", 100.0 * pair.shared / Math.max(1, Math.min(pair.firstCount, pair.secondCount))),
+                    String.format("%.1f%%", 100.0 * pair.shared / Math.max(1, pair.firstCount + pair.secondCount))
+                );
+            }
+            System.out.println(tb);
+        } catch (CardinalityMergeException e) {
+            System.err.println("Unable to merge cardinality estimators: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Add a row for a group of sstables with their partitions, estimated distinct partitions and the reduction in
+     * partitions from compacting them together.
+     *
+     * @param cardinalities Estimated partitions of each sstable.
+     */
+    private static void addGroup(TableBuilder tb, String name, List<SSTableMetadata> group, Map<SSTableMetadata, Long> cardinalities) throws CardinalityMergeException {
+        long partitions = 0;
+        ICardinality[] estimators = new ICardinality[group.size() - 1];
+        for (int i = 0; i < group.size(); i++) {
+            partitions += cardinalities.get(group.get(i));
+            if (i > 0) {
+                estimators[i - 1] = group.get(i).cardinality;
+            }
+        }
+        long distinct = group.get(0).cardinality.merge(estimators).cardinality();
+        tb.addRow(
+            name,
+            Integer.toString(group.size()),
+            Long.toString(partitions),
+            Long.toString(distinct),
+            String.format("%.1f%%", partitions > 0 ? 100.0 * Math.max(0, partitions - distinct) / partitions : 0)
+        );
+    }
+}
@@ -2,6 +2,8 @@ package com.instaclustr.sstabletools.cli;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import com.instaclustr.sstabletools.CassandraProxy;
 import com.instaclustr.sstabletools.SSTableMetadata;
@@ -38,6 +40,9 @@ public class SummaryCollector implements Runnable {
 
         CassandraProxy backend = CassandraBackend.getInstance();
 
+        // SSTable count, disk size and data size of each data directory.
+        Map<String, long[]> directories = new TreeMap<>();
+
         for (String ksName : backend.getKeyspaces()) {
             for (String cfName : backend.getColumnFamilies(ksName)) {
                 List<SSTableMetadata> metadataCollection = CassandraBackend.getInstance().getSSTableMetadata(ksName, cfName);
@@ -49,6 +54,10 @@ public class SummaryCollector implements Runnable {
                 for (SSTableMetadata metadata : metadataCollection) {
                     diskSize += metadata.diskLength;
                     dataSize += metadata.uncompressedLength;
+                    long[] directory = directories.computeIfAbsent(metadata.dataDirectory, k -> new long[3]);
+                    directory[0]++;
+                    directory[1] += metadata.diskLength;
+                    directory[2] += metadata.uncompressedLength;
                     if (metadata.isRepaired) {
                         repaired++;
                         repairedAt = Math.max(repairedAt, metadata.repairedAt);
@@ -68,5 +77,27 @@ public class SummaryCollector implements Runnable {
         }
 
         System.out.println(tb);
+
+        if (directories.isEmpty()) {
+            return;
+        }
+        long totalDiskSize = 0;
+        for (long[] directory : directories.values()) {
+            totalDiskSize += directory[1];
+        }
+        System.out.println("Data directories:");
+        TableBuilder dtb = new TableBuilder();
+        dtb.setHeader("Directory", "SSTables", "Disk Size", "Data Size", "Disk %");
+        for (Map.Entry<String, long[]> entry : directories.entrySet()) {
+            long[] directory = entry.getValue();
+            dtb.addRow(
+                entry.getKey(),
+                Long.toString(directory[0]),
+                Util.humanReadableByteCount(directory[1]),
+                Util.humanReadableByteCount(directory[2]),
+                String.format("%.1f%%", totalDiskSize > 0 ? 100.0 * directory[1] / totalDiskSize : 0)
+            );
+        }
+        System.out.println(dtb);
     }
 }
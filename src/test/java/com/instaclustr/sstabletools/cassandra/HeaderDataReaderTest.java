@@ -0,0 +1,292 @@
+package com.instaclustr.sstabletools.cassandra;
+
+import com.instaclustr.sstabletools.PartitionStatistics;
+import com.instaclustr.sstabletools.SSTableReader;
+import com.instaclustr.sstabletools.SSTableStatistics;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.cql3.ColumnIdentifier;
+import org.apache.cassandra.cql3.statements.schema.CreateTableStatement;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.CQLSSTableWriter;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.schema.ColumnMetadata;
+import org.apache.cassandra.schema.TableMetadata;
+import org.apache.cassandra.schema.TableMetadataRef;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that {@link HeaderDataReader} collects the same statistics as decoding full rows and cells.
+ * <p>
+ * SSTables are written in each format with TTLs, null cell tombstones, collections, static columns, row, range and
+ * partition deletions, overlapping range deletions that serialize as boundaries and cells of dropped columns.
+ */
+@RunWith(Parameterized.class)
+public class HeaderDataReaderTest {
+    private static final String SCHEMA = "CREATE TABLE ks.t (pk int, ck int, v text, s text static, tags set<text>, " +
+            "props map<text, int>, gone text, gone_tags set<text>, PRIMARY KEY (pk, ck)) WITH gc_grace_seconds = 0";
+
+    /**
+     * Time in microseconds the gone columns were dropped at, between the timestamps of the old and new cells.
+     */
+    private static final long DROPPED_TIME = 2000;
+
+    private static final long OLD = 1000;
+
+    private static final long NEW = 3000;
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static final Map<String, ColumnFamilyBackend> backends = new TreeMap<>();
+
+    @Parameterized.Parameter
+    public String format;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> formats() {
+        return Arrays.asList(new Object[][]{{"big"}, {"bti"}});
+    }
+
+    @BeforeClass
+    public static void writeSSTables() throws IOException, InterruptedException {
+        DatabaseDescriptor.clientInitialization();
+        for (String format : DatabaseDescriptor.getSSTableFormats().keySet()) {
+            DatabaseDescriptor.setSelectedSSTableFormat(DatabaseDescriptor.getSSTableFormats().get(format));
+            File dir = folder.newFolder(format);
+            writeFixtures(dir);
+            backends.put(format, new ColumnFamilyBackend(metadata(), open(dir)));
+        }
+        // Let the TTLs of one second expire and the tombstones pass gc_grace_seconds before Util takes the time.
+        Thread.sleep(2000);
+    }
+
+    @AfterClass
+    public static void closeBackends() {
+        for (ColumnFamilyBackend backend : backends.values()) {
+            backend.close();
+        }
+    }
+
+    private static void writeFixtures(File dir) throws IOException {
+        List<Object[]> rows = new ArrayList<>();
+        for (int pk = 0; pk < 20; pk++) {
+            for (int ck = 0; ck < 10; ck++) {
+                // Every third value is null, writing a cell tombstone.
+                String v = ck % 3 == 0 ? null : "value " + pk + ":" + ck;
+                Set<String> tags = ck % 4 == 0 ? Collections.emptySet() : new TreeSet<>(Arrays.asList("a" + ck, "b" + ck));
+                rows.add(new Object[]{pk, ck, v, "static " + pk, tags, Collections.singletonMap("p", ck), "gone " + ck, Collections.singleton("g"), NEW + ck});
+            }
+        }
+        // A wide partition spanning several index blocks.
+        char[] padding = new char[512];
+        Arrays.fill(padding, 'x');
+        for (int ck = 0; ck < 1000; ck++) {
+            rows.add(new Object[]{100, ck, new String(padding), null, null, null, null, null, NEW});
+        }
+        write(dir, "INSERT INTO ks.t (pk, ck, v, s, tags, props, gone, gone_tags) VALUES (?, ?, ?, ?, ?, ?, ?, ?) USING TIMESTAMP ?", rows);
+
+        rows = new ArrayList<>();
+        for (int pk = 0; pk < 20; pk++) {
+            for (int ck = 0; ck < 5; ck++) {
+                // Cells of the dropped columns older than the drop are ignored.
+                rows.add(new Object[]{pk, ck, "old " + ck, "gone " + ck, Collections.singleton("g"), OLD});
+            }
+        }
+        write(dir, "INSERT INTO ks.t (pk, ck, v, gone, gone_tags) VALUES (?, ?, ?, ?, ?) USING TIMESTAMP ?", rows);
+
+        rows = new ArrayList<>();
+        for (int pk = 0; pk < 20; pk++) {
+            for (int ck = 0; ck < 5; ck++) {
+                // Rows with a TTL, some expired and some with null cells.
+                rows.add(new Object[]{pk, ck, ck == 0 ? null : "ttl " + ck, Collections.singletonMap("t", ck), pk % 2 == 0 ? 1 : 86400 + ck});
+            }
+        }
+        write(dir, "INSERT INTO ks.t (pk, ck, v, props) VALUES (?, ?, ?, ?) USING TTL ?", rows);
+
+        rows = new ArrayList<>();
+        for (int pk = 0; pk < 20; pk++) {
+            // Cells with their own TTL and collection elements added without a row liveness.
+            rows.add(new Object[]{3600 + pk, "updated " + pk, Collections.singleton("added"), pk, 20 + pk});
+        }
+        write(dir, "UPDATE ks.t USING TTL ? SET v = ?, tags = tags + ? WHERE pk = ? AND ck = ?", rows);
+
+        rows = new ArrayList<>();
+        for (int pk = 0; pk < 30; pk++) {
+            rows.add(new Object[]{pk % 2 == 0 ? null : "static only " + pk, pk});
+        }
+        write(dir, "UPDATE ks.t SET s = ? WHERE pk = ?", rows);
+
+        rows = new ArrayList<>();
+        for (int pk = 0; pk < 20; pk++) {
+            rows.add(new Object[]{NEW + 10, pk, 1});
+            rows.add(new Object[]{NEW + 10, pk, 7});
+        }
+        write(dir, "DELETE FROM ks.t USING TIMESTAMP ? WHERE pk = ? AND ck = ?", rows);
+
+        rows = new ArrayList<>();
+        for (int pk = 0; pk < 20; pk++) {
+            // Overlapping deletions with different timestamps meet at boundary markers.
+            rows.add(new Object[]{NEW + 20, pk, 2, 6});
+            rows.add(new Object[]{NEW + 30, pk, 4, 8});
+            rows.add(new Object[]{NEW + 20, pk, 20, 30});
+        }
+        write(dir, "DELETE FROM ks.t USING TIMESTAMP ? WHERE pk = ? AND ck >= ? AND ck <= ?", rows);
+
+        rows = new ArrayList<>();
+        for (int pk = 0; pk < 20; pk++) {
+            rows.add(new Object[]{pk, 3});
+        }
+        write(dir, "DELETE v, tags, props['p'] FROM ks.t WHERE pk = ? AND ck = ?", rows);
+
+        rows = new ArrayList<>();
+        for (int pk = 15; pk < 25; pk++) {
+            rows.add(new Object[]{NEW + 40, pk});
+        }
+        write(dir, "DELETE FROM ks.t USING TIMESTAMP ? WHERE pk = ?", rows);
+    }
+
+    /**
+     * Write an sstable of a statement in a directory of its own.
+     */
+    private static void write(File dir, String statement, List<Object[]> rows) throws IOException {
+        File sstableDir = new File(dir, Integer.toString(dir.list().length));
+        assertTrue(sstableDir.mkdir());
+        try (CQLSSTableWriter writer = CQLSSTableWriter.builder()
+                .inDirectory(sstableDir.getPath())
+                .forTable(SCHEMA)
+                .using(statement)
+                .build()) {
+            for (Object[] row : rows) {
+                writer.addRow(row);
+            }
+        }
+    }
+
+    /**
+     * Metadata of the table after the gone columns were dropped.
+     */
+    private static TableMetadata metadata() {
+        TableMetadata.Builder builder = CreateTableStatement.parse(SCHEMA, "ks").partitioner(Murmur3Partitioner.instance);
+        for (String name : Arrays.asList("gone", "gone_tags")) {
+            ColumnIdentifier identifier = ColumnIdentifier.getInterned(name, false);
+            ColumnMetadata column = builder.getColumn(identifier);
+            builder.removeRegularOrStaticColumn(identifier).recordColumnDrop(column, DROPPED_TIME);
+        }
+        return builder.build();
+    }
+
+    private static List<org.apache.cassandra.io.sstable.format.SSTableReader> open(File dir) {
+        TableMetadataRef metadata = TableMetadataRef.forOfflineTools(metadata());
+        List<org.apache.cassandra.io.sstable.format.SSTableReader> sstables = new ArrayList<>();
+        File[] sstableDirs = dir.listFiles();
+        Arrays.sort(sstableDirs);
+        for (File sstableDir : sstableDirs) {
+            for (File file : sstableDir.listFiles((d, name) -> name.endsWith("-Data.db"))) {
+                Descriptor descriptor = Descriptor.fromFileWithComponent(new org.apache.cassandra.io.util.File(file), "ks", "t").left;
+                sstables.add(org.apache.cassandra.io.sstable.format.SSTableReader.openNoValidation(null, descriptor, metadata));
+            }
+        }
+        return sstables;
+    }
+
+    @Test
+    public void testWholeSSTables() {
+        ColumnFamilyBackend backend = backends.get(format);
+        backend.setFullDecode(true);
+        List<String> expected = read(backend.getDataReaders());
+        backend.setFullDecode(false);
+        List<String> actual = read(backend.getDataReaders());
+        assertEquals(expected, actual);
+        assertFixtures(backend);
+    }
+
+    @Test
+    public void testTokenRanges() {
+        ColumnFamilyBackend backend = backends.get(format);
+        Token min = Murmur3Partitioner.instance.getMinimumToken();
+        Token mid = new Murmur3Partitioner.LongToken(0);
+        List<Range<Token>> ranges = Arrays.asList(new Range<>(min, mid), new Range<>(mid, min));
+        backend.setFullDecode(true);
+        List<String> expected = read(backend.getDataReaders(null, ranges));
+        backend.setFullDecode(false);
+        List<String> actual = read(backend.getDataReaders(null, ranges));
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Check the fixtures hold what the comparison is meant to cover.
+     */
+    private static void assertFixtures(ColumnFamilyBackend backend) {
+        backend.setFullDecode(true);
+        SSTableStatistics total = null;
+        for (SSTableReader reader : backend.getDataReaders()) {
+            while (reader.next()) {
+                // Read every partition to collect the SSTable statistics.
+            }
+            reader.close();
+            if (total == null) {
+                total = reader.getSSTableStatistics();
+            } else {
+                total.add(reader.getSSTableStatistics());
+            }
+        }
+        assertTrue("expiring cells", total.expiringCellCount > 0);
+        assertTrue("expired cells", total.liveCellCount < total.cellCount - total.tombstoneCount);
+        assertTrue("droppable tombstones", total.droppableTombstoneCount > 0);
+        assertTrue("row deletions", total.rowDeleteCount > 0);
+        assertTrue("range tombstones", total.rangeTombstoneCount > 0);
+        assertTrue("partition deletions", total.partitionDeleteCount > 0);
+    }
+
+    /**
+     * Read every partition of each reader and describe its statistics and those of the SSTable.
+     */
+    private static List<String> read(Collection<SSTableReader> readers) {
+        List<String> result = new ArrayList<>();
+        for (SSTableReader reader : readers) {
+            while (reader.next()) {
+                result.add(describe(reader.getPartitionStatistics()));
+            }
+            reader.close();
+            result.add(describe(reader.getSSTableStatistics()));
+        }
+        return result;
+    }
+
+    private static String describe(PartitionStatistics p) {
+        return String.format("partition %s: size=%d rows=%d deleted=%d cells=%d tombstones=%d droppable=%d maxTimestamp=%d ttl=%s",
+                p.key, p.size, p.rowCount, p.rowDeleteCount, p.cellCount, p.tombstoneCount, p.droppableTombstoneCount,
+                p.maxTimestamp, new TreeMap<>(p.ttl));
+    }
+
+    private static String describe(SSTableStatistics s) {
+        return String.format("sstable %s: partitions=%d size=%d maxPartitionSize=%d rows=%d deleted=%d cells=%d live=%d expiring=%d " +
+                        "rangeTombstones=%d counters=%d tombstones=%d droppable=%d partitionDeletes=%d",
+                s.filename, s.partitionCount, s.size, s.maxPartitionSize, s.rowCount, s.rowDeleteCount, s.cellCount,
+                s.liveCellCount, s.expiringCellCount, s.rangeTombstoneCount, s.counterCellCount, s.tombstoneCount,
+                s.droppableTombstoneCount, s.partitionDeleteCount);
+    }
+}
@@ -0,0 +1,110 @@
+package com.instaclustr.sstabletools.cassandra;
+
+import com.instaclustr.sstabletools.PurgeStatistics;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.cql3.statements.schema.CreateTableStatement;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.io.sstable.CQLSSTableWriter;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.schema.TableMetadata;
+import org.apache.cassandra.schema.TableMetadataRef;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntBinaryOperator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that the bytes {@link PurgeStatisticBackend} reports as reclaimable match rewriting the merged rows.
+ */
+public class PurgeStatisticBackendTest {
+    private static final String SCHEMA = "CREATE TABLE ks.t (pk int, ck int, v text, PRIMARY KEY (pk, ck)) " +
+            "WITH compression = {'enabled': false}";
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static TableMetadata metadata;
+
+    private static final List<SSTableReader> sstables = new ArrayList<>();
+
+    @BeforeClass
+    public static void writeSSTables() throws IOException {
+        DatabaseDescriptor.clientInitialization();
+        metadata = CreateTableStatement.parse(SCHEMA, "ks").partitioner(Murmur3Partitioner.instance).build();
+        // Disjoint rows of the same partitions, rows overwritten by the second sstable and partitions only in the first.
+        sstables.add(write(folder.newFolder("a"), (pk, ck) -> ck < 5 ? 1000 : 0));
+        sstables.add(write(folder.newFolder("b"), (pk, ck) -> pk < 20 && ck >= 3 ? 2000 : 0));
+    }
+
+    @AfterClass
+    public static void releaseSSTables() {
+        for (SSTableReader sstable : sstables) {
+            sstable.selfRef().release();
+        }
+    }
+
+    /**
+     * Write rows to an sstable.
+     *
+     * @param timestamp Timestamp of the row of a partition key and clustering, or 0 to not write the row.
+     */
+    private static SSTableReader write(File dir, IntBinaryOperator timestamp) throws IOException {
+        try (CQLSSTableWriter writer = CQLSSTableWriter.builder()
+                .inDirectory(dir.getPath())
+                .forTable(SCHEMA)
+                .using("INSERT INTO ks.t (pk, ck, v) VALUES (?, ?, ?) USING TIMESTAMP ?")
+                .build()) {
+            for (int pk = 0; pk < 25; pk++) {
+                for (int ck = 0; ck < 10; ck++) {
+                    long rowTimestamp = timestamp.applyAsInt(pk, ck);
+                    if (rowTimestamp == 0) {
+                        continue;
+                    }
+                    writer.addRow(pk, ck, "value " + pk + ":" + ck + " at " + rowTimestamp, rowTimestamp);
+                }
+            }
+        }
+        File[] dataFiles = dir.listFiles((d, name) -> name.endsWith("-Data.db"));
+        assertEquals(1, dataFiles.length);
+        Descriptor descriptor = Descriptor.fromFileWithComponent(new org.apache.cassandra.io.util.File(dataFiles[0]), "ks", "t").left;
+        return SSTableReader.openNoValidation(null, descriptor, TableMetadataRef.forOfflineTools(metadata));
+    }
+
+    @Test
+    public void testReclaimMatchesRewrite() throws IOException {
+        long size = 0;
+        long reclaimable = 0;
+        PurgeStatisticBackend reader = new PurgeStatisticBackend(sstables, metadata.params.gcGraceSeconds, null, null, null);
+        while (reader.hasNext()) {
+            PurgeStatistics stats = reader.next();
+            size += stats.size;
+            reclaimable += stats.reclaimable;
+        }
+        reader.close();
+        long inputSize = 0;
+        for (SSTableReader sstable : sstables) {
+            inputSize += sstable.uncompressedLength();
+        }
+        assertEquals(inputSize, size);
+        // The rows left once merged, rewritten into a single sstable.
+        SSTableReader rewritten = write(folder.newFolder("rewritten"), (pk, ck) -> pk < 20 && ck >= 3 ? 2000 : ck < 5 ? 1000 : 0);
+        try {
+            long rewrittenSize = rewritten.uncompressedLength();
+            assertTrue("overlapping rows to reclaim", rewrittenSize < inputSize);
+            assertEquals(inputSize - rewrittenSize, reclaimable);
+        } finally {
+            rewritten.selfRef().release();
+        }
+    }
+}